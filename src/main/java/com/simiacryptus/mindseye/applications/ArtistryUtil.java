@@ -389,9 +389,13 @@ public class ArtistryUtil {
   }
 
   protected static PipelineNetwork wrapTiledAvg(final Layer subnet, final int size) {
+    return wrapAvg(wrapTiled(subnet, size));
+  }
+
+  protected static ImgTileSubnetLayer wrapTiled(final Layer subnet, final int size) {
     ImgTileSubnetLayer tileSubnetLayer = new ImgTileSubnetLayer(subnet, size, size, size, size);
     subnet.freeRef();
-    return wrapAvg(tileSubnetLayer);
+    return tileSubnetLayer;
   }
 
   public static <T> T logExceptionWithDefault(@Nonnull final NotebookOutput log, Supplier<T> fn, T defaultValue) {
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.simiacryptus.lang.Tuple2;
+import com.simiacryptus.mindseye.eval.ArrayTrainable;
+import com.simiacryptus.mindseye.eval.Trainable;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.layers.cudnn.ValueLayer;
+import com.simiacryptus.mindseye.layers.java.ProductInputsLayer;
+import com.simiacryptus.mindseye.network.DAGNode;
+import com.simiacryptus.mindseye.network.PipelineNetwork;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Helpers for optimizing several canvases as one batch through a single loss network, as in a parameter sweep whose
+ * cells differ only in their loss coefficients. The network and its loss heads are built once; each loss component is
+ * then multiplied by a per-row constant, so row n of the batch is scored with canvas n's coefficients. Rows must be
+ * evaluated in one batch, in the order the weights were given.
+ * <p>
+ * The rows are not independent runs: they share one trainer, so one line search picks a single step size for the
+ * summed loss, and the iteration count, timeout and termination are common to all rows. Each row's weights are
+ * normalized to unit L1 norm so that cells with large coefficients do not dominate the step size, which changes the
+ * absolute loss scale of a row but not the balance between its terms.
+ */
+public final class BatchedSweep {
+
+  private BatchedSweep() {
+  }
+
+  /**
+   * Checks that every cell has the same nonzero loss terms as the first. The batch shares one set of loss heads, and the
+   * style is measured once, from the first cell, so it only holds the statistics that the first cell's terms need. Call
+   * this before measuring the style or building any network.
+   *
+   * @param cells the sweep cells
+   * @param terms the nonzero loss terms of a cell, such as (layer, term) pairs
+   * @throws IllegalArgumentException if there are no cells, or naming the first cell whose terms differ
+   */
+  public static <S> void checkTerms(@Nonnull final List<S> cells, @Nonnull final Function<S, Set<String>> terms) {
+    if (cells.isEmpty()) throw new IllegalArgumentException("No sweep cells");
+    Set<String> first = terms.apply(cells.get(0));
+    for (int n = 1; n < cells.size(); n++) {
+      Set<String> cell = terms.apply(cells.get(n));
+      if (first.equals(cell)) continue;
+      Set<String> extra = new TreeSet<>(cell);
+      extra.removeAll(first);
+      Set<String> missing = new TreeSet<>(first);
+      missing.removeAll(cell);
+      throw new IllegalArgumentException(String.format(
+          "Sweep cells must share their nonzero loss terms, since the style is measured from cell 0: cell %d adds %s and lacks %s",
+          n, extra, missing));
+    }
+  }
+
+  /**
+   * Extracts the loss coefficients a fitness builder would use, without touching the real network, by building the
+   * components against a throwaway single-input network.
+   *
+   * @param layerTypes the layers to map onto the throwaway input
+   * @param builder    builds the weighted loss components from a layer-to-node map
+   * @return the coefficient of each component, in build order
+   */
+  @Nonnull
+  public static <T> double[] coefficients(
+      @Nonnull final T[] layerTypes,
+      @Nonnull final Function<Map<T, DAGNode>, List<Tuple2<Double, DAGNode>>> builder
+  ) {
+    PipelineNetwork scratch = new PipelineNetwork(1);
+    try {
+      Map<T, DAGNode> nodes = new HashMap<>();
+      for (T layerType : layerTypes) nodes.put(layerType, scratch.getInput(0));
+      return builder.apply(nodes).stream().mapToDouble(x -> x._1).toArray();
+    } finally {
+      scratch.freeRef();
+    }
+  }
+
+  /**
+   * Sums loss components into the network's output, scaling component i of row n by weights.get(n)[i] divided by the
+   * L1 norm of row n. Rows whose weights are all zero are left as they are.
+   *
+   * @param network               the network holding the components
+   * @param components            the loss components; their own coefficients are ignored
+   * @param weights               one coefficient array per row, each aligned with the components
+   * @param parallelLossFunctions whether to evaluate the components in parallel
+   * @return the network
+   */
+  @Nonnull
+  public static PipelineNetwork reduce(
+      @Nonnull final PipelineNetwork network,
+      @Nonnull final List<Tuple2<Double, DAGNode>> components,
+      @Nonnull final List<double[]> weights,
+      final boolean parallelLossFunctions
+  ) {
+    for (double[] row : weights) {
+      if (row.length != components.size()) {
+        throw new IllegalArgumentException(String.format(
+            "Sweep cells must share their nonzero loss terms: %d coefficients for %d components", row.length, components.size()));
+      }
+    }
+    double[] norms = weights.stream().mapToDouble(row -> {
+      double norm = Arrays.stream(row).map(Math::abs).sum();
+      return 0 == norm ? 1 : norm;
+    }).toArray();
+    List<Tuple2<Double, DAGNode>> weighted = new ArrayList<>();
+    for (int i = 0; i < components.size(); i++) {
+      Tensor[] column = new Tensor[weights.size()];
+      for (int n = 0; n < column.length; n++) column[n] = new Tensor(new double[]{weights.get(n)[i] / norms[n]}, 1);
+      weighted.add(new Tuple2<>(1.0, network.wrap(
+          new ProductInputsLayer(),
+          components.get(i)._2,
+          network.wrap(new ValueLayer(column), new DAGNode[]{})
+      )));
+    }
+    ArtistryUtil.reduce(network, weighted, parallelLossFunctions);
+    return network;
+  }
+
+  /**
+   * @param network  the loss network
+   * @param canvases the canvases, optimized in place
+   * @return a trainable evaluating all canvases as a single batch
+   */
+  @Nonnull
+  public static Trainable getTrainable(@Nonnull final PipelineNetwork network, @Nonnull final List<Tensor> canvases) {
+    Tensor[][] data = new Tensor[canvases.size()][];
+    for (int n = 0; n < data.length; n++) data[n] = new Tensor[]{canvases.get(n)};
+    return new ArrayTrainable(network, data.length).setVerbose(true).setMask(true).setData(Arrays.asList(data));
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.simiacryptus.mindseye.lang.Layer;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.models.ImageClassifier;
+import com.simiacryptus.mindseye.util.ImageUtil;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Classifies a corpus of images without materializing it. Files are listed lazily, decoded and resized on a bounded
+ * worker pool, fed to the classifier in fixed-size batches, and the top-k predictions are written as one JSON object
+ * per line as each batch completes. At most {@link #getMaxInFlight()} decoded images plus one batch are held in memory
+ * at any time, regardless of corpus size.
+ */
+public class ClassificationStream {
+  private static final Logger logger = LoggerFactory.getLogger(ClassificationStream.class);
+
+  @Nonnull
+  private final ImageClassifier classifier;
+  private int batchSize = 16;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int maxInFlight = 64;
+  private int count = 5;
+  private int resolution = 224;
+
+  public ClassificationStream(@Nonnull final ImageClassifier classifier) {
+    this.classifier = classifier;
+  }
+
+  /**
+   * Classifies every file directly under a HadoopUtil-supported path and writes JSON lines to another.
+   *
+   * @param inputPath  the input directory
+   * @param outputPath the output file
+   * @return the number of images classified
+   */
+  public long classify(@Nonnull final CharSequence inputPath, @Nonnull final CharSequence outputPath) {
+    try (OutputStream out = HadoopUtil.write(outputPath)) {
+      return classify(HadoopUtil.streamFiles(inputPath), out);
+    } catch (IOException e) {
+      throw new RuntimeException(String.format("Error writing %s", outputPath), e);
+    }
+  }
+
+  /**
+   * Classifies a stream of image locations. The output stream is flushed after each batch but not closed.
+   *
+   * @param files the image locations
+   * @param out   the output stream
+   * @return the number of images classified
+   */
+  public long classify(@Nonnull final Stream<? extends CharSequence> files, @Nonnull final OutputStream out) {
+    ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("classify-%d").build());
+    // getNetwork returns the classifier's cached layer; hold our own reference while classifying.
+    Layer network = classifier.getNetwork();
+    network.addRef();
+    List<CharSequence> categories = classifier.getCategories();
+    Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    Gson gson = new Gson();
+    Deque<Map.Entry<CharSequence, Future<Tensor>>> inFlight = new ArrayDeque<>();
+    List<CharSequence> batchFiles = new ArrayList<>();
+    List<Tensor> batchData = new ArrayList<>();
+    long startTime = System.nanoTime();
+    long total = 0;
+    try {
+      Iterator<? extends CharSequence> iterator = files.iterator();
+      while (iterator.hasNext() || !inFlight.isEmpty()) {
+        while (iterator.hasNext() && inFlight.size() < Math.max(batchSize, maxInFlight)) {
+          CharSequence file = iterator.next();
+          inFlight.add(new AbstractMap.SimpleImmutableEntry<>(file, pool.submit(() -> load(file))));
+        }
+        Map.Entry<CharSequence, Future<Tensor>> next = inFlight.poll();
+        @Nullable Tensor tensor = get(next.getKey(), next.getValue());
+        if (null == tensor) continue;
+        batchFiles.add(next.getKey());
+        batchData.add(tensor);
+        if (batchData.size() >= batchSize) {
+          total += write(writer, gson, network, categories, batchFiles, batchData);
+        }
+      }
+      total += write(writer, gson, network, categories, batchFiles, batchData);
+      double seconds = (System.nanoTime() - startTime) / 1e9;
+      logger.info(String.format("Classified %d images in %.3fs (%.2f images/sec)", total, seconds, total / seconds));
+      return total;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      inFlight.forEach(entry -> discard(entry.getValue()));
+      pool.shutdownNow();
+      batchData.forEach(Tensor::freeRef);
+      network.freeRef();
+    }
+  }
+
+  /**
+   * Cancels a pending load, or frees its image if it already completed.
+   *
+   * @param future the load
+   */
+  private static void discard(@Nonnull final Future<Tensor> future) {
+    if (future.cancel(true)) return;
+    try {
+      @Nullable Tensor tensor = future.get();
+      if (null != tensor) tensor.freeRef();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      logger.debug("Discarded failed load", e.getCause());
+    }
+  }
+
+  @Nonnull
+  private Tensor load(@Nonnull final CharSequence file) throws IOException {
+    // Opened directly rather than through HadoopUtil.getImage, which checks existence first: a listed file is
+    // expected to exist, and the check costs a round trip per image on object stores.
+    BufferedImage image;
+    try (InputStream in = HadoopUtil.getFileSystem(file).open(new Path(file.toString()))) {
+      image = ImageIO.read(in);
+    }
+    if (null == image) throw new IOException("Not an image: " + file);
+    return Tensor.fromRGB(ImageUtil.resize(image, resolution, resolution));
+  }
+
+  @Nullable
+  private Tensor get(@Nonnull final CharSequence file, @Nonnull final Future<Tensor> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      logger.warn(String.format("Error reading %s", file), e.getCause());
+      return null;
+    }
+  }
+
+  private int write(
+      @Nonnull final Writer writer,
+      @Nonnull final Gson gson,
+      @Nonnull final Layer network,
+      @Nonnull final List<CharSequence> categories,
+      @Nonnull final List<CharSequence> batchFiles,
+      @Nonnull final List<Tensor> batchData
+  ) throws IOException {
+    if (batchData.isEmpty()) return 0;
+    List<LinkedHashMap<CharSequence, Double>> predictions = ImageClassifier.predict(
+        network, count, categories, batchSize, batchData.toArray(new Tensor[]{}));
+    for (int i = 0; i < predictions.size(); i++) {
+      @Nonnull LinkedHashMap<String, Object> row = new LinkedHashMap<>();
+      row.put("file", batchFiles.get(i).toString());
+      row.put("predictions", predictions.get(i));
+      writer.write(gson.toJson(row));
+      writer.write("\n");
+    }
+    writer.flush();
+    int size = batchData.size();
+    batchData.forEach(Tensor::freeRef);
+    batchData.clear();
+    batchFiles.clear();
+    return size;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  @Nonnull
+  public ClassificationStream setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  public int getThreads() {
+    return threads;
+  }
+
+  @Nonnull
+  public ClassificationStream setThreads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  public int getMaxInFlight() {
+    return maxInFlight;
+  }
+
+  @Nonnull
+  public ClassificationStream setMaxInFlight(int maxInFlight) {
+    this.maxInFlight = maxInFlight;
+    return this;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  @Nonnull
+  public ClassificationStream setCount(int count) {
+    this.count = count;
+    return this;
+  }
+
+  public int getResolution() {
+    return resolution;
+  }
+
+  @Nonnull
+  public ClassificationStream setResolution(int resolution) {
+    this.resolution = resolution;
+    return this;
+  }
+}
@@ -52,6 +52,7 @@ import com.simiacryptus.util.JsonUtil;
 import com.simiacryptus.util.Util;
 import com.simiacryptus.util.data.ScalarStatistics;
 import org.apache.commons.math3.linear.BlockRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
 import org.apache.commons.math3.linear.LUDecomposition;
 import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
@@ -76,6 +77,9 @@ public abstract class ColorTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
   private SimpleConvolutionLayer colorForwardTransform;
   private boolean ortho = true;
   private boolean unit = true;
+  private FitMode fitMode = FitMode.Train;
+  private long proxyPixels = 0;
+  private double sampleFraction = 1.0;
 
   @Nonnull
   public static SimpleConvolutionLayer invert(final SimpleConvolutionLayer colorForwardTransform) {
@@ -139,6 +143,109 @@ public abstract class ColorTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
     return colorForwardTransform;
   }
 
+  /**
+   * Computes the uncentered second moments of an RGB image's pixels, i.e. the Layer_0 Gram matrix, in one pass over its
+   * data.
+   *
+   * @param image a [width, height, 3] image
+   * @return the 3x3 matrix of mean products of each pair of bands
+   */
+  @Nonnull
+  public static RealMatrix secondMoments(@Nonnull final Tensor image) {
+    return secondMoments(image, 1.0, new Random(0));
+  }
+
+  /**
+   * Estimates the uncentered second moments of an RGB image's pixels from a random subset of them.
+   *
+   * @param image    a [width, height, 3] image
+   * @param fraction the fraction of pixels to sample; 1 or more uses every pixel
+   * @param random   the source of the sample
+   * @return the 3x3 matrix of mean products of each pair of bands
+   */
+  @Nonnull
+  public static RealMatrix secondMoments(@Nonnull final Tensor image, final double fraction, @Nonnull final Random random) {
+    double[] data = image.getData();
+    int pixels = data.length / 3;
+    int samples = 1 <= fraction ? pixels : (int) Math.max(1, Math.min(pixels, fraction * pixels));
+    double rr = 0, rg = 0, rb = 0, gg = 0, gb = 0, bb = 0;
+    for (int n = 0; n < samples; n++) {
+      int i = samples == pixels ? n : random.nextInt(pixels);
+      double r = data[i];
+      double g = data[i + pixels];
+      double b = data[i + 2 * pixels];
+      rr += r * r;
+      rg += r * g;
+      rb += r * b;
+      gg += g * g;
+      gb += g * b;
+      bb += b * b;
+    }
+    return MatrixUtils.createRealMatrix(new double[][]{
+        {rr, rg, rb},
+        {rg, gg, gb},
+        {rb, gb, bb}
+    }).scalarMultiply(1.0 / samples);
+  }
+
+  /**
+   * Solves for the linear color map taking the second moments of the source pixels to those of the target, choosing
+   * among all such maps the Monge-Kantorovich one, which moves pixels least:
+   * {@code A = S^-1/2 (S^1/2 T S^1/2)^1/2 S^-1/2}. The color transform has no bias term, so uncentered moments are
+   * matched; this is exactly the Layer_0 Gram objective with {@link CenteringMode#Origin}, and a close starting point
+   * for setups on shallow color-analog layers.
+   *
+   * @param source the second moments of the image to be transformed
+   * @param target the second moments to match
+   * @return the 3x3 matrix A, acting on column vectors of pixel colors
+   */
+  @Nonnull
+  public static RealMatrix matchMoments(@Nonnull final RealMatrix source, @Nonnull final RealMatrix target) {
+    RealMatrix sourceSqrt = symmetricPower(source, 0.5);
+    RealMatrix sourceInvSqrt = symmetricPower(source, -0.5);
+    RealMatrix middle = symmetricPower(sourceSqrt.multiply(target).multiply(sourceSqrt), 0.5);
+    return sourceInvSqrt.multiply(middle).multiply(sourceInvSqrt);
+  }
+
+  @Nonnull
+  private static RealMatrix symmetricPower(@Nonnull final RealMatrix matrix, final double power) {
+    EigenDecomposition decomposition = new EigenDecomposition(matrix.add(matrix.transpose()).scalarMultiply(0.5));
+    double floor = 1e-9 * Math.max(1e-12, Arrays.stream(decomposition.getRealEigenvalues()).max().orElse(1.0));
+    double[] eigenvalues = Arrays.stream(decomposition.getRealEigenvalues()).map(x -> Math.pow(Math.max(x, floor), power)).toArray();
+    RealMatrix v = decomposition.getV();
+    return v.multiply(MatrixUtils.createRealDiagonalMatrix(eigenvalues)).multiply(v.transpose());
+  }
+
+  /**
+   * Builds a color transform matching the canvas's pixel second moments to the average of the style images'.
+   *
+   * @param canvas      the image to be transformed
+   * @param styleImages the style images, weighted equally
+   * @return a 1x1 convolution implementing {@link #matchMoments(RealMatrix, RealMatrix)}
+   */
+  @Nonnull
+  public static SimpleConvolutionLayer momentMatchingTransformer(@Nonnull final Tensor canvas, @Nonnull final Collection<Tensor> styleImages) {
+    return momentMatchingTransformer(canvas, styleImages, 1.0);
+  }
+
+  /**
+   * @param sampleFraction the fraction of each image's pixels sampled to estimate its moments
+   */
+  @Nonnull
+  public static SimpleConvolutionLayer momentMatchingTransformer(
+      @Nonnull final Tensor canvas,
+      @Nonnull final Collection<Tensor> styleImages,
+      final double sampleFraction
+  ) {
+    Random random = new Random(0);
+    RealMatrix source = secondMoments(canvas, sampleFraction, random);
+    RealMatrix target = styleImages.stream().map(x -> secondMoments(x, sampleFraction, random)).reduce(RealMatrix::add)
+        .map(x -> x.scalarMultiply(1.0 / styleImages.size())).orElse(source);
+    SimpleConvolutionLayer transformer = new SimpleConvolutionLayer(1, 1, 9);
+    setMatrix(transformer.kernel, matchMoments(source, target).transpose());
+    return transformer;
+  }
+
   public static int[][] getIndexMap(final SimpleConvolutionLayer layer) {
     int[] kernelDimensions = layer.getKernelDimensions();
     double b = Math.sqrt(kernelDimensions[2]);
@@ -203,6 +310,38 @@ public abstract class ColorTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
     return andFree;
   }
 
+  /**
+   * Applies the current color transform and clamp to each pixel with a plain 3x3 multiply, in parallel over rows,
+   * rather than evaluating {@link #getFwdTransform()}. The result is the same, but no device memory is needed, so the
+   * canvas may be of any size.
+   *
+   * @param canvas a [width, height, 3] image
+   * @return the transformed image
+   */
+  @Nonnull
+  public Tensor applyTransform(final Tensor canvas) {
+    SimpleConvolutionLayer transform = getColorForwardTransform();
+    double[][] matrix = null == transform ? MatrixUtils.createRealIdentityMatrix(3).getData() : getMatrix(transform.kernel).transpose().getData();
+    if (null != transform) transform.freeRef();
+    int[] dimensions = canvas.getDimensions();
+    int width = dimensions[0];
+    int pixels = width * dimensions[1];
+    double[] input = canvas.getData();
+    double[] output = new double[input.length];
+    IntStream.range(0, dimensions[1]).parallel().forEach(y -> {
+      for (int i = y * width; i < (y + 1) * width; i++) {
+        double r = input[i];
+        double g = input[i + pixels];
+        double b = input[i + 2 * pixels];
+        for (int o = 0; o < 3; o++) {
+          double v = matrix[o][0] * r + matrix[o][1] * g + matrix[o][2] * b;
+          output[i + o * pixels] = Math.max(0, Math.min(255, v));
+        }
+      }
+    });
+    return new Tensor(output, dimensions);
+  }
+
   @Nonnull
   public Tensor inverseTransform(final Tensor canvas) {
     Layer invTransform = getInvTransform();
@@ -248,7 +387,14 @@ public abstract class ColorTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
       final Tensor canvas
   ) {
     NotebookOutput trainingLog = verbose ? log : new NullNotebookOutput();
-    SimpleConvolutionLayer colorForwardTransform = unitTransformer();
+    SimpleConvolutionLayer colorForwardTransform;
+    if (FitMode.Train == getFitMode()) {
+      colorForwardTransform = unitTransformer();
+    } else {
+      colorForwardTransform = momentMatchingTransformer(canvas, styleParameters.styleImages.values(), getSampleFraction());
+      log.p(String.format("Closed-form color transform: %s", getMatrix(colorForwardTransform.kernel)));
+      if (FitMode.ClosedForm == getFitMode()) return colorForwardTransform;
+    }
     PipelineNetwork trainingAssembly = getNetwork(log, styleParameters, measureStyle, colorForwardTransform);
     Trainable trainable = getTrainable(canvas, trainingAssembly);
     trainingAssembly.freeRef();
@@ -324,12 +470,18 @@ public abstract class ColorTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
     return trainingAssembly;
   }
 
+  /**
+   * Constrains the transform with an {@link OrthonormalConstraint} per {@link #isOrtho()} and {@link #isUnit()} when
+   * training from the identity. A warm start is left unconstrained: the moment-matching map is symmetric positive
+   * definite, so the constraint's projection would discard it on the first step, and its nearest orthogonal matrix is
+   * the identity.
+   */
   @Nonnull
   public OrientationStrategy<LineSearchCursor> getOrientation() {
     return new TrustRegionStrategy(new LBFGS()) {
       @Override
       public TrustRegion getRegionPolicy(final Layer layer) {
-        if (layer instanceof SimpleConvolutionLayer) {
+        if (layer instanceof SimpleConvolutionLayer && FitMode.Train == getFitMode()) {
           return new OrthonormalConstraint(getIndexMap((SimpleConvolutionLayer) layer)).setOrtho(isOrtho()).setUnit(isUnit());
         }
         return null;
@@ -617,10 +769,51 @@ public abstract class ColorTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
     if (null != this.colorForwardTransform) this.colorForwardTransform.addRef();
   }
 
+  public FitMode getFitMode() {
+    return fitMode;
+  }
+
+  public ColorTransfer<T, U> setFitMode(FitMode fitMode) {
+    this.fitMode = fitMode;
+    return this;
+  }
+
+  public long getProxyPixels() {
+    return proxyPixels;
+  }
+
+  /**
+   * @param proxyPixels if positive, {@link ImageArtUtil#colorTransfer} fits one transform on a copy of the whole canvas
+   *                    downsampled to at most this many pixels, instead of fitting each tile
+   * @return this
+   */
+  public ColorTransfer<T, U> setProxyPixels(long proxyPixels) {
+    this.proxyPixels = proxyPixels;
+    return this;
+  }
+
+  public double getSampleFraction() {
+    return sampleFraction;
+  }
+
+  /**
+   * @param sampleFraction the fraction of pixels randomly sampled when estimating moments for the closed-form fit
+   * @return this
+   */
+  public ColorTransfer<T, U> setSampleFraction(double sampleFraction) {
+    this.sampleFraction = sampleFraction;
+    return this;
+  }
+
   public boolean isOrtho() {
     return ortho;
   }
 
+  /**
+   * @param ortho the orthogonality setting of the {@link OrthonormalConstraint}, which only applies to
+   *              {@link FitMode#Train}
+   * @return this
+   */
   public ColorTransfer<T, U> setOrtho(boolean ortho) {
     this.ortho = ortho;
     return this;
@@ -630,11 +823,35 @@ public abstract class ColorTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
     return unit;
   }
 
+  /**
+   * @param unit the unit-norm setting of the {@link OrthonormalConstraint}, which only applies to
+   *             {@link FitMode#Train}
+   * @return this
+   */
   public ColorTransfer<T, U> setUnit(boolean unit) {
     this.unit = unit;
     return this;
   }
 
+  /**
+   * How {@link #train} finds the color transform.
+   */
+  public enum FitMode {
+    /**
+     * Optimize from the identity through the loss network.
+     */
+    Train,
+    /**
+     * Use the closed-form moment-matching transform without optimizing. The transform is symmetric positive definite
+     * rather than orthonormal, so {@link #isOrtho()} and {@link #isUnit()} do not apply.
+     */
+    ClosedForm,
+    /**
+     * Optimize through the loss network, starting from the closed-form transform, without the orthonormal constraint.
+     */
+    WarmStart
+  }
+
   public enum CenteringMode {
     Dynamic,
     Static,
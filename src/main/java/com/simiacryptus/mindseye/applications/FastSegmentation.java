@@ -0,0 +1,320 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Non-iterative clustering and filtering over primitive pixel arrays, used by
+ * {@link ImageSegmenter#fastMasks(com.simiacryptus.notebook.NotebookOutput, com.simiacryptus.mindseye.lang.Tensor, int, int, int)}
+ * in place of trained entropy networks. Pixel arrays are pixel-major, {@code dims} floats per pixel; single-band maps
+ * are indexed {@code x + width * y}, as in single-band tensor data. Per-pixel passes run on the common fork-join pool.
+ */
+public final class FastSegmentation {
+  private static final int BLOCK = 1024;
+
+  private FastSegmentation() {
+  }
+
+  /**
+   * @param data   column-major tensor data, x fastest, then y, then band
+   * @param width  the width
+   * @param height the height
+   * @param bands  the band count
+   * @return the same values, pixel-major
+   */
+  @Nonnull
+  public static float[] toPixels(@Nonnull final double[] data, final int width, final int height, final int bands) {
+    int pixels = width * height;
+    float[] result = new float[pixels * bands];
+    IntStream.range(0, (pixels + BLOCK - 1) / BLOCK).parallel().forEach(block -> {
+      int start = block * BLOCK;
+      int end = Math.min(pixels, start + BLOCK);
+      for (int b = 0; b < bands; b++) {
+        int offset = b * pixels;
+        for (int i = start; i < end; i++) result[i * bands + b] = (float) data[offset + i];
+      }
+    });
+    return result;
+  }
+
+  /**
+   * @param maps equally sized single-band maps
+   * @return the maps interleaved as the dimensions of each pixel
+   */
+  @Nonnull
+  public static float[] toPixels(@Nonnull final List<float[]> maps) {
+    int dims = maps.size();
+    int pixels = maps.get(0).length;
+    float[] result = new float[pixels * dims];
+    for (int d = 0; d < dims; d++) {
+      float[] map = maps.get(d);
+      for (int i = 0; i < pixels; i++) result[i * dims + d] = map[i];
+    }
+    return result;
+  }
+
+  /**
+   * Shifts and scales each dimension to zero mean and unit variance, in place, so that no one feature band dominates
+   * the distances. Constant dimensions are only centered.
+   */
+  public static void standardize(@Nonnull final float[] pixels, final int dims) {
+    int n = pixels.length / dims;
+    double[] sum = new double[dims];
+    double[] sumSq = new double[dims];
+    for (int i = 0; i < pixels.length; i += dims) {
+      for (int d = 0; d < dims; d++) {
+        double v = pixels[i + d];
+        sum[d] += v;
+        sumSq[d] += v * v;
+      }
+    }
+    float[] offset = new float[dims];
+    float[] scale = new float[dims];
+    for (int d = 0; d < dims; d++) {
+      double mean = sum[d] / n;
+      double variance = sumSq[d] / n - mean * mean;
+      offset[d] = (float) mean;
+      scale[d] = 0 < variance ? (float) (1 / Math.sqrt(variance)) : 1f;
+    }
+    IntStream.range(0, (n + BLOCK - 1) / BLOCK).parallel().forEach(block -> {
+      int end = Math.min(n, (block + 1) * BLOCK) * dims;
+      for (int i = block * BLOCK * dims; i < end; i += dims) {
+        for (int d = 0; d < dims; d++) pixels[i + d] = (pixels[i + d] - offset[d]) * scale[d];
+      }
+    });
+  }
+
+  /**
+   * Mini-batch k-means: centers are seeded by k-means++ on a sample, then each iteration assigns a random batch in
+   * parallel and moves every center toward its assigned points with a per-center learning rate of 1/count.
+   *
+   * @param pixels     the points, pixel-major
+   * @param dims       the dimensions per point
+   * @param clusters   the number of centers
+   * @param iterations the number of batches
+   * @param batchSize  the points per batch
+   * @param random     the source of randomness, for reproducible results
+   * @return the centers
+   */
+  @Nonnull
+  public static float[][] kMeans(
+      @Nonnull final float[] pixels,
+      final int dims,
+      final int clusters,
+      final int iterations,
+      final int batchSize,
+      @Nonnull final Random random
+  ) {
+    int n = pixels.length / dims;
+    float[][] centers = seed(pixels, dims, Math.min(clusters, n), random);
+    long[] counts = new long[centers.length];
+    int[] batch = new int[batchSize];
+    int[] nearest = new int[batchSize];
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      for (int i = 0; i < batchSize; i++) batch[i] = random.nextInt(n);
+      IntStream.range(0, batchSize).parallel().forEach(i -> nearest[i] = nearest(pixels, batch[i] * dims, dims, centers));
+      for (int i = 0; i < batchSize; i++) {
+        float[] center = centers[nearest[i]];
+        float rate = 1f / ++counts[nearest[i]];
+        int offset = batch[i] * dims;
+        for (int d = 0; d < dims; d++) center[d] += rate * (pixels[offset + d] - center[d]);
+      }
+    }
+    return centers;
+  }
+
+  /**
+   * Greedy k-means++: each new center is the best, by resulting potential over the sample, of a few candidates drawn
+   * with probability proportional to squared distance from the existing centers.
+   */
+  @Nonnull
+  private static float[][] seed(@Nonnull final float[] pixels, final int dims, final int clusters, @Nonnull final Random random) {
+    int n = pixels.length / dims;
+    int[] sample = new int[Math.min(n, 4096)];
+    for (int i = 0; i < sample.length; i++) sample[i] = random.nextInt(n);
+    int trials = 2 + (int) Math.log(clusters);
+    float[][] centers = new float[clusters][];
+    double[] distance = new double[sample.length];
+    double[] candidateDistance = new double[sample.length];
+    Arrays.fill(distance, Double.POSITIVE_INFINITY);
+    double total = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < clusters; c++) {
+      float[] best = null;
+      double[] bestDistance = null;
+      double bestTotal = Double.POSITIVE_INFINITY;
+      for (int trial = 0; trial < (0 == c ? 1 : trials); trial++) {
+        float[] candidate = new float[dims];
+        System.arraycopy(pixels, pick(sample, distance, total, random) * dims, candidate, 0, dims);
+        double candidateTotal = 0;
+        for (int i = 0; i < sample.length; i++) {
+          candidateDistance[i] = Math.min(distance[i], distance(pixels, sample[i] * dims, candidate));
+          candidateTotal += candidateDistance[i];
+        }
+        if (candidateTotal < bestTotal) {
+          best = candidate;
+          bestTotal = candidateTotal;
+          bestDistance = candidateDistance.clone();
+        }
+      }
+      centers[c] = best;
+      distance = bestDistance;
+      total = bestTotal;
+    }
+    return centers;
+  }
+
+  private static int pick(@Nonnull final int[] sample, @Nonnull final double[] distance, final double total, @Nonnull final Random random) {
+    if (Double.isInfinite(total) || 0 >= total) return sample[random.nextInt(sample.length)];
+    double target = random.nextDouble() * total;
+    for (int i = 0; i < sample.length; i++) {
+      target -= distance[i];
+      if (target < 0) return sample[i];
+    }
+    return sample[sample.length - 1];
+  }
+
+  private static int nearest(@Nonnull final float[] pixels, final int offset, final int dims, @Nonnull final float[][] centers) {
+    int best = 0;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    for (int c = 0; c < centers.length; c++) {
+      double d = distance(pixels, offset, centers[c]);
+      if (d < bestDistance) {
+        bestDistance = d;
+        best = c;
+      }
+    }
+    return best;
+  }
+
+  private static double distance(@Nonnull final float[] pixels, final int offset, @Nonnull final float[] center) {
+    float sum = 0;
+    for (int d = 0; d < center.length; d++) {
+      float delta = pixels[offset + d] - center[d];
+      sum += delta * delta;
+    }
+    return sum;
+  }
+
+  /**
+   * Soft assignments under an isotropic Gaussian mixture with equal weights centered on the given centers, whose
+   * variance is estimated from the mean squared distance of each point to its nearest center.
+   *
+   * @param pixels  the points, pixel-major
+   * @param dims    the dimensions per point
+   * @param centers the centers
+   * @return one map per center, each holding the probability of every point belonging to it
+   */
+  @Nonnull
+  public static float[][] responsibilities(@Nonnull final float[] pixels, final int dims, @Nonnull final float[][] centers) {
+    int n = pixels.length / dims;
+    int k = centers.length;
+    float[][] maps = new float[k][n];
+    double meanDistance = IntStream.range(0, n).parallel().mapToDouble(i -> {
+      double min = Double.POSITIVE_INFINITY;
+      for (int c = 0; c < k; c++) {
+        double d = distance(pixels, i * dims, centers[c]);
+        maps[c][i] = (float) d;
+        min = Math.min(min, d);
+      }
+      return min;
+    }).sum() / n;
+    double beta = 0 < meanDistance ? dims / (2 * meanDistance) : 1;
+    IntStream.range(0, n).parallel().forEach(i -> {
+      float min = Float.POSITIVE_INFINITY;
+      for (int c = 0; c < k; c++) min = Math.min(min, maps[c][i]);
+      double sum = 0;
+      for (int c = 0; c < k; c++) {
+        float p = (float) Math.exp(-beta * (maps[c][i] - min));
+        maps[c][i] = p;
+        sum += p;
+      }
+      float norm = (float) (1 / sum);
+      for (int c = 0; c < k; c++) maps[c][i] *= norm;
+    });
+    return maps;
+  }
+
+  /**
+   * Bilinear resampling of a single-band map, aligning pixel centers.
+   */
+  @Nonnull
+  public static float[] resize(@Nonnull final float[] map, final int width, final int height, final int outWidth, final int outHeight) {
+    if (width == outWidth && height == outHeight) return map.clone();
+    float[] result = new float[outWidth * outHeight];
+    double scaleX = (double) width / outWidth;
+    double scaleY = (double) height / outHeight;
+    IntStream.range(0, outHeight).parallel().forEach(y -> {
+      double sy = Math.max(0, Math.min(height - 1, (y + 0.5) * scaleY - 0.5));
+      int y0 = (int) sy;
+      int y1 = Math.min(height - 1, y0 + 1);
+      float fy = (float) (sy - y0);
+      for (int x = 0; x < outWidth; x++) {
+        double sx = Math.max(0, Math.min(width - 1, (x + 0.5) * scaleX - 0.5));
+        int x0 = (int) sx;
+        int x1 = Math.min(width - 1, x0 + 1);
+        float fx = (float) (sx - x0);
+        float top = map[x0 + width * y0] + fx * (map[x1 + width * y0] - map[x0 + width * y0]);
+        float bottom = map[x0 + width * y1] + fx * (map[x1 + width * y1] - map[x0 + width * y1]);
+        result[x + outWidth * y] = top + fy * (bottom - top);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Separable Gaussian blur of a single-band map with edge clamping. The vertical pass accumulates whole rows, so both
+   * passes are unit-stride.
+   *
+   * @param sigma the standard deviation in pixels; zero or less returns a copy
+   */
+  @Nonnull
+  public static float[] gaussianBlur(@Nonnull final float[] map, final int width, final int height, final double sigma) {
+    if (0 >= sigma) return map.clone();
+    int radius = (int) Math.ceil(3 * sigma);
+    float[] kernel = new float[2 * radius + 1];
+    double sum = 0;
+    for (int i = -radius; i <= radius; i++) sum += kernel[i + radius] = (float) Math.exp(-i * i / (2 * sigma * sigma));
+    for (int i = 0; i < kernel.length; i++) kernel[i] /= sum;
+    float[] horizontal = new float[map.length];
+    IntStream.range(0, height).parallel().forEach(y -> {
+      int row = y * width;
+      for (int x = 0; x < width; x++) {
+        float v = 0;
+        for (int k = -radius; k <= radius; k++) v += kernel[k + radius] * map[row + Math.max(0, Math.min(width - 1, x + k))];
+        horizontal[row + x] = v;
+      }
+    });
+    float[] result = new float[map.length];
+    IntStream.range(0, height).parallel().forEach(y -> {
+      int row = y * width;
+      for (int k = -radius; k <= radius; k++) {
+        float w = kernel[k + radius];
+        int source = Math.max(0, Math.min(height - 1, y + k)) * width;
+        for (int x = 0; x < width; x++) result[row + x] += w * horizontal[source + x];
+      }
+    });
+    return result;
+  }
+}
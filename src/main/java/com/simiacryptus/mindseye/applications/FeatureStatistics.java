@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Streaming per-band statistics of image feature maps. Pixels are consumed in blocks; each block's mean and centered
+ * co-moment are computed exactly and merged into the running totals with Chan's parallel update, so the band mean, the
+ * raw Gram matrix and the centered Gram matrix are all available after a single pass over the data. Gram matrices use
+ * the same [1, 1, bands * bands] layout as GramianLayer and are normalized by the pixel count.
+ */
+public class FeatureStatistics {
+  private final boolean covariance;
+  private final int blockSize;
+  private int bands = -1;
+  private long count = 0;
+  @Nullable
+  private double[] mean = null;
+  @Nullable
+  private double[] comoment = null;
+
+  public FeatureStatistics(final boolean covariance) {
+    this(covariance, 1024);
+  }
+
+  public FeatureStatistics(final boolean covariance, final int blockSize) {
+    this.covariance = covariance;
+    this.blockSize = Math.max(1, blockSize);
+  }
+
+  /**
+   * Accumulates every pixel of a [width, height, bands] feature map.
+   *
+   * @param featureMap the feature map
+   * @return this
+   */
+  @Nonnull
+  public FeatureStatistics add(@Nonnull final Tensor featureMap) {
+    int[] dimensions = featureMap.getDimensions();
+    int pixels = dimensions[0] * dimensions[1];
+    int featureBands = dimensions.length < 3 ? 1 : dimensions[2];
+    if (bands < 0) {
+      bands = featureBands;
+      mean = new double[bands];
+      if (covariance) comoment = new double[bands * bands];
+    } else if (bands != featureBands) {
+      throw new IllegalArgumentException(String.format("Expected %d bands: %s", bands, Arrays.toString(dimensions)));
+    }
+    double[] data = featureMap.getData();
+    @Nullable double[] centered = covariance ? new double[bands * Math.min(blockSize, pixels)] : null;
+    for (int from = 0; from < pixels; from += blockSize) {
+      add(data, pixels, from, Math.min(pixels, from + blockSize), centered);
+    }
+    return this;
+  }
+
+  private void add(@Nonnull final double[] data, final int pixels, final int from, final int to, @Nullable final double[] centered) {
+    int n = to - from;
+    long total = count + n;
+    double[] delta = new double[bands];
+    for (int band = 0; band < bands; band++) {
+      int offset = band * pixels;
+      double sum = 0;
+      for (int p = from; p < to; p++) sum += data[offset + p];
+      double blockMean = sum / n;
+      if (null != centered) {
+        int base = band * n;
+        for (int p = from; p < to; p++) centered[base + p - from] = data[offset + p] - blockMean;
+      }
+      delta[band] = blockMean - mean[band];
+    }
+    if (null != centered) {
+      double weight = (double) count * n / total;
+      for (int i = 0; i < bands; i++) {
+        int baseI = i * n;
+        for (int j = 0; j <= i; j++) {
+          int baseJ = j * n;
+          double sum = 0;
+          for (int p = 0; p < n; p++) sum += centered[baseI + p] * centered[baseJ + p];
+          sum += delta[i] * delta[j] * weight;
+          comoment[i * bands + j] += sum;
+          if (i != j) comoment[j * bands + i] += sum;
+        }
+      }
+    }
+    for (int band = 0; band < bands; band++) mean[band] += delta[band] * n / total;
+    count = total;
+  }
+
+  public boolean isCovariance() {
+    return covariance;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * @return the band means, shaped [1, 1, bands] like BandAvgReducerLayer output
+   */
+  @Nonnull
+  public Tensor getMean() {
+    assertNotEmpty();
+    return new Tensor(Arrays.copyOf(mean, bands), 1, 1, bands);
+  }
+
+  /**
+   * @return the average outer product of the centered features (cov1)
+   */
+  @Nonnull
+  public Tensor getCenteredGram() {
+    assertCovariance();
+    double[] values = new double[bands * bands];
+    for (int i = 0; i < values.length; i++) values[i] = comoment[i] / count;
+    return new Tensor(values, 1, 1, bands * bands);
+  }
+
+  /**
+   * @return the average outer product of the raw features (cov0)
+   */
+  @Nonnull
+  public Tensor getGram() {
+    assertCovariance();
+    double[] values = new double[bands * bands];
+    for (int i = 0; i < bands; i++) {
+      for (int j = 0; j < bands; j++) {
+        values[i * bands + j] = comoment[i * bands + j] / count + mean[i] * mean[j];
+      }
+    }
+    return new Tensor(values, 1, 1, bands * bands);
+  }
+
+  private void assertNotEmpty() {
+    if (0 == count) throw new IllegalStateException("No data");
+  }
+
+  private void assertCovariance() {
+    assertNotEmpty();
+    if (!covariance) throw new IllegalStateException("Covariance not accumulated");
+  }
+}
@@ -67,6 +67,23 @@ public class HadoopUtil {
     }
   }
 
+  /**
+   * Lists the files directly under a path lazily. Unlike {@link #getFiles(CharSequence)}, the listing is paged from the
+   * file system as the stream is consumed and no per-file existence check is made.
+   *
+   * @param file the directory
+   * @return the file locations
+   */
+  @Nonnull
+  public static Stream<CharSequence> streamFiles(CharSequence file) {
+    try {
+      return toStream(getFileSystem(file).listFiles(new Path(file.toString()), false))
+          .map(status -> (CharSequence) status.getPath().toString());
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   @Nonnull
   public static <T> Stream<T> toStream(final RemoteIterator<T> remoteIterator) {
     return StreamSupport.stream(Spliterators.spliterator(new Iterator<T>() {
@@ -19,6 +19,7 @@
 
 package com.simiacryptus.mindseye.applications;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.simiacryptus.mindseye.lang.Tensor;
 import com.simiacryptus.mindseye.lang.cudnn.Precision;
 import com.simiacryptus.mindseye.layers.java.ImgTileAssemblyLayer;
@@ -34,12 +35,18 @@ import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
-import java.util.stream.Stream;
 
 public class ImageArtUtil {
+  private static final ExecutorService TILE_POOL = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("art-tile-%d").build());
 
   public static Tensor degrade(
       final int lowResolution, final int size, Tensor image
@@ -183,10 +190,43 @@ public class ImageArtUtil {
         torroidalOffsetX, torroidalOffsetY
     );
     if (contentTiles.length != canvasTiles.length) throw new AssertionError(contentTiles.length + " != " + canvasTiles.length);
-    Stream<Tensor> tensorStream = IntStream.range(0, contentTiles.length).mapToObj(i -> {
-      return transformer.apply(contentTiles[i], canvasTiles[i], i);
-    });
-    Tensor[] resultTiles = tensorStream.toArray(i -> new Tensor[i]);
+    final int maxTilesInFlight = Math.min(contentTiles.length, transformer.getMaxTilesInFlight(tileLayout));
+    final Tensor[] resultTiles;
+    if (maxTilesInFlight <= 1) {
+      resultTiles = IntStream.range(0, contentTiles.length).mapToObj(i -> {
+        return transformer.apply(contentTiles[i], canvasTiles[i], i);
+      }).toArray(i -> new Tensor[i]);
+    } else {
+      final NotebookOutput log = imageArtOpParams.getLog();
+      log.p(String.format("Processing %s tiles, up to %s at a time", contentTiles.length, maxTilesInFlight));
+      resultTiles = new Tensor[contentTiles.length];
+      final Semaphore inFlight = new Semaphore(maxTilesInFlight);
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < contentTiles.length; i++) {
+        final int index = i;
+        inFlight.acquireUninterruptibly();
+        futures.add(transformer.getExecutor().submit(() -> {
+          try {
+            resultTiles[index] = log.subreport(
+                sublog -> transformer.apply(sublog, contentTiles[index], canvasTiles[index], index),
+                String.format("%s_Tile_%d", log.getName(), index)
+            );
+          } finally {
+            inFlight.release();
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    }
     ImgTileAssemblyLayer assemblyLayer = new ImgTileAssemblyLayer(tileLayout.getCols(), tileLayout.getRows())
         .setPaddingX(padding)
         .setPaddingY(padding)
@@ -216,7 +256,9 @@ public class ImageArtUtil {
     int rows = (int) Math.max(1, (Math.ceil((height - tileSize) * 1.0 / (tileSize - padding)) + 1));
     contentImage.assertAlive();
     canvasImage.assertAlive();
-    if (cols > 1 || rows > 1) {
+    if (0 < colorTransfer.getProxyPixels() && (cols > 1 || rows > 1 || (long) width * height > colorTransfer.getProxyPixels())) {
+      return proxyColorTransfer(opParams, colorTransfer, styleSetup, contentImage, canvasImage);
+    } else if (cols > 1 || rows > 1) {
       int tileSizeX = (cols <= 1) ? width : (int) Math.ceil(((double) (width - padding) / cols) + padding);
       int tileSizeY = (rows <= 1) ? height : (int) Math.ceil(((double) (height - padding) / rows) + padding);
       opParams.getLog().p(String.format(
@@ -293,6 +335,49 @@ public class ImageArtUtil {
     }
   }
 
+  /**
+   * Fits one color transform on copies of the canvas and content downsampled to
+   * {@link ColorTransfer#getProxyPixels()}, then applies it to the full-resolution canvas pixel by pixel. The transform
+   * is global, so this costs one fit rather than one per tile and cannot introduce seams.
+   */
+  public static Tensor proxyColorTransfer(
+      final ImageArtOpParams opParams,
+      final ColorTransfer<CVPipe_Inception.Strata, CVPipe_Inception> colorTransfer,
+      final ColorTransfer.StyleSetup<CVPipe_Inception.Strata> styleSetup,
+      final Tensor contentImage,
+      final Tensor canvasImage
+  ) {
+    Tensor proxyCanvas = Tensor.fromRGB(ImageUtil.resizePx(canvasImage.toImage(), colorTransfer.getProxyPixels()));
+    Tensor proxyContent = Tensor.fromRGB(ImageUtil.resizePx(contentImage.toImage(), colorTransfer.getProxyPixels()));
+    opParams.getLog().p(String.format(
+        "Fitting color transform on %s proxy of %s canvas",
+        Arrays.toString(proxyCanvas.getDimensions()),
+        Arrays.toString(canvasImage.getDimensions())
+    ));
+    ColorTransfer.StyleSetup<CVPipe_Inception.Strata> proxySetup = new ColorTransfer.StyleSetup<>(
+        styleSetup.precision,
+        proxyContent,
+        styleSetup.content,
+        styleSetup.styleImages,
+        styleSetup.styles
+    );
+    colorTransfer.transfer(
+        opParams.getLog(),
+        proxyCanvas,
+        proxySetup,
+        opParams.getTrainingMinutes(),
+        colorTransfer.measureStyle(proxySetup),
+        opParams.getMaxIterations(),
+        opParams.isVerbose()
+    );
+    proxyCanvas.freeRef();
+    proxyContent.freeRef();
+    Tensor resultImage = colorTransfer.applyTransform(canvasImage);
+    opParams.getLog().p("Result:");
+    opParams.getLog().p(opParams.getLog().png(resultImage.toImage(), "Output Canvas"));
+    return resultImage;
+  }
+
   @Nonnull
   public static SegmentedStyleTransfer.StyleSetup<CVPipe_Inception.Strata> setContentImage(
       final SegmentedStyleTransfer.StyleSetup<CVPipe_Inception.Strata> styleSetup,
@@ -314,7 +399,7 @@ public class ImageArtUtil {
   ) {
     return maskJobSetMap.entrySet().stream().collect(Collectors.toMap(
         Map.Entry::getKey,
-        x -> x.getValue().stream().map(v -> v[i]).collect(Collectors.toSet())
+        x -> x.getValue().stream().map(v -> v[i]).collect(Collectors.toCollection(LinkedHashSet::new))
     ));
   }
 
@@ -432,6 +517,26 @@ public class ImageArtUtil {
 
   public interface TileTransformer {
     Tensor apply(Tensor contentTile, final Tensor canvasTile, int i);
+
+    /**
+     * Processes one tile, writing to the given log. Implementations which run concurrently must keep all per-tile state
+     * local to this call.
+     */
+    default Tensor apply(NotebookOutput log, Tensor contentTile, final Tensor canvasTile, int i) {
+      return apply(contentTile, canvasTile, i);
+    }
+
+    /**
+     * @param tileLayout the layout about to be processed
+     * @return the number of tiles which may be processed at once; 1 processes them in order on the calling thread
+     */
+    default int getMaxTilesInFlight(TileLayout tileLayout) {
+      return 1;
+    }
+
+    default ExecutorService getExecutor() {
+      return TILE_POOL;
+    }
   }
 
   public static class ImageArtOpParams {
@@ -564,13 +669,15 @@ public class ImageArtUtil {
   }
 
   public static class StyleTransformer implements TileTransformer {
-    final HashMap<SegmentedStyleTransfer.MaskJob, Set<Tensor>> originalCache;
     private final SegmentedStyleTransfer<CVPipe_Inception.Strata, CVPipe_Inception> styleTransfer;
     private final SegmentedStyleTransfer.StyleSetup<CVPipe_Inception.Strata> styleSetup;
     Map<SegmentedStyleTransfer.MaskJob, Set<Tensor[]>> maskJobSetMap;
     SegmentedStyleTransfer.NeuralSetup measuredStyle;
     private NotebookOutput log;
     private ImageArtOpParams imageArtOpParams;
+    private int maxTilesInFlight = 1;
+    private long memoryBudget = 0;
+    private ExecutorService executor = TILE_POOL;
 
     public StyleTransformer(
         final ImageArtOpParams imageArtOpParams,
@@ -585,44 +692,113 @@ public class ImageArtUtil {
       this.styleTransfer = styleTransfer;
       this.styleSetup = styleSetup;
       setLog(imageArtOpParams.getLog());
-      originalCache = new HashMap<>(styleTransfer.getMaskCache());
-      maskJobSetMap = originalCache.entrySet().stream().collect(Collectors.toMap(
-          x -> x.getKey(),
-          x -> x.getValue().stream().map(v -> ImgTileSelectLayer.toTiles(
-              getLog(),
-              Tensor.fromRGB(ImageUtil.resize(v.toImage(),
-                  tileLayout.getWidth(),
-                  tileLayout.getHeight())),
-              tileLayout.getTileSizeX(),
-              tileLayout.getTileSizeY(),
-              tileLayout.getTileSizeX() - padding,
-              tileLayout.getTileSizeY() - padding,
-              torroidalOffsetX,
-              torroidalOffsetY
-          )).collect(Collectors.toSet())
-      ));
+      maskJobSetMap = new HashMap<>();
       measuredStyle = getNeuralSetup();
+      if (null != styleSetup.contentImage) {
+        SegmentedStyleTransfer.MaskJob contentMaskJob = styleTransfer.getContentMaskJob();
+        Set<Tensor> contentMasks = styleTransfer.getMasks(getLog(), styleSetup.contentImage, contentMaskJob);
+        measuredStyle.segmentAssignment = styleTransfer.assignSegments(measuredStyle, contentMasks);
+        maskJobSetMap.put(contentMaskJob, contentMasks.stream().map(v -> {
+          Tensor resized = SegmentedStyleTransfer.resizeMask(v, tileLayout.getWidth(), tileLayout.getHeight(), v.getDimensions()[2]);
+          v.freeRef();
+          try {
+            return ImgTileSelectLayer.toTiles(
+                getLog(),
+                resized,
+                tileLayout.getTileSizeX(),
+                tileLayout.getTileSizeY(),
+                tileLayout.getTileSizeX() - padding,
+                tileLayout.getTileSizeY() - padding,
+                torroidalOffsetX,
+                torroidalOffsetY
+            );
+          } finally {
+            resized.freeRef();
+          }
+        }).collect(Collectors.toCollection(LinkedHashSet::new)));
+      }
     }
 
     @Override
     public Tensor apply(final Tensor contentTile, final Tensor canvasTile, final int i) {
+      return apply(getLog(), contentTile, canvasTile, i);
+    }
+
+    /**
+     * Paints one tile. The tile's masks, content target and log are all local to the call, and the measured style is
+     * only read, so tiles may be painted concurrently.
+     */
+    @Override
+    public Tensor apply(final NotebookOutput log, final Tensor contentTile, final Tensor canvasTile, final int i) {
       TileData tileData = new TileData(contentTile, canvasTile, getMasks(maskJobSetMap, i));
-      getLog().p(String.format("Processing Tile %s with size %s", i, Arrays.toString(tileData.getCanvasTile().getDimensions())));
-      styleTransfer.getMaskCache().clear();
-      styleTransfer.getMaskCache().putAll(tileData.getTileMasks());
+      log.p(String.format("Processing Tile %s with size %s", i, Arrays.toString(tileData.getCanvasTile().getDimensions())));
       SegmentedStyleTransfer.StyleSetup<CVPipe_Inception.Strata> tileSetup = setContentImage(styleSetup, tileData.getContentTile());
-      styleTransfer.measureContent(getLog(), tileSetup, measuredStyle);
+      SegmentedStyleTransfer.NeuralSetup<CVPipe_Inception.Strata> tileStyle = measuredStyle.withContent(tileSetup);
+      styleTransfer.measureContent(log, tileSetup, tileStyle);
       return styleTransfer.transfer(
-          getLog(),
+          log,
           tileSetup,
           getImageArtOpParams().getMaxIterations(),
-          measuredStyle,
+          tileStyle,
           getImageArtOpParams().getTrainingMinutes(),
           getImageArtOpParams().isVerbose(),
-          tileData.getCanvasTile()
+          tileData.getCanvasTile(),
+          tileData.getTileMasks()
       );
     }
 
+    /**
+     * Limits concurrency to {@link #getMaxTilesInFlight()}, which defaults to one tile at a time. If a
+     * {@link #getMemoryBudget() memory budget} is set, concurrency is further limited to as many tiles as fit in it,
+     * estimating each tile's footprint as one network activation per content mask branch plus one for the trunk. Tiles
+     * train on the GPU, so the budget should describe device memory rather than the Java heap.
+     */
+    @Override
+    public int getMaxTilesInFlight(final TileLayout tileLayout) {
+      if (1 >= getMaxTilesInFlight()) return 1;
+      if (0 >= memoryBudget) return getMaxTilesInFlight();
+      double bytesPerTile = TiledTrainable.estimateBytesPerPixel(styleTransfer.getNetworkModel())
+          * tileLayout.getTileSizeX() * tileLayout.getTileSizeY() * (1 + styleTransfer.getContent_masks());
+      int limit = (int) Math.max(1, Math.min(getMaxTilesInFlight(), memoryBudget / bytesPerTile));
+      getLog().p(String.format("Estimated %.1f MB per tile; running up to %d tiles concurrently", bytesPerTile / (1 << 20), limit));
+      return limit;
+    }
+
+    public int getMaxTilesInFlight() {
+      return maxTilesInFlight;
+    }
+
+    /**
+     * @param maxTilesInFlight the number of tiles painted concurrently; more than one requires enough GPU memory for
+     *                         that many training networks
+     */
+    public StyleTransformer setMaxTilesInFlight(int maxTilesInFlight) {
+      this.maxTilesInFlight = maxTilesInFlight;
+      return this;
+    }
+
+    public long getMemoryBudget() {
+      return memoryBudget;
+    }
+
+    /**
+     * @param memoryBudget the device memory, in bytes, available to concurrent tiles, or 0 for no estimate-based limit
+     */
+    public StyleTransformer setMemoryBudget(long memoryBudget) {
+      this.memoryBudget = memoryBudget;
+      return this;
+    }
+
+    @Override
+    public ExecutorService getExecutor() {
+      return executor;
+    }
+
+    public StyleTransformer setExecutor(ExecutorService executor) {
+      this.executor = executor;
+      return this;
+    }
+
     @Nonnull
     public SegmentedStyleTransfer.NeuralSetup getNeuralSetup() {
       SegmentedStyleTransfer.NeuralSetup<CVPipe_Inception.Strata> measureStyle = new SegmentedStyleTransfer.NeuralSetup<>(styleSetup);
@@ -42,15 +42,20 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 public abstract class ImageSegmenter<T extends LayerEnum<T>, U extends CVPipe<T>> extends PixelClusterer<T, U> {
 
   private static final Logger logger = LoggerFactory.getLogger(ImageSegmenter.class);
+  private static final long FAST_SEED = 42;
+  private static final int FAST_ITERATIONS = 100;
+  private static final int FAST_BATCH = 1024;
 
   public ImageSegmenter(
       final int clusters,
@@ -161,6 +166,84 @@ public abstract class ImageSegmenter<T extends LayerEnum<T>, U extends CVPipe<T>
     return spatialClusters;
   }
 
+  public static List<Tensor> fastMasks(
+      @Nonnull final NotebookOutput log,
+      final Tensor img,
+      final int masks,
+      final int colorClusters,
+      final int textureClusters
+  ) {
+    if (1 >= masks) return Arrays.asList(img.sumChannels().map(x -> 1.0));
+    return fastMasks(
+        log,
+        img,
+        9,
+        masks,
+        colorClusters,
+        textureClusters,
+        new Random(FAST_SEED),
+        CVPipe_VGG19.Layer.Layer_0,
+        CVPipe_VGG19.Layer.Layer_1a,
+        CVPipe_VGG19.Layer.Layer_1e
+    );
+  }
+
+  /**
+   * A non-iterative alternative to {@link #quickmasks(NotebookOutput, Tensor, int, int, int, int, CVPipe_VGG19.Layer...)}
+   * producing masks of the same shape. Each layer's standardized feature map is clustered by mini-batch k-means and
+   * softly assigned under an isotropic Gaussian mixture; the cluster maps are upsampled to the image and blurred, then
+   * clustered again into the spatial masks. The blur is a separable Gaussian matching the spread of the iterated 3x3
+   * blur in {@link PCAObjectLocation#blur(Tensor, int)}.
+   *
+   * @param blur   the equivalent number of 3x3 blur iterations
+   * @param random the source of randomness; a fixed seed gives reproducible masks
+   * @return one mask per segment, shaped like the image, each band holding the segment's probability in [0, 1]
+   */
+  public static List<Tensor> fastMasks(
+      @Nonnull final NotebookOutput log,
+      final Tensor img,
+      final int blur,
+      final int masks,
+      final int colorClusters,
+      final int textureClusters,
+      @Nonnull final Random random,
+      final CVPipe_VGG19.Layer... layers
+  ) {
+    int width = img.getDimensions()[0];
+    int height = img.getDimensions()[1];
+    int bands = img.getDimensions()[2];
+    double sigma = Math.sqrt(0.4 * blur);
+    List<float[]> featureMaps = new ArrayList<>();
+    for (final CVPipe_VGG19.Layer layer : layers) {
+      PipelineNetwork network = CVPipe_VGG19.INSTANCE.getPrototypes().get(layer);
+      MultiPrecision.setPrecision(network, Precision.Float);
+      network.setFrozen(true);
+      Tensor features = network.eval(img).getDataAndFree().getAndFree(0);
+      int[] dimensions = features.getDimensions();
+      float[] pixels = FastSegmentation.toPixels(features.getData(), dimensions[0], dimensions[1], dimensions[2]);
+      features.freeRef();
+      FastSegmentation.standardize(pixels, dimensions[2]);
+      int clusters = layer == CVPipe_VGG19.Layer.Layer_0 ? colorClusters : textureClusters;
+      float[][] centers = FastSegmentation.kMeans(pixels, dimensions[2], clusters, FAST_ITERATIONS, FAST_BATCH, random);
+      for (float[] map : FastSegmentation.responsibilities(pixels, dimensions[2], centers)) {
+        featureMaps.add(FastSegmentation.gaussianBlur(
+            FastSegmentation.resize(map, dimensions[0], dimensions[1], width, height), width, height, sigma));
+      }
+      logger.info(String.format("Clustered %s %s into %d clusters", layer, Arrays.toString(dimensions), centers.length));
+    }
+    float[] pixels = FastSegmentation.toPixels(featureMaps);
+    float[][] centers = FastSegmentation.kMeans(pixels, featureMaps.size(), masks, FAST_ITERATIONS, FAST_BATCH, random);
+    List<Tensor> tensorList = Arrays.stream(FastSegmentation.responsibilities(pixels, featureMaps.size(), centers)).map(map -> {
+      double[] data = new double[map.length * bands];
+      for (int band = 0; band < bands; band++) {
+        for (int i = 0; i < map.length; i++) data[band * map.length + i] = map[i];
+      }
+      return new Tensor(data, width, height, bands);
+    }).collect(Collectors.toList());
+    log.p(TestUtil.animatedGif(log, tensorList.stream().map(selectedBand -> alphaImageMask(img, selectedBand)).toArray(i -> new BufferedImage[i])));
+    return tensorList;
+  }
+
   public static BufferedImage alphaImageMask(@Nonnull final NotebookOutput log, final Tensor img, Tensor mask) {
     return log.eval(() -> {
       return img.mapCoords(c -> img.get(c) * mask.get(
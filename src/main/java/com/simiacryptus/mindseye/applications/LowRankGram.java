@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.layers.cudnn.GramianLayer;
+import com.simiacryptus.mindseye.layers.cudnn.MeanSqLossLayer;
+import com.simiacryptus.mindseye.layers.cudnn.ValueLayer;
+import com.simiacryptus.mindseye.layers.cudnn.conv.ConvolutionLayer;
+import com.simiacryptus.mindseye.network.DAGNode;
+import com.simiacryptus.mindseye.network.InnerNode;
+import com.simiacryptus.mindseye.network.PipelineNetwork;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.EigenDecomposition;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.apache.commons.math3.linear.RealVector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * A reduced-rank Gram matrix style target. Features are projected onto the top principal components of the style
+ * covariance by a 1x1 convolution before the Gram matrix is taken, so the loss costs O(bands * rank) per pixel instead of
+ * O(bands^2). In that basis the style target is diagonal, holding the retained eigenvalues. Decompositions are cached
+ * by the content hash of the covariance and the rank, since the same style target is rebuilt for every phase, tile and
+ * mask.
+ */
+public final class LowRankGram {
+  private static final Logger logger = LoggerFactory.getLogger(LowRankGram.class);
+  private static final int CACHE_SIZE = 64;
+  private static final Map<String, LowRankGram> cache = new LinkedHashMap<String, LowRankGram>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(final Map.Entry<String, LowRankGram> eldest) {
+      if (size() <= CACHE_SIZE) return false;
+      eldest.getValue().free();
+      return true;
+    }
+  };
+
+  private final int inputBands;
+  private final int rank;
+  @Nonnull
+  private final Tensor projection;
+  @Nonnull
+  private final Tensor target;
+  private final double retainedVariance;
+
+  private LowRankGram(final int inputBands, final int rank, @Nonnull final Tensor projection, @Nonnull final Tensor target, final double retainedVariance) {
+    this.inputBands = inputBands;
+    this.rank = rank;
+    this.projection = projection;
+    this.target = target;
+    this.retainedVariance = retainedVariance;
+  }
+
+  /**
+   * @param covariance a [1, 1, bands * bands] Gram matrix
+   * @param rank       the requested rank, where 0 or less means all bands
+   * @return true if the covariance is square and the rank is below its band count, so that a projection would reduce
+   * the loss
+   */
+  public static boolean reduces(@Nonnull final Tensor covariance, final int rank) {
+    int size = covariance.getDimensions()[2];
+    int bands = (int) Math.round(Math.sqrt(size));
+    return bands * bands == size && 0 < rank && rank < bands;
+  }
+
+  /**
+   * Adds the covariance term of a style loss: the mean squared difference between the Gram matrix of the features and
+   * the style covariance, scaled by the inverse RMS of the target. If {@link #reduces(Tensor, int)} holds, both are
+   * compared in the basis of the covariance's top principal components instead.
+   *
+   * @param network    the network
+   * @param node       the [w, h, bands] features, typically recentered; consumed as by {@link PipelineNetwork#wrap}
+   * @param covariance the [1, 1, bands * bands] style Gram matrix
+   * @param rank       the requested rank, where 0 or less means the full Gram matrix
+   * @return the loss node
+   */
+  @Nonnull
+  public static InnerNode loss(@Nonnull final PipelineNetwork network, @Nonnull final DAGNode node, @Nonnull final Tensor covariance, final int rank) {
+    if (reduces(covariance, rank)) {
+      LowRankGram lowRank = get(covariance, rank);
+      double targetRms = lowRank.getTarget().rms();
+      return network.wrap(
+          new MeanSqLossLayer().setAlpha(0 == targetRms ? 1 : (1.0 / targetRms)),
+          network.wrap(new ValueLayer(lowRank.getTarget().copy()), new DAGNode[]{}),
+          lowRank.wrap(network, node)
+      );
+    } else {
+      double covRms = covariance.rms();
+      return network.wrap(
+          new MeanSqLossLayer().setAlpha(0 == covRms ? 1 : (1.0 / covRms)),
+          network.wrap(new ValueLayer(covariance), new DAGNode[]{}),
+          network.wrap(new GramianLayer(), node)
+      );
+    }
+  }
+
+  /**
+   * Returns the decomposition of a Gram matrix at a rank, fitting it on the first request.
+   *
+   * @param covariance a [1, 1, bands * bands] Gram matrix
+   * @param rank       the number of principal components to keep
+   * @return the shared decomposition, whose tensors must not be modified or freed, and are freed once the entry is
+   * evicted by {@value #CACHE_SIZE} newer decompositions, so they should be copied rather than retained
+   */
+  @Nonnull
+  public static LowRankGram get(@Nonnull final Tensor covariance, final int rank) {
+    String key = StyleCache.hash(covariance) + ";" + rank;
+    synchronized (cache) {
+      LowRankGram cached = cache.get(key);
+      if (null != cached) return cached;
+    }
+    LowRankGram fit = fit(covariance, rank);
+    synchronized (cache) {
+      LowRankGram cached = cache.putIfAbsent(key, fit);
+      if (null == cached) return fit;
+      fit.free();
+      return cached;
+    }
+  }
+
+  private void free() {
+    projection.freeRef();
+    target.freeRef();
+  }
+
+  /**
+   * Decomposes a Gram matrix as produced by {@link GramianLayer}.
+   *
+   * @param covariance a [1, 1, bands * bands] Gram matrix
+   * @param rank       the number of principal components to keep, clamped to [1, bands]
+   * @return the projection and its target
+   */
+  @Nonnull
+  public static LowRankGram fit(@Nonnull final Tensor covariance, final int rank) {
+    final int bands = (int) Math.round(Math.sqrt(covariance.getDimensions()[2]));
+    if (bands * bands != covariance.getDimensions()[2]) {
+      throw new IllegalArgumentException(Arrays.toString(covariance.getDimensions()));
+    }
+    final int k = Math.max(1, Math.min(bands, rank));
+    double[] data = covariance.getData();
+    RealMatrix matrix = new Array2DRowRealMatrix(bands, bands);
+    for (int y = 0; y < bands; y++) {
+      for (int x = 0; x < bands; x++) {
+        matrix.setEntry(x, y, 0.5 * (data[x + bands * y] + data[y + bands * x]));
+      }
+    }
+    EigenDecomposition decomposition = new EigenDecomposition(matrix);
+    double[] eigenvalues = decomposition.getRealEigenvalues();
+    int[] order = IntStream.range(0, bands).boxed()
+        .sorted(Comparator.comparingDouble(i -> -eigenvalues[i]))
+        .mapToInt(i -> i).toArray();
+    Tensor projection = new Tensor(1, 1, bands * k);
+    Tensor target = new Tensor(1, 1, k * k);
+    double trace = Arrays.stream(eigenvalues).map(x -> Math.max(x, 0)).sum();
+    double retained = 0;
+    for (int o = 0; o < k; o++) {
+      RealVector vector = decomposition.getEigenvector(order[o]);
+      for (int i = 0; i < bands; i++) projection.set(i + bands * o, vector.getEntry(i));
+      double eigenvalue = Math.max(eigenvalues[order[o]], 0);
+      target.set(o + k * o, eigenvalue);
+      retained += eigenvalue;
+    }
+    double retainedVariance = 0 == trace ? 1 : (retained / trace);
+    logger.info(String.format("Low-rank Gram: %d of %d components retain %.2f%% of variance", k, bands, 100 * retainedVariance));
+    return new LowRankGram(bands, k, projection, target, retainedVariance);
+  }
+
+  /**
+   * Adds the projection and the Gram matrix of the projected features to a network.
+   *
+   * @param network the network
+   * @param node    the [w, h, bands] features
+   * @return the [1, 1, rank * rank] projected Gram matrix
+   */
+  @Nonnull
+  public InnerNode wrap(@Nonnull final PipelineNetwork network, @Nonnull final DAGNode node) {
+    return network.wrap(new GramianLayer(),
+        network.wrap(new ConvolutionLayer(1, 1, inputBands, rank).set(projection), node));
+  }
+
+  public int getInputBands() {
+    return inputBands;
+  }
+
+  public int getRank() {
+    return rank;
+  }
+
+  /**
+   * @return the [1, 1, bands * rank] projection kernel
+   */
+  @Nonnull
+  public Tensor getProjection() {
+    return projection;
+  }
+
+  /**
+   * @return the diagonal [1, 1, rank * rank] style target
+   */
+  @Nonnull
+  public Tensor getTarget() {
+    return target;
+  }
+
+  /**
+   * @return the fraction of the Gram matrix's trace captured by the kept components
+   */
+  public double getRetainedVariance() {
+    return retainedVariance;
+  }
+}
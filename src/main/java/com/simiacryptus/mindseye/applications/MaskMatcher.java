@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * Compares segmentation masks through small fixed-size descriptors and assigns content masks to style segments. A
+ * descriptor is the mask's channel sum, area-averaged onto a {@link #GRID} x {@link #GRID} grid in normalized image
+ * coordinates and scaled to unit length, so the dot product of two descriptors approximates
+ * {@link SegmentedStyleTransfer#alphaMaskSimilarity(Tensor, Tensor)} without resizing either mask.
+ */
+public final class MaskMatcher {
+  public static final int GRID = 16;
+
+  private MaskMatcher() {
+  }
+
+  /**
+   * @param mask a [width, height, bands] mask
+   * @return its unit-length descriptor, or all zeros for an empty mask
+   */
+  @Nonnull
+  public static double[] describe(@Nonnull final Tensor mask) {
+    int[] dimensions = mask.getDimensions();
+    int width = dimensions[0];
+    int height = dimensions[1];
+    int bands = dimensions.length < 3 ? 1 : dimensions[2];
+    double[] data = mask.getData();
+    double[] descriptor = new double[GRID * GRID];
+    int[] cellX = new int[width];
+    for (int x = 0; x < width; x++) cellX[x] = x * GRID / width;
+    for (int band = 0; band < bands; band++) {
+      for (int y = 0; y < height; y++) {
+        int offset = GRID * (y * GRID / height);
+        int row = width * (y + height * band);
+        for (int x = 0; x < width; x++) descriptor[offset + cellX[x]] += data[row + x];
+      }
+    }
+    double sumSq = 0;
+    for (double v : descriptor) sumSq += v * v;
+    if (0 < sumSq) {
+      double norm = 1.0 / Math.sqrt(sumSq);
+      for (int i = 0; i < descriptor.length; i++) descriptor[i] *= norm;
+    }
+    return descriptor;
+  }
+
+  public static double similarity(@Nonnull final double[] a, @Nonnull final double[] b) {
+    double dot = 0;
+    for (int i = 0; i < a.length; i++) dot += a[i] * b[i];
+    return dot;
+  }
+
+  /**
+   * Assigns each row (content mask) a column (style segment) of a similarity matrix. Without uniqueness each row takes
+   * its most similar column. With uniqueness, and at least as many columns as rows, the assignment is the one-to-one
+   * matching of maximum total similarity, found with the Hungarian algorithm; with fewer columns than rows it falls back
+   * to the most similar column.
+   *
+   * @param similarity the similarity of each row to each column
+   * @param unique     whether distinct rows must take distinct columns
+   * @return the column for each row
+   */
+  @Nonnull
+  public static int[] assign(@Nonnull final double[][] similarity, final boolean unique) {
+    int rows = similarity.length;
+    int cols = 0 == rows ? 0 : similarity[0].length;
+    if (!unique || rows > cols) {
+      int[] assignment = new int[rows];
+      for (int r = 0; r < rows; r++) {
+        int best = 0;
+        for (int c = 1; c < cols; c++) if (similarity[r][c] > similarity[r][best]) best = c;
+        assignment[r] = best;
+      }
+      return assignment;
+    }
+    return hungarian(similarity, rows, cols);
+  }
+
+  /**
+   * Maximum-weight matching of every row to a distinct column, for rows <= cols, using the O(rows^2 * cols)
+   * shortest-augmenting-path form of the Hungarian algorithm on negated similarities.
+   */
+  @Nonnull
+  private static int[] hungarian(@Nonnull final double[][] similarity, final int rows, final int cols) {
+    double[] u = new double[rows + 1];
+    double[] v = new double[cols + 1];
+    int[] match = new int[cols + 1];
+    int[] way = new int[cols + 1];
+    for (int r = 1; r <= rows; r++) {
+      match[0] = r;
+      int c0 = 0;
+      double[] minv = new double[cols + 1];
+      Arrays.fill(minv, Double.POSITIVE_INFINITY);
+      boolean[] used = new boolean[cols + 1];
+      do {
+        used[c0] = true;
+        int r0 = match[c0];
+        double delta = Double.POSITIVE_INFINITY;
+        int c1 = 0;
+        for (int c = 1; c <= cols; c++) {
+          if (used[c]) continue;
+          double cur = -similarity[r0 - 1][c - 1] - u[r0] - v[c];
+          if (cur < minv[c]) {
+            minv[c] = cur;
+            way[c] = c0;
+          }
+          if (minv[c] < delta) {
+            delta = minv[c];
+            c1 = c;
+          }
+        }
+        for (int c = 0; c <= cols; c++) {
+          if (used[c]) {
+            u[match[c]] += delta;
+            v[c] -= delta;
+          } else {
+            minv[c] -= delta;
+          }
+        }
+        c0 = c1;
+      } while (0 != match[c0]);
+      do {
+        int c1 = way[c0];
+        match[c0] = match[c1];
+        c0 = c1;
+      } while (0 != c0);
+    }
+    int[] assignment = new int[rows];
+    for (int c = 1; c <= cols; c++) if (0 != match[c]) assignment[match[c] - 1] = c - 1;
+    return assignment;
+  }
+}
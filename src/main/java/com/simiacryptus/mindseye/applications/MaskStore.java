@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.pyramid.TileCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * A byte-bounded store of segmentation masks, keyed by the content hash of the segmented image, the segmentation
+ * parameters and the mask resolution, so that the same image is only segmented once across jobs and phases. Masks are
+ * held as float arrays in a {@link TileCache} and, if a directory is given, also written there in the little-endian
+ * layout used by {@link StyleCache}, so they survive restarts. Callers always receive fresh tensors which they own.
+ */
+public class MaskStore {
+  public static final MaskStore DEFAULT = new MaskStore(Runtime.getRuntime().maxMemory() / 8, null);
+  private static final Logger log = LoggerFactory.getLogger(MaskStore.class);
+  private static final int MAGIC = 0x4D534B31;
+
+  @Nonnull
+  private final TileCache<Masks> memory;
+  @Nullable
+  private final File cacheDir;
+
+  /**
+   * @param maxBytes the in-memory budget
+   * @param cacheDir the directory of the on-disk tier, or null to keep masks in memory only
+   */
+  public MaskStore(final long maxBytes, @Nullable final File cacheDir) {
+    this.memory = new TileCache<>(maxBytes, 4, Masks::weigh);
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Builds the key for one segmentation of one image.
+   *
+   * @param imageHash       the image hash from {@link StyleCache#hash(Tensor)}
+   * @param masks           the number of masks
+   * @param colorClusters   the number of color clusters
+   * @param textureClusters the number of texture clusters
+   * @param width           the mask width
+   * @param height          the mask height
+   * @param variant         the segmentation method
+   * @return the key
+   */
+  @Nonnull
+  public static String key(
+      @Nonnull final CharSequence imageHash,
+      final int masks,
+      final int colorClusters,
+      final int textureClusters,
+      final int width,
+      final int height,
+      @Nonnull final CharSequence variant
+  ) {
+    return String.format("masks_%dx%d_%d_%d_%d_%s_%s", width, height, masks, colorClusters, textureClusters, variant,
+        imageHash.subSequence(0, Math.min(32, imageHash.length())));
+  }
+
+  /**
+   * Returns copies of the stored masks for a key, running the segmenter on a miss in both tiers. Concurrent misses on
+   * one key share a single segmentation. The segmenter's tensors are consumed.
+   *
+   * @param key       the key
+   * @param segmenter produces the masks, all of one size
+   * @return new mask tensors
+   */
+  @Nonnull
+  public Set<Tensor> get(@Nonnull final String key, @Nonnull final Supplier<Collection<Tensor>> segmenter) {
+    return memory.get(key, k -> {
+      @Nullable Masks masks = read(k);
+      if (null != masks) return masks;
+      masks = new Masks(segmenter.get());
+      write(k, masks);
+      return masks;
+    }).toTensors();
+  }
+
+  public void clear() {
+    memory.clear();
+  }
+
+  @Nonnull
+  public Map<CharSequence, Object> getMetrics() {
+    return memory.getMetrics();
+  }
+
+  @Nullable
+  private Masks read(@Nonnull final String key) {
+    if (null == cacheDir) return null;
+    File file = new File(cacheDir, key + ".bin");
+    if (!file.exists()) return null;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+      buffer.order(ByteOrder.LITTLE_ENDIAN);
+      if (MAGIC != buffer.getInt()) throw new IOException("Bad header");
+      float[][] data = new float[buffer.getInt()][];
+      int[] dims = new int[buffer.getInt()];
+      for (int d = 0; d < dims.length; d++) dims[d] = buffer.getInt();
+      for (int i = 0; i < data.length; i++) {
+        data[i] = new float[Tensor.length(dims)];
+        buffer.asFloatBuffer().get(data[i]);
+        buffer.position(buffer.position() + Float.BYTES * data[i].length);
+      }
+      log.info(String.format("Mask store hit: %s", key));
+      return new Masks(dims, data);
+    } catch (Throwable e) {
+      log.warn(String.format("Error reading mask store %s", file), e);
+      return null;
+    }
+  }
+
+  private void write(@Nonnull final String key, @Nonnull final Masks masks) {
+    if (null == cacheDir) return;
+    File file = new File(cacheDir, key + ".bin");
+    try {
+      cacheDir.mkdirs();
+      File tmp = File.createTempFile(file.getName(), ".tmp", cacheDir);
+      try {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+          ByteBuffer word = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+          writeInt(out, word, MAGIC);
+          writeInt(out, word, masks.data.length);
+          writeInt(out, word, masks.dims.length);
+          for (int dim : masks.dims) writeInt(out, word, dim);
+          for (float[] mask : masks.data) {
+            for (float v : mask) {
+              word.clear();
+              word.putFloat(v);
+              out.write(word.array());
+            }
+          }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      log.warn(String.format("Error writing mask store %s", file), e);
+    }
+  }
+
+  private static void writeInt(@Nonnull final DataOutputStream out, @Nonnull final ByteBuffer word, final int value) throws IOException {
+    word.clear();
+    word.putInt(value);
+    out.write(word.array());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("MaskStore{%s, %s}", cacheDir, memory);
+  }
+
+  private static final class Masks {
+    @Nonnull
+    private final int[] dims;
+    @Nonnull
+    private final float[][] data;
+
+    private Masks(@Nonnull final int[] dims, @Nonnull final float[][] data) {
+      this.dims = dims;
+      this.data = data;
+    }
+
+    private Masks(@Nonnull final Collection<Tensor> tensors) {
+      if (tensors.isEmpty()) throw new IllegalArgumentException("No masks");
+      this.dims = tensors.iterator().next().getDimensions();
+      this.data = new float[tensors.size()][];
+      int i = 0;
+      for (Tensor tensor : tensors) {
+        double[] values = tensor.getData();
+        float[] mask = new float[values.length];
+        for (int j = 0; j < values.length; j++) mask[j] = (float) values[j];
+        data[i++] = mask;
+        tensor.freeRef();
+      }
+    }
+
+    private static long weigh(@Nonnull final Masks masks) {
+      long bytes = 64;
+      for (float[] mask : masks.data) bytes += 16 + (long) Float.BYTES * mask.length;
+      return bytes;
+    }
+
+    @Nonnull
+    private Set<Tensor> toTensors() {
+      Set<Tensor> tensors = new LinkedHashSet<>();
+      for (float[] mask : data) {
+        double[] values = new double[mask.length];
+        for (int j = 0; j < mask.length; j++) values[j] = mask[j];
+        tensors.add(new Tensor(values, dims));
+      }
+      return tensors;
+    }
+  }
+}
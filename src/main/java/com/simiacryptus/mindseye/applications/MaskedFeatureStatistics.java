@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Per-band statistics of feature maps under soft mask weights m, weighted the way
+ * {@link SegmentedStyleTransfer#getMaskedStyleComponents} weights the canvas: the mean is m-weighted, and both Gram
+ * matrices are m^2-weighted, the centered one taken about the m-weighted mean. Weighted sums are accumulated directly,
+ * so a feature map may be added tile by tile. Gram matrices use the same [1, 1, bands * bands] layout as GramianLayer.
+ */
+public class MaskedFeatureStatistics {
+  private final boolean covariance;
+  private int bands = -1;
+  private double weight = 0;
+  private double weightSq = 0;
+  @Nullable
+  private double[] sum = null;
+  @Nullable
+  private double[] sumSq = null;
+  @Nullable
+  private double[] gram = null;
+
+  public MaskedFeatureStatistics(final boolean covariance) {
+    this.covariance = covariance;
+  }
+
+  /**
+   * Accumulates every pixel of a [width, height, bands] feature map.
+   *
+   * @param featureMap the feature map
+   * @param weights    the mask weight of each pixel, in column-major (x fastest) order
+   * @return this
+   */
+  @Nonnull
+  public MaskedFeatureStatistics add(@Nonnull final Tensor featureMap, @Nonnull final double[] weights) {
+    int[] dimensions = featureMap.getDimensions();
+    int pixels = dimensions[0] * dimensions[1];
+    int featureBands = dimensions.length < 3 ? 1 : dimensions[2];
+    if (weights.length != pixels) {
+      throw new IllegalArgumentException(String.format("%d weights for %s", weights.length, Arrays.toString(dimensions)));
+    }
+    if (bands < 0) {
+      bands = featureBands;
+      sum = new double[bands];
+      if (covariance) {
+        sumSq = new double[bands];
+        gram = new double[bands * bands];
+      }
+    } else if (bands != featureBands) {
+      throw new IllegalArgumentException(String.format("Expected %d bands: %s", bands, Arrays.toString(dimensions)));
+    }
+    double[] data = featureMap.getData();
+    double[] weightsSq = new double[pixels];
+    for (int p = 0; p < pixels; p++) {
+      weight += weights[p];
+      weightsSq[p] = weights[p] * weights[p];
+      weightSq += weightsSq[p];
+    }
+    for (int band = 0; band < bands; band++) {
+      int offset = band * pixels;
+      double s = 0;
+      for (int p = 0; p < pixels; p++) s += weights[p] * data[offset + p];
+      sum[band] += s;
+    }
+    if (!covariance) return this;
+    double[] weighted = new double[pixels];
+    for (int i = 0; i < bands; i++) {
+      int offsetI = i * pixels;
+      double s = 0;
+      for (int p = 0; p < pixels; p++) {
+        weighted[p] = weightsSq[p] * data[offsetI + p];
+        s += weighted[p];
+      }
+      sumSq[i] += s;
+      for (int j = 0; j <= i; j++) {
+        int offsetJ = j * pixels;
+        double dot = 0;
+        for (int p = 0; p < pixels; p++) dot += weighted[p] * data[offsetJ + p];
+        gram[i * bands + j] += dot;
+        if (i != j) gram[j * bands + i] += dot;
+      }
+    }
+    return this;
+  }
+
+  public boolean isCovariance() {
+    return covariance;
+  }
+
+  /**
+   * @return the total mask weight; statistics are undefined while it is zero
+   */
+  public double getWeight() {
+    return weight;
+  }
+
+  /**
+   * @return the m-weighted band means, shaped [1, 1, bands] like BandAvgReducerLayer output
+   */
+  @Nonnull
+  public Tensor getMean() {
+    assertNotEmpty();
+    return new Tensor(mean(), 1, 1, bands);
+  }
+
+  /**
+   * @return the m^2-weighted average outer product of the raw features (cov0)
+   */
+  @Nonnull
+  public Tensor getGram() {
+    assertCovariance();
+    double[] values = new double[bands * bands];
+    for (int i = 0; i < values.length; i++) values[i] = gram[i] / weightSq;
+    return new Tensor(values, 1, 1, bands * bands);
+  }
+
+  /**
+   * @return the m^2-weighted average outer product of the features centered on the m-weighted mean (cov1)
+   */
+  @Nonnull
+  public Tensor getCenteredGram() {
+    assertCovariance();
+    double[] mean = mean();
+    double[] values = new double[bands * bands];
+    for (int i = 0; i < bands; i++) {
+      for (int j = 0; j < bands; j++) {
+        values[i * bands + j] = (gram[i * bands + j] - sumSq[i] * mean[j] - mean[i] * sumSq[j]) / weightSq + mean[i] * mean[j];
+      }
+    }
+    return new Tensor(values, 1, 1, bands * bands);
+  }
+
+  @Nonnull
+  private double[] mean() {
+    double[] mean = new double[bands];
+    for (int band = 0; band < bands; band++) mean[band] = sum[band] / weight;
+    return mean;
+  }
+
+  private void assertNotEmpty() {
+    if (0 == weight || 0 == weightSq) throw new IllegalStateException("No data");
+  }
+
+  private void assertCovariance() {
+    assertNotEmpty();
+    if (!covariance) throw new IllegalStateException("Covariance not accumulated");
+  }
+}
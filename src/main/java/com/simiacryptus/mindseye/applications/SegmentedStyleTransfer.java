@@ -54,14 +54,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -69,9 +70,15 @@ import java.util.stream.Stream;
 public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends CVPipe<T>> {
 
   private static final Logger logger = LoggerFactory.getLogger(SegmentedStyleTransfer.class);
-  private final Map<MaskJob, Set<Tensor>> maskCache = new ConcurrentHashMap<>();
   public boolean parallelLossFunctions = true;
   private boolean tiled = false;
+  private boolean sharedTrunk = false;
+  private boolean uniqueSegments = false;
+  @Nullable
+  private StyleCache styleCache;
+  @Nullable
+  private MaskStore maskStore = MaskStore.DEFAULT;
+  private boolean fastSegmentation = false;
   private int content_masks = 3;
   private int content_colorClusters = 3;
   private int content_textureClusters = 3;
@@ -91,16 +98,40 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     });
   }
 
+  /**
+   * Resamples a mask bilinearly to the given size and band count. Values are kept as they are, where a round trip
+   * through an 8-bit image would truncate soft [0, 1] masks; a mask with fewer bands repeats its last band.
+   *
+   * @return a new mask
+   */
+  @Nonnull
+  public static Tensor resizeMask(@Nonnull final Tensor mask, final int width, final int height, final int bands) {
+    int[] dimensions = mask.getDimensions();
+    int maskBands = dimensions.length < 3 ? 1 : dimensions[2];
+    int pixels = dimensions[0] * dimensions[1];
+    double[] data = mask.getData();
+    double[] result = new double[width * height * bands];
+    float[] plane = new float[pixels];
+    for (int band = 0; band < bands; band++) {
+      int offset = Math.min(band, maskBands - 1) * pixels;
+      for (int p = 0; p < pixels; p++) plane[p] = (float) data[offset + p];
+      float[] resized = FastSegmentation.resize(plane, dimensions[0], dimensions[1], width, height);
+      for (int p = 0; p < resized.length; p++) result[band * resized.length + p] = resized[p];
+    }
+    return new Tensor(result, width, height, bands);
+  }
+
   public static double alphaMaskSimilarity(final Tensor contentMask, final Tensor styleMask) {
     Tensor l = contentMask.sumChannels();
     Tensor r = styleMask.sumChannels();
     int[] dimensions = r.getDimensions();
-    Tensor resize = Tensor.fromRGB(ImageUtil.resize(l.toImage(), dimensions[0], dimensions[1])).sumChannels();
+    Tensor resize = resizeMask(l, dimensions[0], dimensions[1], 1);
     Tensor a = resize.unit();
     Tensor b = r.unit();
     double dot = a.dot(b);
     a.freeRef();
     b.freeRef();
+    resize.freeRef();
     r.freeRef();
     l.freeRef();
     return dot;
@@ -169,14 +200,8 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
           assert 0 < inputBands : Arrays.toString(mean.getDimensions());
           int outputBands = covDim[2] / inputBands;
           assert 0 < outputBands : Arrays.toString(covDim) + " / " + inputBands;
-          double covScale = 0 == covRms ? 1 : (1.0 / covRms);
           recentered.addRef();
-          styleComponents.add(new Tuple2<>(styleParams.cov, network.wrap(
-              new MeanSqLossLayer().setAlpha(covScale),
-              network.wrap(new ValueLayer(covariance), new DAGNode[]{}),
-              network.wrap(new GramianLayer(), recentered)
-          )
-          ));
+          styleComponents.add(new Tuple2<>(styleParams.cov, LowRankGram.loss(network, recentered, covariance, styleParams.rank)));
         }
         recentered.freeRef();
       }
@@ -199,6 +224,25 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
       final boolean verbose,
       final Tensor canvas
   ) {
+    return transfer(log, styleParameters, trainingMinutes, measureStyle, maxIterations, verbose, canvas, Collections.emptyMap());
+  }
+
+  /**
+   * Paints the canvas using the content masks in the given map, such as tiles of a full-canvas segmentation. Jobs
+   * missing from the map are segmented through the {@link #getMaskStore() mask store}.
+   *
+   * @param maskCache the content masks to use, keyed by job; it is only read
+   */
+  public Tensor transfer(
+      @Nonnull final NotebookOutput log,
+      final StyleSetup<T> styleParameters,
+      final int trainingMinutes,
+      final NeuralSetup measureStyle,
+      final int maxIterations,
+      final boolean verbose,
+      final Tensor canvas,
+      @Nonnull final Map<MaskJob, Set<Tensor>> maskCache
+  ) {
 //      log.p("Input Content:");
 //      log.p(log.png(styleParameters.contentImage, "Content Image"));
 //      log.p("Style Content:");
@@ -213,7 +257,8 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     Set<Tensor> masks = getMasks(
         log,
         measureStyle.contentSource,
-        new MaskJob(getContent_masks(), getContent_colorClusters(), getContent_textureClusters(), "content")
+        getContentMaskJob(),
+        maskCache
     );
     System.gc();
     if (1 < getContent_masks()) log.h2("Content Painting");
@@ -294,10 +339,19 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     }
   }
 
+  /**
+   * Measures the style and content, and matches the content image's masks to style segments once for the whole job; see
+   * {@link NeuralSetup#segmentAssignment}.
+   */
   public NeuralSetup measureStyle(final NotebookOutput log, final StyleSetup<T> style) {
-    NeuralSetup self = new NeuralSetup(style);
+    NeuralSetup<T> self = new NeuralSetup<>(style);
     measureStyles(log, style, self);
     measureContent(log, style, self);
+    if (null != style.contentImage) {
+      Set<Tensor> masks = getMasks(log, style.contentImage, getContentMaskJob());
+      self.segmentAssignment = assignSegments(self, masks);
+      masks.forEach(ReferenceCountingBase::freeRef);
+    }
     return self;
   }
 
@@ -363,29 +417,33 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
       assert masks1.stream().count() == masks1.stream().distinct().count();
       return masks1;
     }));
-    for (final T layerType : getLayerTypes()) {
-      System.gc();
-      Layer network = layerType.network();
-      try {
-        MultiPrecision.setPrecision((DAGNetwork) network, style.precision);
-        for (Map.Entry<CharSequence, Tensor> styleEntry : styleInputs.entrySet()) {
-          CharSequence key = styleEntry.getKey();
-          SegmentedStyleTarget<T> segmentedStyleTarget = self.styleTargets.get(key);
-          if (0 == self.style.styles.entrySet().stream().filter(e1 -> e1.getKey().contains(key)).map(x -> x.getValue().params.get(
-              layerType)).filter(x -> null != x).filter(x -> x.mean != 0 || x.cov != 0).count())
-            continue;
-          Tensor styleInput = styleEntry.getValue();
-          alphaMap(styleInput, masks.get(styleInput)).forEach((mask, styleMask) -> {
-            StyleTarget<T> styleTarget = segmentedStyleTarget.getSegment(mask);
+    if (sharedTrunk) {
+      measureMaskedStyles(style, self, styleInputs, masks);
+    } else {
+      for (final T layerType : getLayerTypes()) {
+        System.gc();
+        Layer network = layerType.network();
+        try {
+          MultiPrecision.setPrecision((DAGNetwork) network, style.precision);
+          for (Map.Entry<CharSequence, Tensor> styleEntry : styleInputs.entrySet()) {
+            CharSequence key = styleEntry.getKey();
+            SegmentedStyleTarget<T> segmentedStyleTarget = self.styleTargets.get(key);
             if (0 == self.style.styles.entrySet().stream().filter(e1 -> e1.getKey().contains(key)).map(x -> x.getValue().params.get(
-                layerType)).filter(x -> null != x).filter(x -> x.cov != 0).count())
-              return;
-            measureStyle(network, styleTarget, layerType, styleMask, 800);
-            logStyle(styleTarget, layerType);
-          });
+                layerType)).filter(x -> null != x).filter(x -> x.mean != 0 || x.cov != 0).count())
+              continue;
+            Tensor styleInput = styleEntry.getValue();
+            alphaMap(styleInput, masks.get(styleInput)).forEach((mask, styleMask) -> {
+              StyleTarget<T> styleTarget = segmentedStyleTarget.getSegment(mask);
+              if (0 == self.style.styles.entrySet().stream().filter(e1 -> e1.getKey().contains(key)).map(x -> x.getValue().params.get(
+                  layerType)).filter(x -> null != x).filter(x -> x.cov != 0).count())
+                return;
+              measureStyle(network, styleTarget, layerType, styleMask, 800);
+              logStyle(styleTarget, layerType);
+            });
+          }
+        } finally {
+          network.freeRef();
         }
-      } finally {
-        network.freeRef();
       }
     }
     masks.forEach((k, v) -> {
@@ -395,6 +453,98 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     return masks;
   }
 
+  /**
+   * Measures the style segments for {@link #sharedTrunkFitnessNetwork}, the same way that network scores the canvas:
+   * the trunk is evaluated once on each unmasked style image, tile by tile, and every segment mask is resampled to each
+   * stratum and applied to the features, giving m-weighted means and m^2-weighted Gram matrices. Measuring the trunk on
+   * the masked image instead would average features of a zero-filled image over every pixel.
+   */
+  private void measureMaskedStyles(
+      final StyleSetup<T> style,
+      final NeuralSetup<T> self,
+      final Map<CharSequence, Tensor> styleInputs,
+      final Map<Tensor, Set<Tensor>> masks
+  ) {
+    List<T> layerTypes = Arrays.asList(getLayerTypes());
+    StrataEvaluator<T> evaluator = getNetworkModel().getEvaluator(layerTypes).setPrecision(style.precision);
+    try {
+      for (Map.Entry<CharSequence, Tensor> styleEntry : styleInputs.entrySet()) {
+        CharSequence key = styleEntry.getKey();
+        Tensor styleInput = styleEntry.getValue();
+        Map<T, Boolean> covariance = new HashMap<>();
+        for (final T layerType : layerTypes) {
+          List<LayerStyleParams> params = self.style.styles.entrySet().stream().filter(e1 -> e1.getKey().contains(key)).map(x -> x.getValue().params.get(
+              layerType)).filter(x -> null != x).collect(Collectors.toList());
+          if (params.stream().anyMatch(x -> x.mean != 0 || x.cov != 0)) covariance.put(layerType, params.stream().anyMatch(x -> x.cov != 0));
+        }
+        if (covariance.isEmpty()) continue;
+        List<Tensor> styleMasks = new ArrayList<>(masks.get(styleInput));
+        String imageHash = null == styleCache ? null : StyleCache.hash(styleInput);
+        List<StyleTarget<T>> targets = new ArrayList<>();
+        List<Map<T, MaskedFeatureStatistics>> statistics = new ArrayList<>();
+        List<Map<T, String>> cacheKeys = new ArrayList<>();
+        for (Tensor mask : styleMasks) {
+          StyleTarget<T> target = self.styleTargets.get(key).getSegment(mask);
+          Map<T, MaskedFeatureStatistics> maskStatistics = new LinkedHashMap<>();
+          Map<T, String> maskCacheKeys = new HashMap<>();
+          String maskHash = null == styleCache ? null : StyleCache.hash(mask);
+          covariance.forEach((layerType, cov) -> {
+            if (null != styleCache) {
+              String cacheKey = StyleCache.key(imageHash, styleInput.getDimensions(), getNetworkModel().getClass().getSimpleName(),
+                  layerType, style.precision, "SegmentedStyleTransfer;masked;tile=400;mask=" + maskHash);
+              if (styleCache.load(cacheKey, layerType, cov, target.mean, target.cov0, target.cov1)) return;
+              maskCacheKeys.put(layerType, cacheKey);
+            }
+            maskStatistics.put(layerType, new MaskedFeatureStatistics(cov));
+          });
+          targets.add(target);
+          statistics.add(maskStatistics);
+          cacheKeys.add(maskCacheKeys);
+        }
+        if (statistics.stream().allMatch(Map::isEmpty)) {
+          targets.forEach(ReferenceCountingBase::freeRef);
+          continue;
+        }
+        Tensor[] tiles = StyleTransfer.exactTiles(styleInput, 400);
+        List<Tensor[]> maskTiles = styleMasks.stream().map(mask -> StyleTransfer.exactTiles(mask, 400)).collect(Collectors.toList());
+        for (int t = 0; t < tiles.length; t++) {
+          Map<T, Tensor> features = evaluator.eval(tiles[t]);
+          for (int m = 0; m < styleMasks.size(); m++) {
+            Tensor maskTile = maskTiles.get(m)[t];
+            Map<T, MaskedFeatureStatistics> maskStatistics = statistics.get(m);
+            features.forEach((layerType, featureMap) -> {
+              MaskedFeatureStatistics layerStatistics = maskStatistics.get(layerType);
+              if (null == layerStatistics) return;
+              int[] dims = featureMap.getDimensions();
+              layerStatistics.add(featureMap, resample(maskTile, dims[0], dims[1]));
+            });
+            maskTile.freeRef();
+          }
+          features.values().forEach(Tensor::freeRef);
+          tiles[t].freeRef();
+        }
+        for (int m = 0; m < styleMasks.size(); m++) {
+          StyleTarget<T> target = targets.get(m);
+          Map<T, String> maskCacheKeys = cacheKeys.get(m);
+          statistics.get(m).forEach((layerType, layerStatistics) -> {
+            if (0 == layerStatistics.getWeight()) return;
+            target.mean.put(layerType, layerStatistics.getMean());
+            if (layerStatistics.isCovariance()) {
+              target.cov0.put(layerType, layerStatistics.getGram());
+              target.cov1.put(layerType, layerStatistics.getCenteredGram());
+              logStyle(target, layerType);
+            }
+            String cacheKey = maskCacheKeys.get(layerType);
+            if (null != cacheKey) styleCache.store(cacheKey, layerType, target.mean, target.cov0, target.cov1);
+          });
+          target.freeRef();
+        }
+      }
+    } finally {
+      evaluator.freeRef();
+    }
+  }
+
   public void logStyle(final StyleTarget<T> styleTarget, final T layerType) {
     Tensor cov0 = styleTarget.cov0.get(layerType);
     Tensor cov1 = styleTarget.cov1.get(layerType);
@@ -431,6 +581,12 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     int strideY = tileSize;
     int cols = (int) Math.max(1, (Math.ceil((dimensions[0] - width) * 1.0 / strideX) + 1));
     int rows = (int) Math.max(1, (Math.ceil((dimensions[1] - height) * 1.0 / strideY) + 1));
+    String cacheKey = null == styleCache ? null : StyleCache.key(StyleCache.hash(image), dimensions,
+        getNetworkModel().getClass().getSimpleName(), layerType, Precision.Float, "SegmentedStyleTransfer;tile=" + tileSize);
+    if (null != cacheKey && styleCache.load(cacheKey, layerType, true, styleTarget.mean, styleTarget.cov0, styleTarget.cov1)) {
+      if (cols == 1 && rows == 1) image.freeRef();
+      return;
+    }
     if (cols == 1 && rows == 1) {
       measureStyle(network, styleTarget, layerType, image);
     } else {
@@ -462,6 +618,7 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
       put(tiledStyle, styleTarget);
       tiledStyle.freeRef();
     }
+    if (null != cacheKey) styleCache.store(cacheKey, layerType, styleTarget.mean, styleTarget.cov0, styleTarget.cov1);
   }
 
   public void put(final StyleTarget<T> fromStyle, final StyleTarget<T> toStyle) {
@@ -514,24 +671,59 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
   }
 
   public Set<Tensor> getMasks(final NotebookOutput log, final Tensor value, final MaskJob maskJob1) {
+    return getMasks(log, value, maskJob1, Collections.emptyMap());
+  }
+
+  /**
+   * @return the segmentation job used for the content image
+   */
+  @Nonnull
+  public MaskJob getContentMaskJob() {
+    return new MaskJob(getContent_masks(), getContent_colorClusters(), getContent_textureClusters(), "content");
+  }
+
+  /**
+   * Returns new masks shaped like the image, with values in [0, 1], which the caller owns, in a stable order. Masks given
+   * in the map, such as tiles of a full-canvas segmentation, take precedence and are copied in their given order;
+   * otherwise the image is segmented through the {@link #getMaskStore() mask store}, which is keyed by the image's
+   * content hash, so an image seen before at the same resolution and parameters is not segmented again.
+   */
+  public Set<Tensor> getMasks(final NotebookOutput log, final Tensor value, final MaskJob maskJob, @Nonnull final Map<MaskJob, Set<Tensor>> maskCache) {
     int width = value.getDimensions()[0];
     int height = value.getDimensions()[1];
-    return getMaskCache().computeIfAbsent(maskJob1, maskJob -> {
-      Set<Tensor> tensors = ImageSegmenter.quickMasks(
-          log,
-          value,
-          maskJob.getStyle_masks(),
-          maskJob.getStlye_colorClusters(),
-          maskJob.getStyle_textureClusters()
-      )
-          .stream().distinct().collect(Collectors.toSet());
-      assert null != tensors;
-      return tensors;
-    }).stream().map(img -> {
-      Tensor tensor = Tensor.fromRGB(ImageUtil.resize(img.toImage(), width, height));
-      assert null != tensor;
+    int bands = value.getDimensions()[2];
+    @Nullable Set<Tensor> given = maskCache.get(maskJob);
+    if (null != given) {
+      return given.stream().map(img -> resizeMask(img, width, height, bands)).collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+    Supplier<Collection<Tensor>> segmenter = () -> (isFastSegmentation() ? ImageSegmenter.fastMasks(
+        log,
+        value,
+        maskJob.getStyle_masks(),
+        maskJob.getStlye_colorClusters(),
+        maskJob.getStyle_textureClusters()
+    ) : ImageSegmenter.quickMasks(
+        log,
+        value,
+        maskJob.getStyle_masks(),
+        maskJob.getStlye_colorClusters(),
+        maskJob.getStyle_textureClusters()
+    )).stream().distinct().map(img -> {
+      Tensor tensor = resizeMask(img, width, height, bands);
+      img.freeRef();
       return tensor;
-    }).collect(Collectors.toSet());
+    }).collect(Collectors.toCollection(LinkedHashSet::new));
+    Set<Tensor> tensors = null == maskStore ? new LinkedHashSet<>(segmenter.get()) : maskStore.get(MaskStore.key(
+        StyleCache.hash(value),
+        maskJob.getStyle_masks(),
+        maskJob.getStlye_colorClusters(),
+        maskJob.getStyle_textureClusters(),
+        width,
+        height,
+        isFastSegmentation() ? "fast" : "trained"
+    ), segmenter);
+    assert null != tensors;
+    return tensors;
   }
 
   @Nonnull
@@ -542,22 +734,7 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
   ) {
     ArrayList<Tuple2<Double, DAGNode>> styleComponents = new ArrayList<>();
     for (final List<CharSequence> keys : setup.style.styles.keySet()) {
-      StyleTarget<T> styleTarget = keys.stream().map(x -> {
-        SegmentedStyleTarget<T> obj = setup.styleTargets.get(x);
-        StyleTarget<T> choose = selector.apply(obj);
-        choose.addRef();
-        return choose;
-      }).reduce((a, b) -> {
-        StyleTarget<T> r = a.add(b);
-        a.freeRef();
-        b.freeRef();
-        return r;
-      }).map(x -> {
-        StyleTarget<T> r = x.scale(1.0 / keys.size());
-        x.freeRef();
-        return r;
-      }).get();
-      assert null != styleTarget;
+      StyleTarget<T> styleTarget = getStyleTarget(setup, keys, selector);
       for (final T layerType : getLayerTypes()) {
         final StyleCoefficients<T> styleCoefficients = setup.style.styles.get(keys);
         assert null != styleCoefficients;
@@ -568,6 +745,31 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     return styleComponents;
   }
 
+  @Nonnull
+  private StyleTarget<T> getStyleTarget(
+      final NeuralSetup<T> setup,
+      final List<CharSequence> keys,
+      final Function<SegmentedStyleTarget<T>, StyleTarget<T>> selector
+  ) {
+    StyleTarget<T> styleTarget = keys.stream().map(x -> {
+      SegmentedStyleTarget<T> obj = setup.styleTargets.get(x);
+      StyleTarget<T> choose = selector.apply(obj);
+      choose.addRef();
+      return choose;
+    }).reduce((a, b) -> {
+      StyleTarget<T> r = a.add(b);
+      a.freeRef();
+      b.freeRef();
+      return r;
+    }).map(x -> {
+      StyleTarget<T> r = x.scale(1.0 / keys.size());
+      x.freeRef();
+      return r;
+    }).get();
+    assert null != styleTarget;
+    return styleTarget;
+  }
+
   @Nonnull
   public ArrayList<Tuple2<Double, DAGNode>> getStyleComponents(
       final Map<T, DAGNode> nodeMap,
@@ -597,37 +799,277 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
 
   @Nonnull
   public PipelineNetwork fitnessNetwork(final NeuralSetup setup, final Set<Tensor> masks) {
+    if (sharedTrunk && !masks.isEmpty()) return sharedTrunkFitnessNetwork(setup, masks);
     U networkModel = getNetworkModel();
     PipelineNetwork mainNetwork = networkModel.getNetwork();
     Map<T, UUID> modelNodes = networkModel.getNodes();
     List<Tuple2<Double, DAGNode>> mainFunctions = new ArrayList<>();
     Map<T, DAGNode> mainNodes = getNodes(modelNodes, mainNetwork, null);
     mainFunctions.addAll(getContentComponents(setup, mainNodes));
-    masks.forEach((contentMask) -> {
+    List<Map<SegmentedStyleTarget<T>, StyleTarget<T>>> assignment = getSegmentAssignment(setup, masks);
+    int index = 0;
+    for (final Tensor contentMask : masks) {
+      Map<SegmentedStyleTarget<T>, StyleTarget<T>> segments = assignment.get(index++);
       HashMap<String, String> idMap = new HashMap<>();
       DAGNetwork branchNetwork = mainNetwork.scrambleCopy(idMap);
       //logger.info("Branch Keys");
       //branchNetwork.logKeys();
       Map<T, DAGNode> nodeMap = getNodes(modelNodes, branchNetwork, idMap);
       List<Tuple2<Double, DAGNode>> branchFunctions = new ArrayList<>();
-      branchFunctions.addAll(getStyleComponents(setup, nodeMap,
-          x -> x.segments.entrySet().stream().max(Comparator.comparingDouble(e -> alphaMaskSimilarity(
-              contentMask,
-              e.getKey()
-          ))).get().getValue()
-      ));
+      branchFunctions.addAll(getStyleComponents(setup, nodeMap, segments::get));
       if (!branchFunctions.isEmpty()) ArtistryUtil.reduce(branchNetwork, branchFunctions, parallelLossFunctions);
       InnerNode importNode = mainNetwork.wrap(
           branchNetwork,
           mainNetwork.wrap(new ProductLayer(), mainNetwork.getInput(0), mainNetwork.constValue(contentMask))
       );
       mainFunctions.add(new Tuple2<>(1.0, importNode));
-    });
+    }
+    ArtistryUtil.reduce(mainNetwork, mainFunctions, parallelLossFunctions);
+    MultiPrecision.setPrecision(mainNetwork, setup.style.precision);
+    return mainNetwork;
+  }
+
+  /**
+   * Matches every content mask to one segment of each style image by comparing {@link MaskMatcher} descriptors. Style
+   * descriptors are cached on their targets. This is normally called once per job, on the full-canvas masks, by
+   * {@link #measureStyle(NotebookOutput, StyleSetup)}; the result is kept on the setup and reused by every tile and
+   * phase.
+   *
+   * @param setup the measured style
+   * @param masks the content masks
+   * @return the chosen segment of each style target for each content mask, in the masks' iteration order
+   */
+  @Nonnull
+  public List<Map<SegmentedStyleTarget<T>, StyleTarget<T>>> assignSegments(final NeuralSetup<T> setup, final Collection<Tensor> masks) {
+    List<Tensor> contentMasks = new ArrayList<>(masks);
+    double[][] contentDescriptors = contentMasks.stream().map(MaskMatcher::describe).toArray(i -> new double[i][]);
+    List<Map<SegmentedStyleTarget<T>, StyleTarget<T>>> assignment = new ArrayList<>();
+    contentMasks.forEach(mask -> assignment.add(new IdentityHashMap<>()));
+    for (final SegmentedStyleTarget<T> target : setup.styleTargets.values()) {
+      List<Map.Entry<Tensor, StyleTarget<T>>> segments = target.getSegments();
+      if (segments.isEmpty()) continue;
+      double[][] similarity = new double[contentMasks.size()][segments.size()];
+      for (int c = 0; c < segments.size(); c++) {
+        double[] styleDescriptor = target.getDescriptor(segments.get(c).getKey());
+        for (int r = 0; r < contentMasks.size(); r++) {
+          similarity[r][c] = MaskMatcher.similarity(contentDescriptors[r], styleDescriptor);
+        }
+      }
+      int[] columns = MaskMatcher.assign(similarity, uniqueSegments);
+      for (int r = 0; r < contentMasks.size(); r++) {
+        assignment.get(r).put(target, segments.get(columns[r]).getValue());
+      }
+    }
+    return assignment;
+  }
+
+  /**
+   * @return the setup's stored assignment, whose entries correspond to the masks by position, or a new assignment of
+   * the masks if the setup has none
+   */
+  @Nonnull
+  private List<Map<SegmentedStyleTarget<T>, StyleTarget<T>>> getSegmentAssignment(final NeuralSetup<T> setup, final Set<Tensor> masks) {
+    List<Map<SegmentedStyleTarget<T>, StyleTarget<T>>> assignment = setup.segmentAssignment;
+    if (null == assignment) return assignSegments(setup, masks);
+    if (assignment.size() != masks.size()) {
+      throw new IllegalStateException(String.format("%d content masks, but segments were assigned for %d", masks.size(), assignment.size()));
+    }
+    return assignment;
+  }
+
+  /**
+   * Builds the segmented loss on a single trunk. Each content mask is resampled to the resolution of every stratum and
+   * multiplied into that stratum's feature map, and the segment's style statistics are taken from the masked
+   * activations, so the trunk is evaluated once per iteration however many masks there are. The style targets must have
+   * been measured with {@link #isSharedTrunk()} set, so that they are weighted the same way.
+   *
+   * @param setup the measured content and style
+   * @param masks the content masks
+   * @return the fitness network
+   */
+  @Nonnull
+  public PipelineNetwork sharedTrunkFitnessNetwork(final NeuralSetup<T> setup, final Set<Tensor> masks) {
+    U networkModel = getNetworkModel();
+    PipelineNetwork mainNetwork = networkModel.getNetwork();
+    Map<T, DAGNode> mainNodes = getNodes(networkModel.getNodes(), mainNetwork, null);
+    List<Tuple2<Double, DAGNode>> mainFunctions = new ArrayList<>(getContentComponents(setup, mainNodes));
+    Map<T, int[]> dimensions = getLayerDimensions(setup);
+    List<Map<SegmentedStyleTarget<T>, StyleTarget<T>>> assignment = getSegmentAssignment(setup, masks);
+    int index = 0;
+    for (final Tensor contentMask : masks) {
+      Function<SegmentedStyleTarget<T>, StyleTarget<T>> selector = assignment.get(index++)::get;
+      for (final List<CharSequence> keys : setup.style.styles.keySet()) {
+        StyleTarget<T> styleTarget = getStyleTarget(setup, keys, selector);
+        final StyleCoefficients<T> styleCoefficients = setup.style.styles.get(keys);
+        for (final T layerType : getLayerTypes()) {
+          final DAGNode node = mainNodes.get(layerType);
+          if (null == node) throw new RuntimeException("Not Found: " + layerType);
+          int[] dims = dimensions.get(layerType);
+          Tensor covariance = styleCoefficients.centeringMode == CenteringMode.Origin ?
+              styleTarget.cov0.get(layerType) : styleTarget.cov1.get(layerType);
+          mainFunctions.addAll(getMaskedStyleComponents(
+              node,
+              (PipelineNetwork) node.getNetwork(),
+              styleCoefficients.params.get(layerType),
+              styleTarget.mean.get(layerType),
+              covariance,
+              styleCoefficients.centeringMode,
+              resample(contentMask, dims[0], dims[1]),
+              dims[0],
+              dims[1]
+          ));
+        }
+        styleTarget.freeRef();
+      }
+    }
     ArtistryUtil.reduce(mainNetwork, mainFunctions, parallelLossFunctions);
     MultiPrecision.setPrecision(mainNetwork, setup.style.precision);
     return mainNetwork;
   }
 
+  /**
+   * Builds the style loss of one segment at one stratum from the shared, unmasked feature map. With mask weights m,
+   * features are multiplied by m / sqrt(avg(m^2)) before the Gram matrix is taken, which gives the m^2-weighted Gram
+   * matrix of the segment, and the masked band averages are divided by avg(m) / sqrt(avg(m^2)), which gives the
+   * m-weighted segment means. Centering is applied before masking.
+   *
+   * @param weights the mask weights at this stratum's resolution, from {@link #resample(Tensor, int, int)}
+   * @param width   the stratum width
+   * @param height  the stratum height
+   */
+  @Nonnull
+  public ArrayList<Tuple2<Double, DAGNode>> getMaskedStyleComponents(
+      final DAGNode node,
+      final PipelineNetwork network,
+      final LayerStyleParams styleParams,
+      final Tensor mean,
+      final Tensor covariance,
+      final CenteringMode centeringMode,
+      final double[] weights,
+      final int width,
+      final int height
+  ) {
+    ArrayList<Tuple2<Double, DAGNode>> styleComponents = new ArrayList<>();
+    if (null == styleParams || null == mean || (styleParams.cov == 0 && styleParams.mean == 0)) return styleComponents;
+    double sum = 0;
+    double sumSq = 0;
+    for (double w : weights) {
+      sum += w;
+      sumSq += w * w;
+    }
+    if (0 == sum || 0 == sumSq) return styleComponents;
+    double scale = 1.0 / Math.sqrt(sumSq / weights.length);
+    double meanGain = (sum / weights.length) * scale;
+    int bands = mean.getDimensions()[2];
+    double[] maskData = new double[weights.length * bands];
+    for (int band = 0; band < bands; band++) {
+      for (int p = 0; p < weights.length; p++) maskData[band * weights.length + p] = weights[p] * scale;
+    }
+    double meanRms = mean.rms();
+    double meanScale = 0 == meanRms ? 1 : (1.0 / meanRms);
+    InnerNode maskNode = network.wrap(new ValueLayer(new Tensor(maskData, width, height, bands)), new DAGNode[]{});
+    InnerNode negTarget = network.wrap(new ValueLayer(mean.scale(-1)), new DAGNode[]{});
+    node.addRef();
+    maskNode.addRef();
+    InnerNode masked = network.wrap(new ProductLayer(), node, maskNode);
+    masked.addRef();
+    InnerNode negAvg = network.wrap(new BandAvgReducerLayer().setAlpha(-1 / meanGain), masked);
+    if (styleParams.enhance != 0 || styleParams.cov != 0) {
+      DAGNode recentered;
+      switch (centeringMode) {
+        case Origin:
+          masked.addRef();
+          recentered = masked;
+          break;
+        case Dynamic:
+          node.addRef();
+          negAvg.addRef();
+          maskNode.addRef();
+          recentered = network.wrap(new ProductLayer(), network.wrap(new GateBiasLayer(), node, negAvg), maskNode);
+          break;
+        case Static:
+          node.addRef();
+          negTarget.addRef();
+          maskNode.addRef();
+          recentered = network.wrap(new ProductLayer(), network.wrap(new GateBiasLayer(), node, negTarget), maskNode);
+          break;
+        default:
+          throw new RuntimeException();
+      }
+      double covRms = covariance.rms();
+      if (styleParams.enhance != 0) {
+        recentered.addRef();
+        styleComponents.add(new Tuple2<>(-(0 == covRms ? styleParams.enhance : (styleParams.enhance / covRms)), network.wrap(
+            new AvgReducerLayer(),
+            network.wrap(new SquareActivationLayer(), recentered)
+        )));
+      }
+      if (styleParams.cov != 0) {
+        recentered.addRef();
+        styleComponents.add(new Tuple2<>(styleParams.cov, LowRankGram.loss(network, recentered, covariance, styleParams.rank)));
+      }
+      recentered.freeRef();
+    }
+    if (styleParams.mean != 0) {
+      styleComponents.add(new Tuple2<>(
+          styleParams.mean,
+          network.wrap(new MeanSqLossLayer().setAlpha(meanScale), negAvg, negTarget)
+      ));
+    } else {
+      negAvg.freeRef();
+      negTarget.freeRef();
+    }
+    masked.freeRef();
+    maskNode.freeRef();
+    return styleComponents;
+  }
+
+  /**
+   * Resamples a content mask to a stratum's resolution as per-pixel weights, averaging the mask's channels.
+   *
+   * @return the weights in column-major (x fastest) order, matching Tensor layout
+   */
+  @Nonnull
+  public static double[] resample(final Tensor mask, final int width, final int height) {
+    int[] dimensions = mask.getDimensions();
+    Tensor resized = resizeMask(mask, width, height, dimensions.length < 3 ? 1 : dimensions[2]);
+    double[] data = resized.getData();
+    int bands = resized.getDimensions()[2];
+    int pixels = width * height;
+    double[] weights = new double[pixels];
+    for (int band = 0; band < bands; band++) {
+      for (int p = 0; p < pixels; p++) weights[p] += data[band * pixels + p] / bands;
+    }
+    resized.freeRef();
+    return weights;
+  }
+
+  /**
+   * @return the output dimensions of every stratum for the setup's content image
+   */
+  @Nonnull
+  public Map<T, int[]> getLayerDimensions(final NeuralSetup<T> setup) {
+    Map<T, int[]> dimensions = new HashMap<>();
+    List<T> missing = new ArrayList<>();
+    for (final T layerType : getLayerTypes()) {
+      Tensor content = setup.contentTarget.content.get(layerType);
+      if (null != content) dimensions.put(layerType, content.getDimensions());
+      else missing.add(layerType);
+    }
+    if (!missing.isEmpty()) {
+      StrataEvaluator<T> evaluator = getNetworkModel().getEvaluator(missing).setPrecision(setup.style.precision);
+      try {
+        evaluator.eval(setup.contentSource).forEach((layerType, tensor) -> {
+          dimensions.put(layerType, tensor.getDimensions());
+          tensor.freeRef();
+        });
+      } finally {
+        evaluator.freeRef();
+      }
+    }
+    return dimensions;
+  }
+
   @Nonnull
   public Map<T, DAGNode> getNodes(final Map<T, UUID> modelNodes, final DAGNetwork network, final HashMap<String, String> replacements) {
     Map<T, DAGNode> nodes = new HashMap<>();
@@ -679,6 +1121,31 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     return this;
   }
 
+  /**
+   * @return whether content masks are applied to the feature maps of one shared trunk rather than to the input of one
+   * trunk copy per mask; style segments are measured to match, so set this before measuring the style
+   */
+  public boolean isSharedTrunk() {
+    return sharedTrunk;
+  }
+
+  public SegmentedStyleTransfer<T, U> setSharedTrunk(boolean sharedTrunk) {
+    this.sharedTrunk = sharedTrunk;
+    return this;
+  }
+
+  /**
+   * @return whether distinct content masks are matched to distinct style segments where there are enough of them
+   */
+  public boolean isUniqueSegments() {
+    return uniqueSegments;
+  }
+
+  public SegmentedStyleTransfer<T, U> setUniqueSegments(boolean uniqueSegments) {
+    this.uniqueSegments = uniqueSegments;
+    return this;
+  }
+
   public int getContent_masks() {
     return content_masks;
   }
@@ -733,8 +1200,46 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     return this;
   }
 
-  public Map<MaskJob, Set<Tensor>> getMaskCache() {
-    return maskCache;
+  public boolean isFastSegmentation() {
+    return fastSegmentation;
+  }
+
+  /**
+   * @param fastSegmentation whether to segment with k-means over feature maps, via {@link ImageSegmenter#fastMasks},
+   *                         rather than with trained entropy networks
+   * @return this
+   */
+  public SegmentedStyleTransfer<T, U> setFastSegmentation(boolean fastSegmentation) {
+    this.fastSegmentation = fastSegmentation;
+    return this;
+  }
+
+  @Nullable
+  public MaskStore getMaskStore() {
+    return maskStore;
+  }
+
+  /**
+   * @param maskStore the store of computed segmentation masks, or null to always segment
+   * @return this
+   */
+  public SegmentedStyleTransfer<T, U> setMaskStore(@Nullable MaskStore maskStore) {
+    this.maskStore = maskStore;
+    return this;
+  }
+
+  @Nullable
+  public StyleCache getStyleCache() {
+    return styleCache;
+  }
+
+  /**
+   * @param styleCache the cache of measured style statistics, or null to always measure
+   * @return this
+   */
+  public SegmentedStyleTransfer<T, U> setStyleCache(@Nullable StyleCache styleCache) {
+    this.styleCache = styleCache;
+    return this;
   }
 
   public enum CenteringMode {
@@ -801,10 +1306,20 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     public final double cov;
     private final double enhance;
 
+    /**
+     * The number of principal components of the style covariance kept by the Gram loss, or 0 for all bands.
+     */
+    public final int rank;
+
     public LayerStyleParams(final double mean, final double cov, final double enhance) {
+      this(mean, cov, enhance, 0);
+    }
+
+    public LayerStyleParams(final double mean, final double cov, final double enhance, final int rank) {
       this.mean = mean;
       this.cov = cov;
       this.enhance = enhance;
+      this.rank = rank;
     }
   }
 
@@ -852,7 +1367,14 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     }
 
     public StyleCoefficients<T> set(final T layerType, final double coeff_style_mean, final double coeff_style_cov, final double dream) {
-      params.put(layerType, new LayerStyleParams(coeff_style_mean, coeff_style_cov, dream));
+      return set(layerType, coeff_style_mean, coeff_style_cov, dream, 0);
+    }
+
+    /**
+     * @param rank the number of principal components kept by the Gram loss of this layer, or 0 for all bands
+     */
+    public StyleCoefficients<T> set(final T layerType, final double coeff_style_mean, final double coeff_style_cov, final double dream, final int rank) {
+      params.put(layerType, new LayerStyleParams(coeff_style_mean, coeff_style_cov, dream, rank));
       return this;
     }
 
@@ -910,6 +1432,28 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
 
   public static class SegmentedStyleTarget<T extends LayerEnum<T>> {
     private final Map<Tensor, StyleTarget<T>> segments = new HashMap<>();
+    private final Map<Tensor, double[]> descriptors = new HashMap<>();
+
+    /**
+     * @return a snapshot of the segment masks and their targets
+     */
+    @Nonnull
+    public List<Map.Entry<Tensor, StyleTarget<T>>> getSegments() {
+      synchronized (segments) {
+        return new ArrayList<>(segments.entrySet());
+      }
+    }
+
+    /**
+     * @param styleMask a segment mask
+     * @return its {@link MaskMatcher} descriptor, computed on first use
+     */
+    @Nonnull
+    public double[] getDescriptor(final Tensor styleMask) {
+      synchronized (segments) {
+        return descriptors.computeIfAbsent(styleMask, MaskMatcher::describe);
+      }
+    }
 
     public StyleTarget<T> getSegment(final Tensor styleMask) {
       synchronized (segments) {
@@ -1006,10 +1550,33 @@ public abstract class SegmentedStyleTransfer<T extends LayerEnum<T>, U extends C
     public ContentTarget<T> contentTarget = new ContentTarget<>();
     public Map<CharSequence, SegmentedStyleTarget<T>> styleTargets = new HashMap<>();
     public Tensor contentSource;
+    /**
+     * The style segment chosen for each content mask of the full content image, in the order the masks are returned by
+     * {@link SegmentedStyleTransfer#getMasks}; tiles of those masks keep that order, so every tile and phase paints a
+     * mask with the same segment. The masks are matched by position, so they must come from the mask store or from
+     * tiles of the same segmentation. Null if no content masks have been assigned yet.
+     */
+    @Nullable
+    public List<Map<SegmentedStyleTarget<T>, StyleTarget<T>>> segmentAssignment;
 
 
     public NeuralSetup(final StyleSetup<T> style) {
       this.style = style;
     }
+
+    /**
+     * Creates a setup for another content image, such as a tile of this one, which shares this setup's measured style
+     * targets and segment assignment, which are read-only once measured, but has its own content target.
+     *
+     * @param style the style setup holding the new content image
+     * @return the new setup, awaiting {@link SegmentedStyleTransfer#measureContent}
+     */
+    @Nonnull
+    public NeuralSetup<T> withContent(final StyleSetup<T> style) {
+      NeuralSetup<T> setup = new NeuralSetup<>(style);
+      setup.styleTargets = styleTargets;
+      setup.segmentAssignment = segmentAssignment;
+      return setup;
+    }
   }
 }
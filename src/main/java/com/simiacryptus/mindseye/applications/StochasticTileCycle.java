@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.simiacryptus.mindseye.layers.cudnn.ImgTileCycleLayer;
+import com.simiacryptus.mindseye.network.PipelineNetwork;
+import com.simiacryptus.mindseye.opt.Step;
+import com.simiacryptus.mindseye.opt.TrainingMonitor;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+
+/**
+ * A single-pass alternative to {@link ArtistryUtil#tileCycle(PipelineNetwork, int)}. Rather than averaging the loss
+ * over several fixed toroidal shifts of the canvas on every evaluation, the wrapped network sees one shift, which is
+ * redrawn from a seeded generator after each completed training step. Every evaluation within a step, including all of
+ * its line search, therefore sees the same objective, while seams are suppressed in expectation across steps at the
+ * cost of one network pass per evaluation.
+ */
+public class StochasticTileCycle {
+  @Nonnull
+  private final PipelineNetwork network;
+  @Nonnull
+  private final ImgTileCycleLayer cycle;
+  @Nonnull
+  private final Random random;
+
+  /**
+   * @param network the loss network, which is not consumed
+   * @param seed    the seed of the offset sequence
+   */
+  public StochasticTileCycle(@Nonnull final PipelineNetwork network, final long seed) {
+    this.random = new Random(seed);
+    this.cycle = new ImgTileCycleLayer();
+    this.network = new PipelineNetwork(1);
+    this.network.wrap(network, this.network.wrap(cycle, this.network.getInput(0))).freeRef();
+    shift();
+  }
+
+  /**
+   * @return the wrapped network, which evaluates the loss at the current offset
+   */
+  @Nonnull
+  public PipelineNetwork getNetwork() {
+    return network;
+  }
+
+  /**
+   * Draws a new toroidal offset, as fractions of the canvas width and height.
+   *
+   * @return this
+   */
+  @Nonnull
+  public synchronized StochasticTileCycle shift() {
+    cycle.setXPos(random.nextDouble()).setYPos(random.nextDouble());
+    return this;
+  }
+
+  /**
+   * Wraps a training monitor so that the offset is redrawn after each completed step.
+   *
+   * @param monitor the monitor to delegate to
+   * @return the wrapping monitor
+   */
+  @Nonnull
+  public TrainingMonitor monitor(@Nonnull final TrainingMonitor monitor) {
+    return new TrainingMonitor() {
+      @Override
+      public void log(final String msg) {
+        monitor.log(msg);
+      }
+
+      @Override
+      public void onStepComplete(final Step currentPoint) {
+        monitor.onStepComplete(currentPoint);
+        shift();
+      }
+    };
+  }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.cudnn.Precision;
+import com.simiacryptus.mindseye.models.LayerEnum;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A content-addressed disk cache of per-stratum style statistics (mean, cov0 and cov1). Entries are keyed by a hash of
+ * the style image pixels, its resolution, the model, the stratum, the precision and a measurement variant string, and
+ * are stored as a small header followed by raw little-endian floats, which are copied into new tensors when read. No
+ * cache is installed by default; callers opt in with setStyleCache on the style transfer and texture classes.
+ */
+public class StyleCache {
+  private static final Logger log = LoggerFactory.getLogger(StyleCache.class);
+  private static final int MAGIC = 0x53545931;
+
+  @Nonnull
+  private final File cacheDir;
+
+  public StyleCache(@Nonnull final File cacheDir) {
+    this.cacheDir = cacheDir;
+  }
+
+  /**
+   * Hashes the pixel data and dimensions of an image.
+   *
+   * @param image the image
+   * @return a hex digest
+   */
+  @Nonnull
+  public static String hash(@Nonnull final Tensor image) {
+    MessageDigest digest = digest();
+    double[] data = image.getData();
+    ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES * 4096);
+    for (int dim : image.getDimensions()) buffer.putInt(dim);
+    for (double v : data) {
+      if (!buffer.hasRemaining()) {
+        digest.update(buffer.array(), 0, buffer.position());
+        buffer.clear();
+      }
+      buffer.putDouble(v);
+    }
+    digest.update(buffer.array(), 0, buffer.position());
+    return hex(digest.digest());
+  }
+
+  @Nonnull
+  private static MessageDigest digest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Nonnull
+  private static String hex(@Nonnull final byte[] bytes) {
+    @Nonnull StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) sb.append(String.format("%02x", b));
+    return sb.toString();
+  }
+
+  /**
+   * Builds the cache key for one stratum of one style image.
+   *
+   * @param imageHash  the image hash from {@link #hash(Tensor)}
+   * @param dimensions the image dimensions
+   * @param model      the model name
+   * @param layer      the stratum
+   * @param precision  the precision used for measurement
+   * @param variant    a description of the measurement method, e.g. its tile size
+   * @return the key
+   */
+  @Nonnull
+  public static String key(
+      @Nonnull final CharSequence imageHash,
+      @Nonnull final int[] dimensions,
+      @Nonnull final CharSequence model,
+      @Nonnull final LayerEnum<?> layer,
+      @Nonnull final Precision precision,
+      @Nonnull final CharSequence variant
+  ) {
+    String description = String.format("%s;%s;%s;%s;%s;%s", imageHash, Arrays.toString(dimensions), model, layer.name(), precision, variant);
+    return String.format("%s_%dx%d_%s", layer.name(), dimensions[0], dimensions[1],
+        hex(digest().digest(description.getBytes(StandardCharsets.UTF_8))).substring(0, 24));
+  }
+
+  /**
+   * Loads a cached entry into the given style maps.
+   *
+   * @param key        the key
+   * @param layer      the stratum to populate
+   * @param covariance whether cov0 and cov1 are required
+   * @param mean       the mean map
+   * @param cov0       the raw Gram map
+   * @param cov1       the centered Gram map
+   * @return true if the entry was found and complete
+   */
+  public <T> boolean load(
+      @Nonnull final String key,
+      @Nonnull final T layer,
+      final boolean covariance,
+      @Nonnull final Map<T, Tensor> mean,
+      @Nonnull final Map<T, Tensor> cov0,
+      @Nonnull final Map<T, Tensor> cov1
+  ) {
+    @Nullable Map<String, Tensor> tensors = read(new File(cacheDir, key + ".bin"));
+    if (null == tensors) return false;
+    if (!tensors.containsKey("mean") || covariance && (!tensors.containsKey("cov0") || !tensors.containsKey("cov1"))) {
+      tensors.values().forEach(Tensor::freeRef);
+      return false;
+    }
+    log.info(String.format("Style cache hit: %s", key));
+    mean.put(layer, tensors.remove("mean"));
+    if (tensors.containsKey("cov0")) cov0.put(layer, tensors.remove("cov0"));
+    if (tensors.containsKey("cov1")) cov1.put(layer, tensors.remove("cov1"));
+    tensors.values().forEach(Tensor::freeRef);
+    return true;
+  }
+
+  /**
+   * Stores whichever of mean, cov0 and cov1 are present for the given stratum.
+   *
+   * @param key   the key
+   * @param layer the stratum
+   * @param mean  the mean map
+   * @param cov0  the raw Gram map
+   * @param cov1  the centered Gram map
+   */
+  public <T> void store(
+      @Nonnull final String key,
+      @Nonnull final T layer,
+      @Nonnull final Map<T, Tensor> mean,
+      @Nonnull final Map<T, Tensor> cov0,
+      @Nonnull final Map<T, Tensor> cov1
+  ) {
+    @Nonnull Map<String, Tensor> tensors = new LinkedHashMap<>();
+    if (mean.containsKey(layer)) tensors.put("mean", mean.get(layer));
+    if (cov0.containsKey(layer)) tensors.put("cov0", cov0.get(layer));
+    if (cov1.containsKey(layer)) tensors.put("cov1", cov1.get(layer));
+    if (!tensors.containsKey("mean")) return;
+    write(new File(cacheDir, key + ".bin"), tensors);
+  }
+
+  @Nullable
+  private Map<String, Tensor> read(@Nonnull final File file) {
+    if (!file.exists()) return null;
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+      if (MAGIC != buffer.getInt()) throw new IOException("Bad header");
+      int count = buffer.getInt();
+      @Nonnull Map<String, Tensor> tensors = new LinkedHashMap<>();
+      for (int i = 0; i < count; i++) {
+        byte[] name = new byte[buffer.getInt()];
+        buffer.get(name);
+        int[] dims = new int[buffer.getInt()];
+        for (int d = 0; d < dims.length; d++) dims[d] = buffer.getInt();
+        double[] data = new double[Tensor.length(dims)];
+        for (int j = 0; j < data.length; j++) data[j] = buffer.getFloat();
+        tensors.put(new String(name, StandardCharsets.UTF_8), new Tensor(data, dims));
+      }
+      return tensors;
+    } catch (Throwable e) {
+      log.warn(String.format("Error reading style cache %s", file), e);
+      return null;
+    }
+  }
+
+  private void write(@Nonnull final File file, @Nonnull final Map<String, Tensor> tensors) {
+    try {
+      cacheDir.mkdirs();
+      File tmp = File.createTempFile(file.getName(), ".tmp", cacheDir);
+      try {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+          ByteBuffer word = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+          writeInt(out, word, MAGIC);
+          writeInt(out, word, tensors.size());
+          for (Map.Entry<String, Tensor> entry : tensors.entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            writeInt(out, word, name.length);
+            out.write(name);
+            int[] dims = entry.getValue().getDimensions();
+            writeInt(out, word, dims.length);
+            for (int dim : dims) writeInt(out, word, dim);
+            for (double v : entry.getValue().getData()) {
+              word.clear();
+              word.putFloat((float) v);
+              out.write(word.array());
+            }
+          }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        tmp.delete();
+      }
+    } catch (IOException e) {
+      log.warn(String.format("Error writing style cache %s", file), e);
+    }
+  }
+
+  private static void writeInt(@Nonnull final DataOutputStream out, @Nonnull final ByteBuffer word, final int value) throws IOException {
+    word.clear();
+    word.putInt(value);
+    out.write(word.array());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("StyleCache{%s}", cacheDir);
+  }
+}
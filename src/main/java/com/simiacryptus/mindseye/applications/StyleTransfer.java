@@ -29,7 +29,6 @@ import com.simiacryptus.mindseye.lang.cudnn.MultiPrecision;
 import com.simiacryptus.mindseye.lang.cudnn.Precision;
 import com.simiacryptus.mindseye.layers.cudnn.*;
 import com.simiacryptus.mindseye.models.*;
-import com.simiacryptus.mindseye.network.DAGNetwork;
 import com.simiacryptus.mindseye.network.DAGNode;
 import com.simiacryptus.mindseye.network.InnerNode;
 import com.simiacryptus.mindseye.network.PipelineNetwork;
@@ -52,6 +51,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.Closeable;
@@ -67,6 +67,8 @@ public abstract class StyleTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
   private static final Logger logger = LoggerFactory.getLogger(StyleTransfer.class);
   public boolean parallelLossFunctions = true;
   private boolean tiled = false;
+  @Nullable
+  private StyleCache styleCache;
 
   public Tensor transfer(final Tensor canvasImage, final StyleSetup<T> styleParameters, final int trainingMinutes, final NeuralSetup measureStyle) {
     return transfer(new NullNotebookOutput(), canvasImage, styleParameters, trainingMinutes, measureStyle, 50, true);
@@ -186,6 +188,67 @@ public abstract class StyleTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
     }
   }
 
+  /**
+   * Optimizes one canvas per sweep cell as a single batch, sharing one measurement of the style and content and one
+   * network. The cells may differ in the values of their style and content coefficients, but not in which are nonzero.
+   * All cells share one trainer; see {@link BatchedSweep}.
+   *
+   * @param setups          the coefficients of each cell
+   * @param measureStyle    the style and content targets, shared by every cell
+   * @param canvases        one canvas per cell, optimized in place
+   * @param trainingMinutes the time budget per cell; the batch runs for this times the number of cells
+   * @return the canvases
+   */
+  public List<Tensor> transfer(
+      @Nonnull final NotebookOutput log,
+      final List<StyleSetup<T>> setups,
+      final NeuralSetup measureStyle,
+      final List<Tensor> canvases,
+      final int trainingMinutes,
+      final int maxIterations,
+      final boolean verbose
+  ) {
+    if (setups.size() != canvases.size()) {
+      throw new IllegalArgumentException(String.format("%d setups for %d canvases", setups.size(), canvases.size()));
+    }
+    System.gc();
+    NotebookOutput trainingLog = verbose ? log : new NullNotebookOutput();
+    Trainable trainable = trainingLog.eval(() -> {
+      PipelineNetwork network = fitnessNetwork(measureStyle, setups);
+      network.setFrozen(true);
+      TestUtil.instrumentPerformance(network);
+      final FileHTTPD server = log.getHttpd();
+      if (null != server) ArtistryUtil.addLayersHandler(network, server);
+      if (tiled) network = ArtistryUtil.tileCycle(network, 3);
+      Trainable trainable1 = BatchedSweep.getTrainable(network, canvases);
+      network.freeRef();
+      return trainable1;
+    });
+    try {
+      @Nonnull ArrayList<StepRecord> history = new ArrayList<>();
+      trainingLog.eval(() -> {
+        new IterativeTrainer(trainable)
+            .setMonitor(TestUtil.getMonitor(history))
+            .setOrientation(new TrustRegionStrategy() {
+              @Override
+              public TrustRegion getRegionPolicy(final Layer layer) {
+                return new RangeConstraint().setMin(1e-2).setMax(256);
+              }
+            })
+            .setMaxIterations(maxIterations)
+            .setIterationsPerSample(100)
+            .setLineSearchFactory(name -> new BisectionSearch().setSpanTol(1e-1).setCurrentRate(1e6))
+            .setTimeout(trainingMinutes * canvases.size(), TimeUnit.MINUTES)
+            .setTerminateThreshold(Double.NEGATIVE_INFINITY)
+            .runAndFree();
+        return TestUtil.plot(history);
+      });
+    } finally {
+      trainable.freeRef();
+    }
+    return canvases;
+  }
+
   @Nonnull
   public Trainable getTrainable(final Tensor canvas, final PipelineNetwork network) {
     return new ArrayTrainable(network, 1).setVerbose(true).setMask(true).setData(Arrays.asList(new Tensor[][]{{canvas}}));
@@ -235,13 +298,7 @@ public abstract class StyleTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
           assert 0 < inputBands : Arrays.toString(mean.getDimensions());
           int outputBands = covDim[2] / inputBands;
           assert 0 < outputBands : Arrays.toString(covDim) + " / " + inputBands;
-          double covScale = 0 == covRms ? 1 : (1.0 / covRms);
-          styleComponents.add(new Tuple2<>(styleParams.cov, network.wrap(
-              new MeanSqLossLayer().setAlpha(covScale),
-              network.wrap(new ValueLayer(covariance), new DAGNode[]{}),
-              network.wrap(new GramianLayer(), recentered)
-          )
-          ));
+          styleComponents.add(new Tuple2<>(styleParams.cov, LowRankGram.loss(network, recentered, covariance, styleParams.rank)));
         }
       }
       if (styleParams.mean != 0) {
@@ -262,13 +319,12 @@ public abstract class StyleTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
       self.styleTargets.put(keyList.get(i), new StyleTarget<>());
     });
     self.contentTarget = new ContentTarget<>();
-    for (final T layerType : getLayerTypes()) {
-      System.gc();
-      Layer network = layerType.network();
-      try {
-        MultiPrecision.setPrecision((DAGNetwork) network, style.precision);
-        //network = new ImgTileSubnetLayer(network, 400,400,400,400);
-        Tensor content = network.eval(style.contentImage).getDataAndFree().getAndFree(0);
+    List<T> layerTypes = Arrays.asList(getLayerTypes());
+    StrataEvaluator<T> evaluator = getInstance().getEvaluator(layerTypes).setPrecision(style.precision);
+    try {
+      Map<T, Tensor> contentMap = evaluator.eval(style.contentImage);
+      for (final T layerType : layerTypes) {
+        Tensor content = contentMap.get(layerType);
         self.contentTarget.content.put(layerType, content);
         logger.info(String.format("%s : target content = %s", layerType.name(), content.prettyPrint()));
         logger.info(String.format(
@@ -276,60 +332,118 @@ public abstract class StyleTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
             layerType.name(),
             JsonUtil.toJson(new ScalarStatistics().add(content.getData()).getMetrics())
         ));
-        for (int i = 0; i < styleInputs.size(); i++) {
-          Tensor styleInput = styleInputs.get(i);
-          CharSequence key = keyList.get(i);
-          StyleTarget<T> styleTarget = self.styleTargets.get(key);
-          if (0 == self.style.styles.entrySet().stream().filter(e1 -> e1.getKey().contains(key)).map(x -> x.getValue().params.get(
-              layerType)).filter(x -> null != x).filter(x -> x.mean != 0 || x.cov != 0).count())
-            continue;
-          System.gc();
-          Layer wrapAvg = ArtistryUtil.wrapTiledAvg(network.copy(), 400);
-          Tensor mean = wrapAvg.eval(styleInput).getDataAndFree().getAndFree(0);
-          wrapAvg.freeRef();
-          styleTarget.mean.put(layerType, mean);
-          logger.info(String.format("%s : style mean = %s", layerType.name(), mean.prettyPrint()));
-          logger.info(String.format(
-              "%s : mean statistics = %s",
-              layerType.name(),
-              JsonUtil.toJson(new ScalarStatistics().add(mean.getData()).getMetrics())
-          ));
-          if (0 == self.style.styles.entrySet().stream().filter(e1 -> e1.getKey().contains(key)).map(x -> x.getValue().params.get(
-              layerType)).filter(x -> null != x).filter(x -> x.cov != 0).count())
-            continue;
-          System.gc();
-          Layer gram = ArtistryUtil.wrapTiledAvg(ArtistryUtil.gram(network.copy()), 400);
-          Tensor cov0 = gram.eval(styleInput).getDataAndFree().getAndFree(0);
-          gram.freeRef();
-          gram = ArtistryUtil.wrapTiledAvg(ArtistryUtil.gram(network.copy(), mean), 400);
-          Tensor cov1 = gram.eval(styleInput).getDataAndFree().getAndFree(0);
-          gram.freeRef();
-          styleTarget.cov0.put(layerType, cov0);
-          styleTarget.cov1.put(layerType, cov1);
-          int featureBands = mean.getDimensions()[2];
-          int covarianceElements = cov1.getDimensions()[2];
-          int selectedBands = covarianceElements / featureBands;
-          logger.info(String.format("%s : target cov0 = %s", layerType.name(), cov0.reshapeCast(featureBands, selectedBands, 1).prettyPrint()));
-          logger.info(String.format(
-              "%s : cov0 statistics = %s",
-              layerType.name(),
-              JsonUtil.toJson(new ScalarStatistics().add(cov0.getData()).getMetrics())
-          ));
-          logger.info(String.format("%s : target cov1 = %s", layerType.name(), cov1.reshapeCast(featureBands, selectedBands, 1).prettyPrint()));
-          logger.info(String.format(
-              "%s : cov1 statistics = %s",
-              layerType.name(),
-              JsonUtil.toJson(new ScalarStatistics().add(cov1.getData()).getMetrics())
-          ));
+      }
+      for (int i = 0; i < styleInputs.size(); i++) {
+        Tensor styleInput = styleInputs.get(i);
+        CharSequence key = keyList.get(i);
+        StyleTarget<T> styleTarget = self.styleTargets.get(key);
+        Map<T, FeatureStatistics> statistics = new LinkedHashMap<>();
+        Map<T, String> cacheKeys = new HashMap<>();
+        String imageHash = null == styleCache ? null : StyleCache.hash(styleInput);
+        for (final T layerType : layerTypes) {
+          List<LayerStyleParams> params = self.style.styles.entrySet().stream().filter(e1 -> e1.getKey().contains(key)).map(x -> x.getValue().params.get(
+              layerType)).filter(x -> null != x).collect(Collectors.toList());
+          if (params.stream().anyMatch(x -> x.mean != 0 || x.cov != 0)) {
+            boolean covariance = params.stream().anyMatch(x -> x.cov != 0);
+            if (null != styleCache) {
+              String cacheKey = StyleCache.key(imageHash, styleInput.getDimensions(), getInstance().getClass().getSimpleName(),
+                  layerType, style.precision, "StyleTransfer;tile=400;exact");
+              if (styleCache.load(cacheKey, layerType, covariance, styleTarget.mean, styleTarget.cov0, styleTarget.cov1)) continue;
+              cacheKeys.put(layerType, cacheKey);
+            }
+            statistics.put(layerType, new FeatureStatistics(covariance));
+          }
+        }
+        if (statistics.isEmpty()) continue;
+        for (Tensor tile : exactTiles(styleInput, 400)) {
+          evaluator.eval(tile).forEach((layerType, featureMap) -> {
+            FeatureStatistics layerStatistics = statistics.get(layerType);
+            if (null != layerStatistics) layerStatistics.add(featureMap);
+            featureMap.freeRef();
+          });
+          tile.freeRef();
         }
-      } finally {
-        network.freeRef();
+        statistics.forEach((layerType, layerStatistics) -> {
+          setStyleTarget(styleTarget, layerType, layerStatistics);
+          String cacheKey = cacheKeys.get(layerType);
+          if (null != cacheKey) styleCache.store(cacheKey, layerType, styleTarget.mean, styleTarget.cov0, styleTarget.cov1);
+        });
       }
+    } finally {
+      evaluator.freeRef();
     }
     style.contentImage.freeRef();
     return self;
   }
 
+  /**
+   * Partitions an image into a grid of tiles no larger than maxSize that cover it exactly, without padding, so that
+   * statistics accumulated over the tiles count every pixel once and no fill pixels. Tile sides differ by at most one
+   * pixel.
+   *
+   * @param image   a [width, height, bands] image
+   * @param maxSize the maximum tile side
+   * @return the tiles, in row-major order
+   */
+  @Nonnull
+  static Tensor[] exactTiles(@Nonnull final Tensor image, final int maxSize) {
+    int[] dimensions = image.getDimensions();
+    int width = dimensions[0];
+    int height = dimensions[1];
+    int bands = dimensions[2];
+    int cols = (width + maxSize - 1) / maxSize;
+    int rows = (height + maxSize - 1) / maxSize;
+    double[] data = image.getData();
+    Tensor[] tiles = new Tensor[cols * rows];
+    for (int row = 0; row < rows; row++) {
+      int y0 = row * height / rows;
+      int tileHeight = (row + 1) * height / rows - y0;
+      for (int col = 0; col < cols; col++) {
+        int x0 = col * width / cols;
+        int tileWidth = (col + 1) * width / cols - x0;
+        double[] tileData = new double[tileWidth * tileHeight * bands];
+        for (int band = 0; band < bands; band++) {
+          for (int y = 0; y < tileHeight; y++) {
+            System.arraycopy(data, x0 + width * (y0 + y + height * band), tileData, tileWidth * (y + tileHeight * band), tileWidth);
+          }
+        }
+        tiles[row * cols + col] = new Tensor(tileData, tileWidth, tileHeight, bands);
+      }
+    }
+    return tiles;
+  }
+
+  private void setStyleTarget(final StyleTarget<T> styleTarget, final T layerType, final FeatureStatistics statistics) {
+    Tensor mean = statistics.getMean();
+    styleTarget.mean.put(layerType, mean);
+    logger.info(String.format("%s : style mean = %s", layerType.name(), mean.prettyPrint()));
+    logger.info(String.format(
+        "%s : mean statistics = %s",
+        layerType.name(),
+        JsonUtil.toJson(new ScalarStatistics().add(mean.getData()).getMetrics())
+    ));
+    if (!statistics.isCovariance()) return;
+    Tensor cov0 = statistics.getGram();
+    Tensor cov1 = statistics.getCenteredGram();
+    styleTarget.cov0.put(layerType, cov0);
+    styleTarget.cov1.put(layerType, cov1);
+    int featureBands = mean.getDimensions()[2];
+    int covarianceElements = cov1.getDimensions()[2];
+    int selectedBands = covarianceElements / featureBands;
+    logger.info(String.format("%s : target cov0 = %s", layerType.name(), cov0.reshapeCast(featureBands, selectedBands, 1).prettyPrint()));
+    logger.info(String.format(
+        "%s : cov0 statistics = %s",
+        layerType.name(),
+        JsonUtil.toJson(new ScalarStatistics().add(cov0.getData()).getMetrics())
+    ));
+    logger.info(String.format("%s : target cov1 = %s", layerType.name(), cov1.reshapeCast(featureBands, selectedBands, 1).prettyPrint()));
+    logger.info(String.format(
+        "%s : cov1 statistics = %s",
+        layerType.name(),
+        JsonUtil.toJson(new ScalarStatistics().add(cov1.getData()).getMetrics())
+    ));
+  }
+
   @Nonnull
   public List<Tuple2<Double, DAGNode>> getFitnessComponents(NeuralSetup setup, final Map<T, DAGNode> nodeMap) {
     List<Tuple2<Double, DAGNode>> functions = new ArrayList<>();
@@ -396,6 +510,73 @@ public abstract class StyleTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
     return network;
   }
 
+  /**
+   * Builds one network scoring row n of a batch with the coefficients of setups.get(n), which must pass
+   * {@link #checkSweep(List)}.
+   *
+   * @param setup  the measured targets
+   * @param setups the coefficients of each row
+   * @return the network
+   */
+  @Nonnull
+  public PipelineNetwork fitnessNetwork(NeuralSetup setup, List<StyleSetup<T>> setups) {
+    checkSweep(setups);
+    List<double[]> weights = setups.stream().map(style -> {
+      NeuralSetup cell = withStyle(setup, style);
+      return BatchedSweep.coefficients(getLayerTypes(), nodeMap -> getFitnessComponents(cell, nodeMap));
+    }).collect(Collectors.toList());
+    PipelineNetwork pipelineNetwork = getInstance().getNetwork();
+    Map<T, DAGNode> nodes = new HashMap<>();
+    Map<T, UUID> ids = getInstance().getNodes();
+    ids.forEach((l, id) -> nodes.put(l, pipelineNetwork.getChildNode(id)));
+    List<Tuple2<Double, DAGNode>> functions = getFitnessComponents(withStyle(setup, setups.get(0)), nodes);
+    PipelineNetwork network = BatchedSweep.reduce(pipelineNetwork, functions, weights, parallelLossFunctions);
+    MultiPrecision.setPrecision(network, setup.style.precision);
+    return network;
+  }
+
+  /**
+   * Checks that the cells of a batched sweep share their nonzero (layer, term) pairs, as the style measured from the
+   * first cell and the loss heads built from it require.
+   *
+   * @param setups the coefficients of each cell
+   * @throws IllegalArgumentException if they differ
+   */
+  public void checkSweep(@Nonnull final List<StyleSetup<T>> setups) {
+    BatchedSweep.checkTerms(setups, this::getLossTerms);
+  }
+
+  /**
+   * @return the nonzero (layer, term) pairs of a setup, keyed also by what changes the term's loss head
+   */
+  @Nonnull
+  private Set<String> getLossTerms(@Nonnull final StyleSetup<T> style) {
+    Set<String> terms = new TreeSet<>();
+    for (final T layerType : getLayerTypes()) {
+      Double coeff = style.content.params.get(layerType);
+      if (null != coeff && 0 != coeff) terms.add(layerType + ":content");
+    }
+    style.styles.forEach((keys, coefficients) -> {
+      for (final T layerType : getLayerTypes()) {
+        LayerStyleParams params = coefficients.params.get(layerType);
+        if (null == params || (params.cov == 0 && params.mean == 0)) continue;
+        String prefix = keys + ":" + layerType + ":";
+        if (params.enhance != 0) terms.add(prefix + "enhance:" + coefficients.centeringMode);
+        if (params.cov != 0) terms.add(prefix + "cov:" + coefficients.centeringMode + ":rank=" + params.rank);
+        if (params.mean != 0) terms.add(prefix + "mean");
+      }
+    });
+    return terms;
+  }
+
+  @Nonnull
+  private NeuralSetup withStyle(final NeuralSetup setup, final StyleSetup<T> style) {
+    NeuralSetup cell = new NeuralSetup(style);
+    cell.contentTarget = setup.contentTarget;
+    cell.styleTargets = setup.styleTargets;
+    return cell;
+  }
+
   @Nonnull
   public abstract T[] getLayerTypes();
 
@@ -433,6 +614,20 @@ public abstract class StyleTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
     return this;
   }
 
+  @Nullable
+  public StyleCache getStyleCache() {
+    return styleCache;
+  }
+
+  /**
+   * @param styleCache the cache of measured style statistics, or null to always measure
+   * @return this
+   */
+  public StyleTransfer<T, U> setStyleCache(@Nullable StyleCache styleCache) {
+    this.styleCache = styleCache;
+    return this;
+  }
+
   public enum CenteringMode {
     Dynamic,
     Static,
@@ -493,10 +688,20 @@ public abstract class StyleTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
     public final double cov;
     private final double enhance;
 
+    /**
+     * The number of principal components of the style covariance kept by the Gram loss, or 0 for all bands.
+     */
+    public final int rank;
+
     public LayerStyleParams(final double mean, final double cov, final double enhance) {
+      this(mean, cov, enhance, 0);
+    }
+
+    public LayerStyleParams(final double mean, final double cov, final double enhance, final int rank) {
       this.mean = mean;
       this.cov = cov;
       this.enhance = enhance;
+      this.rank = rank;
     }
   }
 
@@ -543,7 +748,14 @@ public abstract class StyleTransfer<T extends LayerEnum<T>, U extends CVPipe<T>>
     }
 
     public StyleCoefficients<T> set(final T layerType, final double coeff_style_mean, final double coeff_style_cov, final double dream) {
-      params.put(layerType, new LayerStyleParams(coeff_style_mean, coeff_style_cov, dream));
+      return set(layerType, coeff_style_mean, coeff_style_cov, dream, 0);
+    }
+
+    /**
+     * @param rank the number of principal components kept by the Gram loss of this layer, or 0 for all bands
+     */
+    public StyleCoefficients<T> set(final T layerType, final double coeff_style_mean, final double coeff_style_cov, final double dream, final int rank) {
+      params.put(layerType, new LayerStyleParams(coeff_style_mean, coeff_style_cov, dream, rank));
       return this;
     }
 
@@ -50,6 +50,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.Closeable;
@@ -67,6 +68,10 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
   private static final Logger logger = LoggerFactory.getLogger(TextureGeneration.class);
   public boolean parallelLossFunctions = true;
   private int tiling = 0;
+  private boolean stochasticTiling = false;
+  private long tilingSeed = 0;
+  @Nullable
+  private StyleCache styleCache;
 
   public TextureGeneration() {
     tiling = 3;
@@ -146,6 +151,28 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
       final boolean verbose,
       final Precision precision,
       final int tiling
+  ) {
+    return optimize(log, network, workingImage, trainingMinutes, maxIterations, verbose, precision, tiling, false, 0);
+  }
+
+  /**
+   * @param tiling           the number of toroidal shifts to average over, or with stochastic tiling, any value above 1
+   *                         to enable it
+   * @param stochasticTiling whether to evaluate one randomly shifted copy per step via {@link StochasticTileCycle}
+   *                         rather than every shift on every evaluation
+   * @param tilingSeed       the seed of the stochastic shifts
+   */
+  public static Tensor optimize(
+      @Nonnull final NotebookOutput log,
+      final PipelineNetwork network,
+      final Tensor workingImage,
+      final int trainingMinutes,
+      final int maxIterations,
+      final boolean verbose,
+      final Precision precision,
+      final int tiling,
+      final boolean stochasticTiling,
+      final long tilingSeed
   ) {
     return ArtistryUtil.logExceptionWithDefault(log, () -> {
       System.gc();
@@ -163,11 +190,18 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
       TestUtil.instrumentPerformance(frozen);
       final FileHTTPD server = log.getHttpd();
       if (null != server) ArtistryUtil.addLayersHandler(frozen, server);
-      if (tiling > 1) frozen = ArtistryUtil.tileCycle(frozen, tiling);
+      StochasticTileCycle cycle = null;
+      if (tiling > 1 && stochasticTiling) {
+        cycle = new StochasticTileCycle(frozen, tilingSeed);
+        frozen = cycle.getNetwork();
+      } else if (tiling > 1) {
+        frozen = ArtistryUtil.tileCycle(frozen, tiling);
+      }
       try {
         PipelineNetwork finalFrozen = frozen;
+        StochasticTileCycle finalCycle = cycle;
         log.subreport(sublog -> {
-          train(sublog, workingImage, finalFrozen, trainingMinutes, maxIterations, precision);
+          train(sublog, workingImage, finalFrozen, trainingMinutes, maxIterations, precision, finalCycle);
           return null;
         }, log.getName() + "_" + "_training_" + UUID.randomUUID().toString());
       } finally {
@@ -189,6 +223,34 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
       final int trainingMinutes,
       final int maxIterations,
       Precision precision) {
+    train(log, canvas, network, trainingMinutes, maxIterations, precision, null);
+  }
+
+  /**
+   * @param cycle the stochastic shift wrapped around the network, if any, which is advanced after each step
+   */
+  public static void train(
+      @Nonnull final NotebookOutput log,
+      final Tensor canvas,
+      final PipelineNetwork network,
+      final int trainingMinutes,
+      final int maxIterations,
+      Precision precision,
+      @Nullable final StochasticTileCycle cycle) {
+    train(log, Arrays.asList(canvas), network, trainingMinutes, maxIterations, precision, cycle);
+  }
+
+  /**
+   * @param canvases the canvases, evaluated together as one batch
+   */
+  public static void train(
+      @Nonnull final NotebookOutput log,
+      final List<Tensor> canvases,
+      final PipelineNetwork network,
+      final int trainingMinutes,
+      final int maxIterations,
+      Precision precision,
+      @Nullable final StochasticTileCycle cycle) {
     MultiPrecision.setPrecision(network, precision);
     @Nonnull ArrayList<StepRecord> history = new ArrayList<>();
     String training_name = String.format("etc/training_%s.png", Long.toHexString(MarkdownNotebookOutput.random.nextLong()));
@@ -201,9 +263,9 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
       }
     });
     log.run(() -> {
-      Trainable trainable = getTrainable(network, canvas);
+      Trainable trainable = BatchedSweep.getTrainable(network, canvases);
       new IterativeTrainer(trainable)
-          .setMonitor(TestUtil.getMonitor(history))
+          .setMonitor(null == cycle ? TestUtil.getMonitor(history) : cycle.monitor(TestUtil.getMonitor(history)))
           .setOrientation(new TrustRegionStrategy() {
             @Override
             public TrustRegion getRegionPolicy(final Layer layer) {
@@ -254,7 +316,53 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
       final boolean verbose,
       final Precision precision
   ) {
-    return optimize(log, fitnessNetwork(measureStyle), canvasImage, trainingMinutes, maxIterations, verbose, precision, tiling);
+    return optimize(log, fitnessNetwork(measureStyle), canvasImage, trainingMinutes, maxIterations, verbose, precision, tiling,
+        stochasticTiling, tilingSeed);
+  }
+
+  /**
+   * Optimizes one canvas per sweep cell as a single batch, sharing one measurement of the style and one network. The
+   * cells may differ in the values of their style coefficients, but not in which are nonzero. All cells share one
+   * trainer; see {@link BatchedSweep}.
+   *
+   * @param setups          the coefficients of each cell
+   * @param canvases        one canvas per cell, optimized in place
+   * @param trainingMinutes the time budget per cell; the batch runs for this times the number of cells
+   * @return the canvases
+   */
+  public List<Tensor> optimize(
+      @Nonnull final NotebookOutput log,
+      final NeuralSetup<T> measureStyle,
+      final List<StyleSetup<T>> setups,
+      final List<Tensor> canvases,
+      final int trainingMinutes,
+      final int maxIterations,
+      final Precision precision
+  ) {
+    if (setups.size() != canvases.size()) {
+      throw new IllegalArgumentException(String.format("%d setups for %d canvases", setups.size(), canvases.size()));
+    }
+    return ArtistryUtil.logExceptionWithDefault(log, () -> {
+      System.gc();
+      PipelineNetwork frozen = (PipelineNetwork) fitnessNetwork(measureStyle, setups).setFrozen(true);
+      TestUtil.instrumentPerformance(frozen);
+      final FileHTTPD server = log.getHttpd();
+      if (null != server) ArtistryUtil.addLayersHandler(frozen, server);
+      StochasticTileCycle cycle = null;
+      if (tiling > 1 && stochasticTiling) {
+        cycle = new StochasticTileCycle(frozen, tilingSeed);
+        frozen = cycle.getNetwork();
+      } else if (tiling > 1) {
+        frozen = ArtistryUtil.tileCycle(frozen, tiling);
+      }
+      PipelineNetwork finalFrozen = frozen;
+      StochasticTileCycle finalCycle = cycle;
+      log.subreport(sublog -> {
+        train(sublog, canvases, finalFrozen, trainingMinutes * canvases.size(), maxIterations, precision, finalCycle);
+        return null;
+      }, log.getName() + "_" + "_batch_training_" + UUID.randomUUID().toString());
+      return canvases;
+    }, canvases);
   }
 
   @Nonnull
@@ -301,13 +409,7 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
           assert 0 < inputBands : Arrays.toString(mean.getDimensions());
           int outputBands = covDim[2] / inputBands;
           assert 0 < outputBands : Arrays.toString(covDim) + " / " + inputBands;
-          double covScale = 0 == covRms ? 1 : (1.0 / covRms);
-          styleComponents.add(new Tuple2<>(styleParams.cov, network.wrap(
-              new MeanSqLossLayer().setAlpha(covScale),
-              network.wrap(new ValueLayer(covariance), new DAGNode[]{}),
-              network.wrap(new GramianLayer(), recentered)
-          )
-          ));
+          styleComponents.add(new Tuple2<>(styleParams.cov, LowRankGram.loss(network, recentered, covariance, styleParams.rank)));
         }
       }
       if (styleParams.mean != 0) {
@@ -327,6 +429,7 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
     IntStream.range(0, keyList.size()).forEach(i -> {
       self.styleTargets.put(keyList.get(i), new StyleTarget<>());
     });
+    List<String> imageHashes = null == styleCache ? null : styleInputs.stream().map(StyleCache::hash).collect(Collectors.toList());
     for (final T layerType : getLayerTypes()) {
       System.gc();
       final PipelineNetwork network = layerType.network();
@@ -337,6 +440,13 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
         if (0 == self.style.styles.entrySet().stream().filter(e1 -> e1.getKey().contains(key)).map(x -> x.getValue().params.get(
             layerType)).filter(x -> null != x).filter(x -> x.mean != 0 || x.cov != 0).count())
           continue;
+        StyleTarget<T> styleTarget = self.styleTargets.get(key);
+        boolean covariance = 0 != self.style.styles.entrySet().stream().filter(e1 -> e1.getKey().contains(key)).map(x -> x.getValue().params.get(
+            layerType)).filter(x -> null != x).filter(x -> x.cov != 0).count();
+        String cacheKey = null == styleCache ? null : StyleCache.key(imageHashes.get(i), styleInput.getDimensions(),
+            getInstance().getClass().getSimpleName(), layerType, style.precision, "TextureGeneration;tile=600");
+        if (null != cacheKey && styleCache.load(cacheKey, layerType, covariance, styleTarget.mean, styleTarget.cov0, styleTarget.cov1))
+          continue;
         System.gc();
 
         Tensor mean;
@@ -353,12 +463,12 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
             layerType.name(),
             JsonUtil.toJson(new ScalarStatistics().add(mean.getData()).getMetrics())
         ));
-        StyleTarget<T> styleTarget = self.styleTargets.get(key);
         styleTarget.mean.put(layerType, mean);
 
-        if (0 == self.style.styles.entrySet().stream().filter(e1 -> e1.getKey().contains(key)).map(x -> x.getValue().params.get(
-            layerType)).filter(x -> null != x).filter(x -> x.cov != 0).count())
+        if (!covariance) {
+          if (null != cacheKey) styleCache.store(cacheKey, layerType, styleTarget.mean, styleTarget.cov0, styleTarget.cov1);
           continue;
+        }
 
         System.gc();
         Tensor cov0;
@@ -393,6 +503,7 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
         ));
         styleTarget.cov0.put(layerType, cov0);
         styleTarget.cov1.put(layerType, cov1);
+        if (null != cacheKey) styleCache.store(cacheKey, layerType, styleTarget.mean, styleTarget.cov0, styleTarget.cov1);
       }
     }
     return self;
@@ -449,6 +560,68 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
     return network;
   }
 
+  /**
+   * Builds one network scoring row n of a batch with the coefficients of setups.get(n), which must pass
+   * {@link #checkSweep(List)}.
+   *
+   * @param setup  the measured targets
+   * @param setups the coefficients of each row
+   * @return the network
+   */
+  @Nonnull
+  public PipelineNetwork fitnessNetwork(NeuralSetup<T> setup, List<StyleSetup<T>> setups) {
+    checkSweep(setups);
+    List<double[]> weights = setups.stream().map(style -> {
+      NeuralSetup<T> cell = withStyle(setup, style);
+      return BatchedSweep.coefficients(getLayerTypes(), nodeMap -> getFitnessComponents(cell, nodeMap));
+    }).collect(Collectors.toList());
+    PipelineNetwork pipelineNetwork = getInstance().getNetwork();
+    Map<T, DAGNode> nodes = new HashMap<>();
+    Map<T, UUID> ids = getInstance().getNodes();
+    ids.forEach((l, id) -> nodes.put(l, pipelineNetwork.getChildNode(id)));
+    List<Tuple2<Double, DAGNode>> functions = getFitnessComponents(withStyle(setup, setups.get(0)), nodes);
+    PipelineNetwork network = BatchedSweep.reduce(pipelineNetwork, functions, weights, parallelLossFunctions);
+    MultiPrecision.setPrecision(network, setup.style.precision);
+    return network;
+  }
+
+  /**
+   * Checks that the cells of a batched sweep share their nonzero (layer, term) pairs, as the style measured from the
+   * first cell and the loss heads built from it require.
+   *
+   * @param setups the coefficients of each cell
+   * @throws IllegalArgumentException if they differ
+   */
+  public void checkSweep(@Nonnull final List<StyleSetup<T>> setups) {
+    BatchedSweep.checkTerms(setups, this::getLossTerms);
+  }
+
+  /**
+   * @return the nonzero (layer, term) pairs of a setup, keyed also by what changes the term's loss head
+   */
+  @Nonnull
+  private Set<String> getLossTerms(@Nonnull final StyleSetup<T> style) {
+    Set<String> terms = new TreeSet<>();
+    style.styles.forEach((keys, coefficients) -> {
+      for (final T layerType : getLayerTypes()) {
+        LayerStyleParams params = coefficients.params.get(layerType);
+        if (null == params || (params.cov == 0 && params.mean == 0)) continue;
+        String prefix = keys + ":" + layerType + ":";
+        if (params.enhance != 0) terms.add(prefix + "enhance:" + coefficients.centeringMode);
+        if (params.cov != 0) terms.add(prefix + "cov:" + coefficients.centeringMode + ":rank=" + params.rank);
+        if (params.mean != 0) terms.add(prefix + "mean");
+      }
+    });
+    return terms;
+  }
+
+  @Nonnull
+  private NeuralSetup<T> withStyle(final NeuralSetup<T> setup, final StyleSetup<T> style) {
+    NeuralSetup<T> cell = new NeuralSetup<>(style);
+    cell.styleTargets = setup.styleTargets;
+    return cell;
+  }
+
   @Nonnull
   public abstract T[] getLayerTypes();
 
@@ -469,6 +642,43 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
     return this;
   }
 
+  public boolean isStochasticTiling() {
+    return stochasticTiling;
+  }
+
+  /**
+   * @param stochasticTiling whether tiling evaluates one random toroidal shift per step instead of all {@link #getTiling()}
+   *                         shifts per evaluation
+   * @return this
+   */
+  public TextureGeneration<T, U> setStochasticTiling(boolean stochasticTiling) {
+    this.stochasticTiling = stochasticTiling;
+    return this;
+  }
+
+  public long getTilingSeed() {
+    return tilingSeed;
+  }
+
+  public TextureGeneration<T, U> setTilingSeed(long tilingSeed) {
+    this.tilingSeed = tilingSeed;
+    return this;
+  }
+
+  @Nullable
+  public StyleCache getStyleCache() {
+    return styleCache;
+  }
+
+  /**
+   * @param styleCache the cache of measured style statistics, or null to always measure
+   * @return this
+   */
+  public TextureGeneration<T, U> setStyleCache(@Nullable StyleCache styleCache) {
+    this.styleCache = styleCache;
+    return this;
+  }
+
   public enum CenteringMode {
     Dynamic,
     Static,
@@ -519,10 +729,20 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
     public final double cov;
     public final double enhance;
 
+    /**
+     * The number of principal components of the style covariance kept by the Gram loss, or 0 for all bands.
+     */
+    public final int rank;
+
     public LayerStyleParams(final double mean, final double cov, final double enhance) {
+      this(mean, cov, enhance, 0);
+    }
+
+    public LayerStyleParams(final double mean, final double cov, final double enhance, final int rank) {
       this.mean = mean;
       this.cov = cov;
       this.enhance = enhance;
+      this.rank = rank;
     }
   }
 
@@ -567,7 +787,14 @@ public abstract class TextureGeneration<T extends LayerEnum<T>, U extends CVPipe
     }
 
     public StyleCoefficients<T> set(final T layerType, final double coeff_style_mean, final double coeff_style_cov, final double enhance) {
-      params.put(layerType, new LayerStyleParams(coeff_style_mean, coeff_style_cov, enhance));
+      return set(layerType, coeff_style_mean, coeff_style_cov, enhance, 0);
+    }
+
+    /**
+     * @param rank the number of principal components kept by the Gram loss of this layer, or 0 for all bands
+     */
+    public StyleCoefficients<T> set(final T layerType, final double coeff_style_mean, final double coeff_style_cov, final double enhance, final int rank) {
+      params.put(layerType, new LayerStyleParams(coeff_style_mean, coeff_style_cov, enhance, rank));
       return this;
     }
 
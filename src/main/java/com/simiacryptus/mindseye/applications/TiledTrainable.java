@@ -19,34 +19,46 @@
 
 package com.simiacryptus.mindseye.applications;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.simiacryptus.lang.ref.ReferenceCountingBase;
 import com.simiacryptus.mindseye.eval.ArrayTrainable;
 import com.simiacryptus.mindseye.eval.Trainable;
 import com.simiacryptus.mindseye.lang.*;
 import com.simiacryptus.mindseye.layers.PlaceholderLayer;
-import com.simiacryptus.mindseye.layers.java.ImgTileAssemblyLayer;
 import com.simiacryptus.mindseye.layers.java.ImgTileSelectLayer;
+import com.simiacryptus.mindseye.models.CVPipe;
 import com.simiacryptus.mindseye.network.PipelineNetwork;
 import com.simiacryptus.mindseye.opt.TrainingMonitor;
 import com.simiacryptus.notebook.NotebookOutput;
 import com.simiacryptus.notebook.NullNotebookOutput;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.*;
 
 public class TiledTrainable extends ReferenceCountingBase implements Trainable {
+  private static final ExecutorService TILE_POOL = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setDaemon(true).setNameFormat("tile-%d").build());
+  private static final Map<CVPipe<?>, Double> ACTIVATION_BYTES_PER_PIXEL = new ConcurrentHashMap<>();
+  private static final int PROBE_SIZE = 256;
+  private static final double ACTIVATION_FACTOR = 4.0;
   private final PipelineNetwork network;
   private final Tensor canvas;
-  private final int tileWidth = 600;
-  private final int tileHeight = 600;
-  private final int strideX = 600;
-  private final int strideY = 600;
+  private int tileWidth = 600;
+  private int tileHeight = 600;
+  private int strideX = 600;
+  private int strideY = 600;
+  private int adaptiveTileSize = 0;
   private final NotebookOutput log;
   private final int padding;
   private boolean verbose;
+  private int maxTilesInFlight = 1;
+  private ExecutorService executor = TILE_POOL;
 
   public TiledTrainable(final PipelineNetwork network, final Tensor canvas, final int padding, NotebookOutput log) {
     this.network = network;
@@ -61,11 +73,43 @@ public class TiledTrainable extends ReferenceCountingBase implements Trainable {
     this(network, canvas, padding, new NullNotebookOutput());
   }
 
+  /**
+   * Estimates the activation memory, in bytes per input pixel, of a full forward and backward pass through a CVPipe.
+   * Each stratum prototype is evaluated once on a probe image and the output sizes are summed; a constant factor
+   * accounts for the intermediate layers within each stratum and for the backward pass. Results are cached per pipe.
+   * <p>
+   * The first call for a pipe runs a full numeric forward pass of every prototype on a 256x256 image, which costs about
+   * as much as measuring a tile of that size; call it while configuring, not from inside a training loop.
+   *
+   * @param pipe the pipe
+   * @return the estimated bytes per pixel
+   */
+  public static double estimateBytesPerPixel(@Nonnull final CVPipe<?> pipe) {
+    return ACTIVATION_BYTES_PER_PIXEL.computeIfAbsent(pipe, p -> {
+      Tensor probe = new Tensor(PROBE_SIZE, PROBE_SIZE, 3);
+      try {
+        long elements = 0;
+        for (PipelineNetwork prototype : p.getPrototypes().values()) {
+          TensorList output = prototype.eval(probe).getDataAndFree();
+          elements += Tensor.length(output.getDimensions());
+          output.freeRef();
+        }
+        return ACTIVATION_FACTOR * Float.BYTES * elements / (PROBE_SIZE * PROBE_SIZE);
+      } finally {
+        probe.freeRef();
+      }
+    });
+  }
+
   @Override
   public PointSample measure(final TrainingMonitor monitor) {
     assert 3 == canvas.getDimensions().length;
     int width = canvas.getDimensions()[0];
     int height = canvas.getDimensions()[1];
+    int tileWidth = 0 < adaptiveTileSize ? adaptiveTileSize : this.tileWidth;
+    int tileHeight = 0 < adaptiveTileSize ? adaptiveTileSize : this.tileHeight;
+    int strideX = 0 < adaptiveTileSize ? adaptiveTileSize : this.strideX;
+    int strideY = 0 < adaptiveTileSize ? adaptiveTileSize : this.strideY;
     int cols = (int) (Math.ceil((width - tileWidth) * 1.0 / strideX) + 1);
     int rows = (int) (Math.ceil((height - tileHeight) * 1.0 / strideY) + 1);
     if (cols == 1 && rows == 1) {
@@ -82,31 +126,50 @@ public class TiledTrainable extends ReferenceCountingBase implements Trainable {
           cols,
           rows
       ));
-      Tensor[] tiles = ImgTileSelectLayer.toTiles(log, canvas, tileSizeX, tileSizeY, tileSizeX - padding, tileSizeY - padding, 0, 0);
-      PointSample[] results = Arrays.stream(tiles).map(tile ->
-          new ArrayTrainable(network, 1).setVerbose(true).setMask(true)
-              .setData(Arrays.asList(new Tensor[][]{{tile}}))
-              .measure(monitor))
-          .toArray(i -> new PointSample[i]);
-      List<Tensor> deltaList = IntStream.range(0, results.length).mapToObj(i -> {
-        Delta<UUID> layerDelta = results[i].delta.stream().findAny().get();
-        return new Tensor(layerDelta.getDelta(), tiles[i].getDimensions());
-      }).collect(Collectors.toList());
-      if (deltaList.size() != cols * rows) throw new AssertionError(deltaList.size() + " != " + cols + " * " + rows);
+      int tileStrideX = tileSizeX - padding;
+      int tileStrideY = tileSizeY - padding;
+      Tensor[] tiles = ImgTileSelectLayer.toTiles(log, canvas, tileSizeX, tileSizeY, tileStrideX, tileStrideY, 0, 0);
+      if (tiles.length != cols * rows) throw new AssertionError(tiles.length + " != " + cols + " * " + rows);
+      final double[] gradient = new double[canvas.getData().length];
+      final PointSample[] results = new PointSample[tiles.length];
+      final Semaphore inFlight = new Semaphore(Math.max(1, getMaxTilesInFlight()));
+      final List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < tiles.length; i++) {
+        final int index = i;
+        final int row = i / cols;
+        final int col = i % cols;
+        inFlight.acquireUninterruptibly();
+        futures.add(getExecutor().submit(() -> {
+          try {
+            PointSample result = new ArrayTrainable(network, 1).setVerbose(true).setMask(true)
+                .setData(Arrays.asList(new Tensor[][]{{tiles[index]}}))
+                .measure(monitor);
+            Delta<UUID> layerDelta = result.delta.stream().findAny().get();
+            int[] tileDims = tiles[index].getDimensions();
+            assemble(gradient, canvas.getDimensions(), layerDelta.getDelta(), tileDims,
+                col * tileStrideX, row * tileStrideY,
+                col == 0 ? 0 : padding / 2, col == cols - 1 ? tileDims[0] : tileDims[0] - (padding - padding / 2),
+                row == 0 ? 0 : padding / 2, row == rows - 1 ? tileDims[1] : tileDims[1] - (padding - padding / 2)
+            );
+            results[index] = result;
+          } finally {
+            inFlight.release();
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
+        }
+      }
       final DeltaSet<UUID> delta = new DeltaSet<>();
       PlaceholderLayer<double[]> placeholderLayer = new PlaceholderLayer<>(canvas.getData());
-      ImgTileAssemblyLayer assemblyLayer = new ImgTileAssemblyLayer(cols, rows)
-          .setPaddingX(padding).setPaddingY(padding);
-      Tensor assembled = assemblyLayer.eval(deltaList.toArray(new Tensor[]{})).getData().get(0);
-      if (canvas.getData().length != assembled.getData().length) throw new IllegalStateException(
-          String.format(
-              "%d != %d (%s != %s)",
-              canvas.getData().length,
-              assembled.getData().length,
-              Arrays.toString(canvas.getDimensions()),
-              Arrays.toString(assembled.getDimensions())
-          ));
-      delta.get(placeholderLayer.getId(), canvas.getData()).set(assembled.getData());
+      delta.get(placeholderLayer.getId(), canvas.getData()).set(gradient);
       final StateSet<UUID> weights = new StateSet<>();
       weights.get(placeholderLayer.getId(), canvas.getData()).set(canvas.getData());
       final double sum = Arrays.stream(results).mapToDouble(x -> x.sum).average().getAsDouble();
@@ -116,6 +179,41 @@ public class TiledTrainable extends ReferenceCountingBase implements Trainable {
     }
   }
 
+  /**
+   * Copies the core region of a tile gradient into the canvas gradient. Overlapping tile borders are split at the
+   * midpoint of each seam, so every canvas pixel receives exactly one tile's gradient and concurrent writers never
+   * touch the same element.
+   */
+  private static void assemble(
+      final double[] gradient,
+      final int[] canvasDims,
+      final double[] tileDelta,
+      final int[] tileDims,
+      final int positionX,
+      final int positionY,
+      final int minX,
+      final int maxX,
+      final int minY,
+      final int maxY
+  ) {
+    int width = canvasDims[0];
+    int height = canvasDims[1];
+    int bands = canvasDims[2];
+    int tileWidth = tileDims[0];
+    int tileHeight = tileDims[1];
+    int length = Math.min(maxX, width - positionX) - minX;
+    if (length <= 0) return;
+    for (int band = 0; band < bands; band++) {
+      for (int y = minY; y < maxY && positionY + y < height; y++) {
+        System.arraycopy(
+            tileDelta, minX + tileWidth * (y + tileHeight * band),
+            gradient, positionX + minX + width * (positionY + y + height * band),
+            length
+        );
+      }
+    }
+  }
+
   @Override
   public Layer getLayer() {
     return network;
@@ -130,6 +228,80 @@ public class TiledTrainable extends ReferenceCountingBase implements Trainable {
     return this;
   }
 
+  public int getTileWidth() {
+    return tileWidth;
+  }
+
+  public int getTileHeight() {
+    return tileHeight;
+  }
+
+  public TiledTrainable setTileSize(int tileWidth, int tileHeight) {
+    this.tileWidth = tileWidth;
+    this.tileHeight = tileHeight;
+    return this;
+  }
+
+  public int getStrideX() {
+    return strideX;
+  }
+
+  public int getStrideY() {
+    return strideY;
+  }
+
+  public TiledTrainable setStride(int strideX, int strideY) {
+    this.strideX = strideX;
+    this.strideY = strideY;
+    return this;
+  }
+
+  /**
+   * Uses the largest square tile whose estimated activation memory fits the budget. Canvases that fit entirely are
+   * measured untiled. The tile size is computed here, once, using {@link #estimateBytesPerPixel(CVPipe)}; configured
+   * tile sizes and strides are kept, but ignored while adaptive mode is enabled.
+   *
+   * @param pipe         the pipe whose activations dominate memory use, or null to disable adaptive mode
+   * @param memoryBudget the memory budget per tile, in bytes
+   * @return this
+   */
+  public TiledTrainable setAdaptive(@Nullable CVPipe<?> pipe, long memoryBudget) {
+    if (null == pipe) {
+      this.adaptiveTileSize = 0;
+      return this;
+    }
+    int tileSize = (int) Math.sqrt(memoryBudget / estimateBytesPerPixel(pipe));
+    if (tileSize < padding + 1) throw new IllegalStateException(String.format(
+        "Memory budget of %s bytes is too small for %s", memoryBudget, pipe.getClass().getSimpleName()));
+    this.adaptiveTileSize = tileSize;
+    return this;
+  }
+
+  public int getMaxTilesInFlight() {
+    return maxTilesInFlight;
+  }
+
+  /**
+   * Limits how many tiles are measured concurrently. Each tile in flight holds a full set of network activations, so
+   * this bounds peak memory; the default of 1 measures tiles sequentially.
+   *
+   * @param maxTilesInFlight the max tiles in flight
+   * @return this
+   */
+  public TiledTrainable setMaxTilesInFlight(int maxTilesInFlight) {
+    this.maxTilesInFlight = maxTilesInFlight;
+    return this;
+  }
+
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  public TiledTrainable setExecutor(ExecutorService executor) {
+    this.executor = executor;
+    return this;
+  }
+
   @Override
   protected void _free() {
     this.network.addRef();
@@ -41,6 +41,14 @@ import java.util.Map;
 public class HiDef extends ImageScript {
 
   public int resolution = 1200;
+  /**
+   * The number of tiles measured concurrently; each holds a full set of activations on the device.
+   */
+  public int maxTilesInFlight = 2;
+  /**
+   * The device memory budget per tile, in bytes, used to size tiles adaptively, or 0 for fixed 600px tiles.
+   */
+  public long tileMemoryBudget = 0;
   public String[] contentSources = {
       "https://upload.wikimedia.org/wikipedia/commons/thumb/9/97/The_Earth_seen_from_Apollo_17.jpg/1024px-The_Earth_seen_from_Apollo_17.jpg"
   };
@@ -50,7 +58,9 @@ public class HiDef extends ImageScript {
       @Nonnull
       @Override
       public Trainable getTrainable(final PipelineNetwork network, final Tensor canvas) {
-        return new TiledTrainable(network, canvas, 0);
+        TiledTrainable trainable = new TiledTrainable(network, canvas, 0).setMaxTilesInFlight(maxTilesInFlight);
+        if (0 < tileMemoryBudget) trainable.setAdaptive(CVPipe_VGG19.INSTANCE, tileMemoryBudget);
+        return trainable;
       }
     };
     Precision precision = Precision.Float;
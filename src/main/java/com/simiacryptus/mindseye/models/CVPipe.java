@@ -21,6 +21,7 @@ package com.simiacryptus.mindseye.models;
 
 import com.simiacryptus.mindseye.network.PipelineNetwork;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.UUID;
 
@@ -33,4 +34,14 @@ public interface CVPipe<T extends LayerEnum<T>> {
   Map<T, PipelineNetwork> getPrototypes();
 
   PipelineNetwork getNetwork();
+
+  /**
+   * Creates an evaluator which computes the activations at several strata with a single pass through the network.
+   *
+   * @param layers the strata to tap
+   * @return the evaluator
+   */
+  default StrataEvaluator<T> getEvaluator(Collection<T> layers) {
+    return new StrataEvaluator<>(this, layers);
+  }
 }
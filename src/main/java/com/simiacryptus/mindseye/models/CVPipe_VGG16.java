@@ -36,9 +36,27 @@ public class CVPipe_VGG16 implements CVPipe<CVPipe_VGG16.Layer> {
   private PipelineNetwork network = new PipelineNetwork();
 
   private static CVPipe_VGG16 build() {
+    try {
+      return build(new WeightCache(Util.cacheFile(TestUtil.S3_ROOT.resolve("vgg16_weights.h5"))));
+    } catch (@Nonnull final RuntimeException e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Builds the pipeline from the given weights. The build stops after the last stratum, once every dataset has been
+   * read, and commits the weight cache before doing so.
+   *
+   * @param hdf5 the weights
+   * @return the pipeline
+   */
+  @Nonnull
+  static CVPipe_VGG16 build(@Nonnull final Hdf5Archive hdf5) {
     CVPipe_VGG16 obj = new CVPipe_VGG16();
     try {
-      new VGG16_HDF5(new Hdf5Archive(Util.cacheFile(TestUtil.S3_ROOT.resolve("vgg16_weights.h5")))) {
+      new VGG16_HDF5(hdf5) {
         @Override
         protected void phase0() {
           super.phase0();
@@ -108,6 +126,7 @@ public class CVPipe_VGG16 implements CVPipe<CVPipe_VGG16.Layer> {
           obj.nodes.put(Layer.Layer_3b, pipeline.getHeadId());
           obj.prototypes.put(Layer.Layer_3b, pipeline.copy());
           obj.network = (PipelineNetwork) pipeline.freeze();
+          commitWeightCache();
           throw new RuntimeException("Abort Network Construction");
         }
       }.getNetwork();
@@ -43,10 +43,28 @@ public class CVPipe_VGG19 implements CVPipe<CVPipe_VGG19.Layer> {
   }
 
   private static CVPipe_VGG19 build() {
+    try {
+      return build(new WeightCache(Util.cacheFile(TestUtil.S3_ROOT.resolve("vgg19_weights.h5"))));
+    } catch (@Nonnull final RuntimeException e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Builds the pipeline from the given weights. The build stops after the last stratum, once every dataset has been
+   * read, and commits the weight cache before doing so.
+   *
+   * @param hdf5 the weights
+   * @return the pipeline
+   */
+  @Nonnull
+  static CVPipe_VGG19 build(@Nonnull final Hdf5Archive hdf5) {
     CVPipe_VGG19 obj = new CVPipe_VGG19();
     final String abortMsg = "Abort Network Construction";
     try {
-      new VGG19_HDF5(new Hdf5Archive(Util.cacheFile(TestUtil.S3_ROOT.resolve("vgg19_weights.h5")))) {
+      new VGG19_HDF5(hdf5) {
         @Override
         protected void phase0() {
           super.phase0();
@@ -116,6 +134,7 @@ public class CVPipe_VGG19 implements CVPipe<CVPipe_VGG19.Layer> {
           obj.nodes.put(Layer.Layer_3b, pipeline.getHeadId());
           obj.prototypes.put(Layer.Layer_3b, pipeline.copy());
           obj.network = (PipelineNetwork) pipeline.freeze();
+          commitWeightCache();
           throw new RuntimeException(abortMsg);
         }
       }.getNetwork();
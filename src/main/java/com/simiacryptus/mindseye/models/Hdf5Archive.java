@@ -36,6 +36,8 @@ import java.io.File;
 import java.io.IOException;
 import java.lang.Exception;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -44,6 +46,7 @@ import static org.bytedeco.javacpp.hdf5.*;
 
 public class Hdf5Archive {
   private static final Logger log = LoggerFactory.getLogger(Hdf5Archive.class);
+  private static final int STAGING_FLOATS = 1 << 16;
 
   static {
     try {
@@ -54,10 +57,10 @@ public class Hdf5Archive {
     }
   }
 
-  @Nonnull
-  private final H5File file;
   @Nonnull
   private final File filename;
+  @Nullable
+  private volatile H5File file;
 
   public Hdf5Archive(@Nonnull String filename) {
     this(new File(filename));
@@ -65,13 +68,6 @@ public class Hdf5Archive {
 
   public Hdf5Archive(@Nonnull File filename) {
     this.filename = filename;
-    try {
-      this.file = new H5File(filename.getCanonicalPath(), H5F_ACC_RDONLY());
-    } catch (@Nonnull final RuntimeException e) {
-      throw e;
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
   }
 
   private static void print(@Nonnull Hdf5Archive archive, @Nonnull Logger log) {
@@ -115,13 +111,37 @@ public class Hdf5Archive {
 
   @Override
   public String toString() {
-    return String.format("Hdf5Archive{%s}", file);
+    return String.format("Hdf5Archive{%s}", filename);
+  }
+
+  /**
+   * Opens the underlying HDF5 file on first use, so archives whose contents are served from elsewhere (e.g. a
+   * {@link WeightCache}) never pay for native HDF5 initialization.
+   *
+   * @return the h5 file
+   */
+  @Nonnull
+  protected H5File getFile() {
+    if (null == file) {
+      synchronized (this) {
+        if (null == file) {
+          try {
+            file = new H5File(filename.getCanonicalPath(), H5F_ACC_RDONLY());
+          } catch (@Nonnull final RuntimeException e) {
+            throw e;
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      }
+    }
+    return file;
   }
 
   @Nonnull
   private Group[] openGroups(@Nonnull CharSequence... groups) {
     @Nonnull Group[] groupArray = new Group[groups.length];
-    groupArray[0] = this.file.openGroup(groups[0].toString());
+    groupArray[0] = getFile().openGroup(groups[0].toString());
     for (int i = 1; i < groups.length; i++) {
       groupArray[i] = groupArray[i - 1].openGroup(groups[i].toString());
     }
@@ -137,7 +157,7 @@ public class Hdf5Archive {
   @Nullable
   public Tensor readDataSet(CharSequence datasetName, @Nonnull CharSequence... groups) {
     if (groups.length == 0) {
-      return readDataSet(this.file, datasetName);
+      return readDataSet(getFile(), datasetName);
     }
     @Nonnull Group[] groupArray = openGroups(groups);
     @Nullable Tensor a = readDataSet(groupArray[groupArray.length - 1], datasetName);
@@ -148,7 +168,7 @@ public class Hdf5Archive {
   @Nullable
   public CharSequence readAttributeAsJson(String attributeName, @Nonnull String... groups) {
     if (groups.length == 0) {
-      return readAttributeAsJson(this.file.openAttribute(attributeName));
+      return readAttributeAsJson(getFile().openAttribute(attributeName));
     }
     @Nonnull Group[] groupArray = openGroups(groups);
     @Nullable String s = readAttributeAsJson(groupArray[groups.length - 1].openAttribute(attributeName));
@@ -159,7 +179,7 @@ public class Hdf5Archive {
   @Nullable
   public CharSequence readAttributeAsString(String attributeName, @Nonnull String... groups) {
     if (groups.length == 0) {
-      return readAttributeAsString(this.file.openAttribute(attributeName));
+      return readAttributeAsString(getFile().openAttribute(attributeName));
     }
     @Nonnull Group[] groupArray = openGroups(groups);
     @Nullable String s = readAttributeAsString(groupArray[groupArray.length - 1].openAttribute(attributeName));
@@ -169,7 +189,7 @@ public class Hdf5Archive {
 
   public boolean hasAttribute(String attributeName, @Nonnull String... groups) {
     if (groups.length == 0) {
-      return this.file.attrExists(attributeName);
+      return getFile().attrExists(attributeName);
     }
     @Nonnull Group[] groupArray = openGroups(groups);
     boolean b = groupArray[groupArray.length - 1].attrExists(attributeName);
@@ -180,7 +200,7 @@ public class Hdf5Archive {
   @Nonnull
   public Map<CharSequence, Object> getAttributes(@Nonnull String... groups) {
     if (groups.length == 0) {
-      return getAttributes(this.file);
+      return getAttributes(getFile());
     }
     @Nonnull Group[] groupArray = openGroups(groups);
     Group group = groupArray[groupArray.length - 1];
@@ -241,7 +261,7 @@ public class Hdf5Archive {
   @Nonnull
   public List<CharSequence> getDataSets(@Nonnull String... groups) {
     if (groups.length == 0) {
-      return getObjects(this.file, H5O_TYPE_DATASET);
+      return getObjects(getFile(), H5O_TYPE_DATASET);
     }
     @Nonnull Group[] groupArray = openGroups(groups);
     @Nonnull List<CharSequence> ls = getObjects(groupArray[groupArray.length - 1], H5O_TYPE_DATASET);
@@ -252,7 +272,7 @@ public class Hdf5Archive {
   @Nonnull
   public List<CharSequence> getGroups(@Nonnull String... groups) {
     if (groups.length == 0) {
-      return getObjects(this.file, H5O_TYPE_GROUP);
+      return getObjects(getFile(), H5O_TYPE_GROUP);
     }
     @Nonnull Group[] groupArray = openGroups(groups);
     @Nonnull List<CharSequence> ls = getObjects(groupArray[groupArray.length - 1], H5O_TYPE_GROUP);
@@ -265,66 +285,75 @@ public class Hdf5Archive {
     DataSet dataset = fileGroup.openDataSet(datasetName.toString());
     DataSpace space = dataset.getSpace();
     int nbDims = space.getSimpleExtentNdims();
+    if (nbDims < 1 || nbDims > 4) {
+      space.deallocate();
+      dataset.deallocate();
+      throw new RuntimeException("Cannot import weights apply rank " + nbDims);
+    }
     @Nonnull long[] dims = new long[nbDims];
     space.getSimpleExtentDims(dims);
-    @Nullable float[] dataBuffer = null;
-    @Nullable FloatPointer fp = null;
-    int j = 0;
-    @Nonnull DataType dataType = new DataType(PredType.NATIVE_FLOAT());
-    @Nullable Tensor data = null;
-    switch (nbDims) {
-      case 4: /* 2D Convolution weights */
-        dataBuffer = new float[(int) (dims[0] * dims[1] * dims[2] * dims[3])];
-        fp = new FloatPointer(dataBuffer);
-        dataset.read(fp, dataType);
-        fp.get(dataBuffer);
-        data = new Tensor((int) dims[0], (int) dims[1], (int) dims[2], (int) dims[3]);
-        j = 0;
-        for (int i1 = 0; i1 < dims[0]; i1++)
-          for (int i2 = 0; i2 < dims[1]; i2++)
-            for (int i3 = 0; i3 < dims[2]; i3++)
-              for (int i4 = 0; i4 < dims[3]; i4++)
-                data.set(i1, i2, i3, i4, (double) dataBuffer[j++]);
-        break;
-      case 3:
-        dataBuffer = new float[(int) (dims[0] * dims[1] * dims[2])];
-        fp = new FloatPointer(dataBuffer);
-        dataset.read(fp, dataType);
-        fp.get(dataBuffer);
-        data = new Tensor((int) dims[0], (int) dims[1], (int) dims[2]);
-        j = 0;
-        for (int i1 = 0; i1 < dims[0]; i1++)
-          for (int i2 = 0; i2 < dims[1]; i2++)
-            for (int i3 = 0; i3 < dims[2]; i3++)
-              data.set(i1, i2, i3, dataBuffer[j++]);
-        break;
-      case 2: /* Dense and Recurrent weights */
-        dataBuffer = new float[(int) (dims[0] * dims[1])];
-        fp = new FloatPointer(dataBuffer);
-        dataset.read(fp, dataType);
-        fp.get(dataBuffer);
-        data = new Tensor((int) dims[0], (int) dims[1]);
-        j = 0;
-        for (int i1 = 0; i1 < dims[0]; i1++)
-          for (int i2 = 0; i2 < dims[1]; i2++)
-            data.set(i1, i2, dataBuffer[j++]);
-        break;
-      case 1: /* Bias */
-        dataBuffer = new float[(int) dims[0]];
-        fp = new FloatPointer(dataBuffer);
-        dataset.read(fp, dataType);
-        fp.get(dataBuffer);
-        data = new Tensor((int) dims[0]);
-        j = 0;
-        for (int i1 = 0; i1 < dims[0]; i1++)
-          data.set(i1, dataBuffer[j++]);
-        break;
-      default:
-        throw new RuntimeException("Cannot import weights apply rank " + nbDims);
+    long length = 1;
+    for (long dim : dims) length *= dim;
+    if (length > Integer.MAX_VALUE) {
+      space.deallocate();
+      dataset.deallocate();
+      throw new RuntimeException("Dataset too large: " + Arrays.toString(dims));
     }
+    @Nonnull FloatBuffer buffer = ByteBuffer.allocateDirect((int) length * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    @Nonnull FloatPointer fp = new FloatPointer(buffer);
+    @Nonnull DataType dataType = new DataType(PredType.NATIVE_FLOAT());
+    dataset.read(fp, dataType);
+    dataType.deallocate();
     space.deallocate();
     dataset.deallocate();
-    return data;
+    @Nonnull int[] dimensions = Arrays.stream(dims).mapToInt(x -> (int) x).toArray();
+    @Nonnull double[] values = new double[(int) length];
+    toColumnMajor(buffer, values, dimensions);
+    return new Tensor(values, dimensions);
+  }
+
+  /**
+   * Copies row-major HDF5 data into the column-major layout used by Tensor. The source is read a block of whole rows at
+   * a time with one bulk {@link FloatBuffer#get(float[], int, int)} into a staging array, which is then transposed
+   * column by column, so each pass writes the destination with a fixed stride.
+   *
+   * @param src        the row-major source, read from its current position
+   * @param dst        the column-major destination
+   * @param dimensions the dimensions
+   */
+  static void toColumnMajor(@Nonnull FloatBuffer src, @Nonnull double[] dst, @Nonnull int[] dimensions) {
+    if (0 == dst.length) return;
+    int rank = dimensions.length;
+    @Nonnull int[] strides = new int[rank];
+    int stride = 1;
+    for (int d = 0; d < rank; d++) {
+      strides[d] = stride;
+      stride *= dimensions[d];
+    }
+    int inner = dimensions[rank - 1];
+    int innerStride = strides[rank - 1];
+    int outer = dst.length / inner;
+    int rows = Math.max(1, Math.min(outer, STAGING_FLOATS / inner));
+    @Nonnull float[] staging = new float[rows * inner];
+    @Nonnull int[] bases = new int[rows];
+    @Nonnull int[] coords = new int[rank - 1];
+    for (int row = 0; row < outer; row += rows) {
+      int count = Math.min(rows, outer - row);
+      src.get(staging, 0, count * inner);
+      for (int r = 0; r < count; r++) {
+        int base = 0;
+        for (int d = 0; d < rank - 1; d++) base += coords[d] * strides[d];
+        bases[r] = base;
+        for (int d = rank - 2; d >= 0; d--) {
+          if (++coords[d] < dimensions[d]) break;
+          coords[d] = 0;
+        }
+      }
+      for (int i = 0; i < inner; i++) {
+        int offset = i * innerStride;
+        for (int r = 0; r < count; r++) dst[bases[r] + offset] = staging[r * inner + i];
+      }
+    }
   }
 
   @Nonnull
@@ -408,7 +437,7 @@ public class Hdf5Archive {
 
   @Nonnull
   public CharSequence readAttributeAsFixedLengthString(String attributeName, int bufferSize) {
-    return readAttributeAsFixedLengthString(this.file.openAttribute(attributeName), bufferSize);
+    return readAttributeAsFixedLengthString(getFile().openAttribute(attributeName), bufferSize);
   }
 
   @Nonnull
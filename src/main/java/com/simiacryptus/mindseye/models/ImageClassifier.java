@@ -27,6 +27,9 @@ import com.simiacryptus.mindseye.lang.cudnn.MultiPrecision;
 import com.simiacryptus.mindseye.lang.cudnn.Precision;
 import com.simiacryptus.mindseye.layers.Explodable;
 import com.simiacryptus.mindseye.layers.cudnn.ActivationLayer;
+import com.simiacryptus.mindseye.layers.cudnn.BandReducerLayer;
+import com.simiacryptus.mindseye.layers.cudnn.ImgBandBiasLayer;
+import com.simiacryptus.mindseye.layers.cudnn.SoftmaxActivationLayer;
 import com.simiacryptus.mindseye.layers.cudnn.conv.ConvolutionLayer;
 import com.simiacryptus.mindseye.layers.cudnn.conv.FullyConnectedLayer;
 import com.simiacryptus.mindseye.layers.cudnn.conv.SimpleConvolutionLayer;
@@ -56,8 +59,6 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 
 public abstract class ImageClassifier implements NetworkFactory {
@@ -66,12 +67,16 @@ public abstract class ImageClassifier implements NetworkFactory {
   protected volatile Layer cachedLayer;
   @Nullable
   protected
-  Tensor prototype = new Tensor(224, 224, 3);
+  Tensor prototype = null;
+  @Nullable
+  protected
+  int[] prototypeDimensions = null;
   protected int cnt = 1;
   @Nonnull
   protected
   Precision precision = Precision.Float;
   private int batchSize;
+  private boolean validatePrototypes = false;
 
   public static List<LinkedHashMap<CharSequence, Double>> predict(
       @Nonnull Layer network,
@@ -92,38 +97,60 @@ public abstract class ImageClassifier implements NetworkFactory {
       boolean nullGC,
       Tensor[] data
   ) {
-    try {
-      return Lists.partition(Arrays.asList(data), 1).stream().flatMap(batch -> {
-        Tensor[][] input = {
-            batch.stream().toArray(i -> new Tensor[i])
-        };
-        Result[] inputs = ConstantResult.singleResultArray(input);
-        @Nullable Result result = network.eval(inputs);
-        result.freeRef();
-        TensorList resultData = result.getData();
-        //Arrays.stream(input).flatMap(Arrays::stream).forEach(ReferenceCounting::freeRef);
-        //Arrays.stream(inputs).forEach(ReferenceCounting::freeRef);
-        //Arrays.stream(inputs).buildMap(Result::getData).forEach(ReferenceCounting::freeRef);
-
-        List<LinkedHashMap<CharSequence, Double>> maps = resultData.stream().map(tensor -> {
+    long startTime = System.nanoTime();
+    @Nonnull List<LinkedHashMap<CharSequence, Double>> results = new ArrayList<>(data.length);
+    for (List<Tensor> batch : Lists.partition(Arrays.asList(data), Math.max(1, batchSize))) {
+      Tensor[][] input = {
+          batch.stream().toArray(i -> new Tensor[i])
+      };
+      Result[] inputs = ConstantResult.singleResultArray(input);
+      TensorList resultData = network.eval(inputs).getDataAndFree();
+      try {
+        for (int index = 0; index < resultData.length(); index++) {
+          Tensor tensor = resultData.get(index);
           @Nullable double[] predictionSignal = tensor.getData();
-          int[] order = IntStream.range(0, 1000).mapToObj(x -> x)
-              .sorted(Comparator.comparing(i -> -predictionSignal[i]))
-              .mapToInt(x -> x).toArray();
           assert categories.size() == predictionSignal.length;
           @Nonnull LinkedHashMap<CharSequence, Double> topN = new LinkedHashMap<>();
-          for (int i = 0; i < count; i++) {
-            int index = order[i];
-            topN.put(categories.get(index), predictionSignal[index]);
+          for (int category : topK(predictionSignal, count)) {
+            topN.put(categories.get(category), predictionSignal[category]);
           }
           tensor.freeRef();
-          return topN;
-        }).collect(Collectors.toList());
+          results.add(topN);
+        }
+      } finally {
         resultData.freeRef();
-        return maps.stream();
-      }).collect(Collectors.toList());
-    } finally {
+      }
+    }
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+    logger.info(String.format("Classified %d images in %.3fs (%.2f images/sec, batch size %d)",
+        data.length, seconds, data.length / seconds, Math.max(1, batchSize)));
+    return results;
+  }
+
+  /**
+   * Selects the indices of the k largest values, in descending order of value, using a partial insertion sort into a
+   * k-element buffer rather than sorting every index.
+   *
+   * @param values the values
+   * @param k      the number of indices to return
+   * @return the top indices
+   */
+  @Nonnull
+  public static int[] topK(@Nonnull final double[] values, int k) {
+    k = Math.max(0, Math.min(k, values.length));
+    @Nonnull int[] indices = new int[k];
+    int size = 0;
+    for (int i = 0; i < values.length; i++) {
+      double value = values[i];
+      if (size == k && (k == 0 || value <= values[indices[k - 1]])) continue;
+      int position = size < k ? size++ : k - 1;
+      while (position > 0 && values[indices[position - 1]] < value) {
+        indices[position] = indices[position - 1];
+        position--;
+      }
+      indices[position] = i;
     }
+    return indices;
   }
 
   @Nonnull
@@ -176,6 +203,105 @@ public abstract class ImageClassifier implements NetworkFactory {
     }
   }
 
+  /**
+   * Logs a newly added layer using symbolically inferred dimensions, without evaluating it.
+   *
+   * @param layer          the layer
+   * @param prevDimensions the input dimensions, or null if unknown
+   * @param newDimensions  the output dimensions, or null if unknown
+   * @param cnt            the layer count
+   */
+  protected static void logDimensions(@Nonnull final Layer layer, @Nullable final int[] prevDimensions, @Nullable final int[] newDimensions, int cnt) {
+    int numberOfParameters = layer.state().stream().mapToInt(x -> x.length).sum();
+    logger.info(String.format("Added key #%d: %s; %s params, dimensions %s (%s) -> %s (%s)", //
+        cnt, layer, numberOfParameters, //
+        null == prevDimensions ? "?" : Arrays.toString(prevDimensions), null == prevDimensions ? "?" : Tensor.length(prevDimensions), //
+        null == newDimensions ? "?" : Arrays.toString(newDimensions), null == newDimensions ? "?" : Tensor.length(newDimensions)
+    ));
+  }
+
+  /**
+   * Infers the output dimensions of layers whose shape follows from their type alone: element-wise activations and
+   * biases preserve the input shape, fully connected layers declare their output, and band reducers collapse the
+   * spatial dimensions. Returns null for anything else, in which case callers should supply the dimensions explicitly.
+   *
+   * @param layer           the layer
+   * @param inputDimensions the input dimensions
+   * @return the output dimensions, or null if unknown
+   */
+  @Nullable
+  protected static int[] inferDimensions(@Nonnull final Layer layer, @Nullable final int[] inputDimensions) {
+    if (layer instanceof FullyConnectedLayer) return ((FullyConnectedLayer) layer).outputDims;
+    if (null == inputDimensions) return null;
+    if (layer instanceof ActivationLayer
+        || layer instanceof LinearActivationLayer
+        || layer instanceof SoftmaxActivationLayer
+        || layer instanceof BiasLayer
+        || layer instanceof ImgBandBiasLayer) {
+      return inputDimensions;
+    }
+    if (layer instanceof BandReducerLayer) return new int[]{1, 1, inputDimensions[2]};
+    return null;
+  }
+
+  @Nullable
+  protected static int[] convolutionDimensions(@Nullable final int[] inputDimensions, int kernelX, int kernelY, int outputBands, int paddingX, int paddingY, int strideX, int strideY) {
+    if (null == inputDimensions) return null;
+    return new int[]{
+        (inputDimensions[0] + 2 * paddingX - kernelX) / strideX + 1,
+        (inputDimensions[1] + 2 * paddingY - kernelY) / strideY + 1,
+        outputBands
+    };
+  }
+
+  @Nullable
+  protected static int[] poolingDimensions(@Nullable final int[] inputDimensions, int windowX, int windowY, int strideX, int strideY) {
+    return convolutionDimensions(inputDimensions, windowX, windowY, null == inputDimensions ? 0 : inputDimensions[2], 0, 0, strideX, strideY);
+  }
+
+  /**
+   * Dimensions after an ImgModulusPaddingLayer: a positive modulus pads up to the next multiple, a negative one crops
+   * down to the previous multiple.
+   */
+  @Nullable
+  protected static int[] modulusDimensions(@Nullable final int[] inputDimensions, int modulusX, int modulusY) {
+    if (null == inputDimensions) return null;
+    return new int[]{
+        modulus(inputDimensions[0], modulusX),
+        modulus(inputDimensions[1], modulusY),
+        inputDimensions[2]
+    };
+  }
+
+  private static int modulus(int size, int modulus) {
+    if (modulus > 0) return ((size + modulus - 1) / modulus) * modulus;
+    return (size / -modulus) * -modulus;
+  }
+
+  @Nullable
+  protected static int[] minSizeDimensions(@Nullable final int[] inputDimensions, int sizeX, int sizeY) {
+    if (null == inputDimensions) return null;
+    return new int[]{Math.max(inputDimensions[0], sizeX), Math.max(inputDimensions[1], sizeY), inputDimensions[2]};
+  }
+
+  @Nullable
+  protected static int[] paddingDimensions(@Nullable final int[] inputDimensions, int paddingX, int paddingY) {
+    if (null == inputDimensions) return null;
+    return new int[]{inputDimensions[0] + 2 * paddingX, inputDimensions[1] + 2 * paddingY, inputDimensions[2]};
+  }
+
+  @Nullable
+  protected static int[] reshapeDimensions(@Nullable final int[] inputDimensions, int strideX, int strideY) {
+    if (null == inputDimensions) return null;
+    return new int[]{inputDimensions[0] / strideX, inputDimensions[1] / strideY, inputDimensions[2] * strideX * strideY};
+  }
+
+  @Nullable
+  protected static int[] bandDimensions(@Nullable final int[] inputDimensions, int bands) {
+    if (null == inputDimensions) return null;
+    return new int[]{inputDimensions[0], inputDimensions[1], bands};
+  }
+
   protected static void name(final Layer layer) {
     if (layer.getName().contains(layer.getId().toString())) {
       if (layer instanceof ConvolutionLayer) {
@@ -262,7 +388,7 @@ public abstract class ImageClassifier implements NetworkFactory {
       @Nonnull List<CharSequence> categories,
       @Nonnull Tensor... data
   ) {
-    return predict(network, count, categories, Math.max(data.length, getBatchSize()), data);
+    return predict(network, count, categories, 0 < getBatchSize() ? getBatchSize() : data.length, data);
   }
 
   public abstract List<CharSequence> getCategories();
@@ -275,6 +401,24 @@ public abstract class ImageClassifier implements NetworkFactory {
     return predict(network, count, getCategories(), data);
   }
 
+  public boolean isValidatePrototypes() {
+    return validatePrototypes;
+  }
+
+  /**
+   * Enables numeric prototype validation: each layer added during construction is evaluated on a sample image, and
+   * the resulting dimensions are checked against the symbolically inferred ones. This costs a forward pass per layer,
+   * so it is off by default.
+   *
+   * @param validatePrototypes whether to evaluate prototypes
+   * @return this
+   */
+  @Nonnull
+  public ImageClassifier setValidatePrototypes(boolean validatePrototypes) {
+    this.validatePrototypes = validatePrototypes;
+    return this;
+  }
+
   public int getBatchSize() {
     return batchSize;
   }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.models;
+
+import com.simiacryptus.lang.ref.ReferenceCountingBase;
+import com.simiacryptus.mindseye.lang.Tensor;
+import com.simiacryptus.mindseye.lang.cudnn.MultiPrecision;
+import com.simiacryptus.mindseye.lang.cudnn.Precision;
+import com.simiacryptus.mindseye.network.DAGNode;
+import com.simiacryptus.mindseye.network.PipelineNetwork;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.*;
+
+/**
+ * Evaluates several strata of a {@link CVPipe} in one pass. The full network is cut at each requested stratum node
+ * into a chain of segments, and each segment is fed the output of the one before it, so shallow convolutions are
+ * computed once rather than once per stratum. Networks which are not a simple chain fall back to evaluating each
+ * stratum's prototype independently.
+ *
+ * @param <T> the stratum type
+ */
+public class StrataEvaluator<T extends LayerEnum<T>> extends ReferenceCountingBase {
+  private static final Logger logger = LoggerFactory.getLogger(StrataEvaluator.class);
+
+  @Nonnull
+  private final List<T> strata = new ArrayList<>();
+  @Nonnull
+  private final List<PipelineNetwork> segments = new ArrayList<>();
+  @Nullable
+  private final PipelineNetwork network;
+  private final boolean chained;
+
+  public StrataEvaluator(@Nonnull final CVPipe<T> pipe, @Nonnull final Collection<T> layers) {
+    Map<UUID, T> requested = new HashMap<>();
+    pipe.getNodes().forEach((layer, id) -> {
+      if (layers.contains(layer)) requested.put(id, layer);
+    });
+    PipelineNetwork network = pipe.getNetwork();
+    if (split(network, requested) && strata.size() == new HashSet<>(layers).size()) {
+      this.network = network;
+      this.chained = true;
+    } else {
+      logger.info(String.format("Evaluating %s strata independently", layers.size()));
+      segments.forEach(PipelineNetwork::freeRef);
+      segments.clear();
+      strata.clear();
+      network.freeRef();
+      for (T layer : new LinkedHashSet<>(layers)) {
+        strata.add(layer);
+        segments.add(layer.network());
+      }
+      this.network = null;
+      this.chained = false;
+    }
+  }
+
+  private boolean split(@Nonnull final PipelineNetwork network, @Nonnull final Map<UUID, T> requested) {
+    PipelineNetwork segment = new PipelineNetwork(1);
+    UUID previous = network.getInput(0).getId();
+    for (DAGNode node : network.getNodes()) {
+      DAGNode[] inputs = node.getInputs();
+      if (null == node.getLayer() && (null == inputs || 0 == inputs.length)) continue;
+      if (null == inputs || 1 != inputs.length || !previous.equals(inputs[0].getId())) {
+        segment.freeRef();
+        return false;
+      }
+      segment.wrap(node.getLayer()).freeRef();
+      previous = node.getId();
+      T layer = requested.get(previous);
+      if (null != layer) {
+        strata.add(layer);
+        segments.add(segment);
+        if (strata.size() == requested.size()) return true;
+        segment = new PipelineNetwork(1);
+      }
+    }
+    segment.freeRef();
+    return strata.size() == requested.size();
+  }
+
+  /**
+   * Sets the precision of every segment.
+   *
+   * @param precision the precision
+   * @return this
+   */
+  @Nonnull
+  public StrataEvaluator<T> setPrecision(@Nonnull final Precision precision) {
+    segments.forEach(segment -> MultiPrecision.setPrecision(segment, precision));
+    return this;
+  }
+
+  /**
+   * @return the evaluated strata, in network order when chained
+   */
+  @Nonnull
+  public List<T> getStrata() {
+    return Collections.unmodifiableList(strata);
+  }
+
+  /**
+   * Evaluates every stratum for one input image.
+   *
+   * @param input the input image; not consumed
+   * @return the activations at each stratum; the caller owns the returned tensors
+   */
+  @Nonnull
+  public Map<T, Tensor> eval(@Nonnull final Tensor input) {
+    Map<T, Tensor> results = new LinkedHashMap<>();
+    Tensor current = input;
+    current.addRef();
+    for (int i = 0; i < segments.size(); i++) {
+      Tensor next = segments.get(i).eval(chained ? current : input).getDataAndFree().getAndFree(0);
+      if (chained) {
+        current.freeRef();
+        current = next;
+        current.addRef();
+      }
+      results.put(strata.get(i), next);
+    }
+    current.freeRef();
+    return results;
+  }
+
+  @Override
+  protected void _free() {
+    segments.forEach(PipelineNetwork::freeRef);
+    if (null != network) network.freeRef();
+    super._free();
+  }
+}
@@ -33,6 +33,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
 
 public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
 
@@ -52,19 +54,40 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
   }
 
   protected void add(@Nonnull Layer layer) {
-    Tensor newValue = evaluatePrototype(add(layer, pipeline), this.prototype, cnt++);
-    if (null != this.prototype) this.prototype.freeRef();
-    this.prototype = newValue;
+    add(layer, inferDimensions(layer, prototypeDimensions));
+  }
+
+  protected void add(@Nonnull Layer layer, @Nullable int[] dimensions) {
+    if (null == this.prototype) {
+      logDimensions(add(layer, pipeline), prototypeDimensions, dimensions, cnt++);
+    } else {
+      Tensor newValue = evaluatePrototype(add(layer, pipeline), this.prototype, cnt++);
+      if (null != dimensions && !Arrays.equals(dimensions, newValue.getDimensions())) {
+        throw new IllegalStateException(String.format("Inferred dimensions %s but evaluated %s",
+            Arrays.toString(dimensions), Arrays.toString(newValue.getDimensions())));
+      }
+      this.prototype.freeRef();
+      this.prototype = newValue;
+      dimensions = newValue.getDimensions();
+    }
+    prototypeDimensions = dimensions;
   }
 
   public Layer buildNetwork() {
-    if (null != this.prototype) this.prototype.freeRef();
-    prototype = new Tensor(224, 224, 3);
-    phase0();
-    phase1();
-    phase2();
-    phase3();
-    return pipeline;
+    openWeightCache();
+    try {
+      if (null != this.prototype) this.prototype.freeRef();
+      prototype = isValidatePrototypes() ? new Tensor(224, 224, 3) : null;
+      prototypeDimensions = new int[]{224, 224, 3};
+      phase0();
+      phase1();
+      phase2();
+      phase3();
+      commitWeightCache();
+      return pipeline;
+    } finally {
+      abortWeightCache();
+    }
   }
 
   protected void phase1() {
@@ -76,7 +99,7 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
   }
 
   protected void phase0() {
-    add(new ImgMinSizeLayer(226, 226));
+    add(new ImgMinSizeLayer(226, 226), minSizeDimensions(prototypeDimensions, 226, 226));
     add(new ImgBandBiasLayer(3).set(new Tensor(-103.939, -116.779, -123.68)));
   }
 
@@ -124,9 +147,9 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
 
   protected void phase2b() {
     if (large) {
-      add(new ImgModulusPaddingLayer(7, 7));
+      add(new ImgModulusPaddingLayer(7, 7), modulusDimensions(prototypeDimensions, 7, 7));
     } else {
-      add(new ImgModulusPaddingLayer(-7, -7));
+      add(new ImgModulusPaddingLayer(-7, -7), modulusDimensions(prototypeDimensions, -7, -7));
     }
 
     if (dense) {
@@ -135,15 +158,17 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
           .setPaddingXY(0, 0)
           .setAndFree(hdf5.readDataSet("param_0", "layer_32")
               .reshapeCast(7, 7, 512, 4096).permuteDimensionsAndFree(0, 1, 3, 2)
-          )
+          ),
+          convolutionDimensions(prototypeDimensions, 7, 7, 4096, 0, 0, 1, 1)
       );
     } else {
-      add(new ImgModulusPaddingLayer(7, 7));
-      add(new ImgReshapeLayer(7, 7, false));
+      add(new ImgModulusPaddingLayer(7, 7), modulusDimensions(prototypeDimensions, 7, 7));
+      add(new ImgReshapeLayer(7, 7, false), reshapeDimensions(prototypeDimensions, 7, 7));
       add(new ConvolutionLayer(1, 1, 25088, 4096)
           .setPaddingXY(0, 0)
           .setAndFree(hdf5.readDataSet("param_0", "layer_32")
-              .permuteDimensionsAndFree(fullyconnectedOrder))
+              .permuteDimensionsAndFree(fullyconnectedOrder)),
+          convolutionDimensions(prototypeDimensions, 1, 1, 4096, 0, 0, 1, 1)
       );
     }
 
@@ -161,7 +186,8 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
     add(new ConvolutionLayer(1, 1, 4096, 4096)
         .setPaddingXY(0, 0)
         .setAndFree(hdf5.readDataSet("param_0", "layer_34")
-            .permuteDimensionsAndFree(fullyconnectedOrder))
+            .permuteDimensionsAndFree(fullyconnectedOrder)),
+        convolutionDimensions(prototypeDimensions, 1, 1, 4096, 0, 0, 1, 1)
     );
     add(new ImgBandBiasLayer(4096)
         .setAndFree((hdf5.readDataSet("param_1", "layer_34"))));
@@ -170,7 +196,8 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
     add(new ConvolutionLayer(1, 1, 4096, 1000)
         .setPaddingXY(0, 0)
         .setAndFree(hdf5.readDataSet("param_0", "layer_36")
-            .permuteDimensionsAndFree(fullyconnectedOrder))
+            .permuteDimensionsAndFree(fullyconnectedOrder)),
+        convolutionDimensions(prototypeDimensions, 1, 1, 1000, 0, 0, 1, 1)
     );
     add(new ImgBandBiasLayer(1000)
         .setAndFree((hdf5.readDataSet("param_1", "layer_36"))));
@@ -178,21 +205,22 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
 
   protected void addPoolingLayer(final int size) {
     if (large) {
-      add(new ImgModulusPaddingLayer(size, size));
+      add(new ImgModulusPaddingLayer(size, size), modulusDimensions(prototypeDimensions, size, size));
     } else {
-      add(new ImgModulusPaddingLayer(-size, -size));
+      add(new ImgModulusPaddingLayer(-size, -size), modulusDimensions(prototypeDimensions, -size, -size));
     }
     add(new PoolingLayer()
         .setMode(PoolingLayer.PoolingMode.Max)
         .setWindowXY(size, size)
-        .setStrideXY(size, size));
+        .setStrideXY(size, size), poolingDimensions(prototypeDimensions, size, size, size, size));
   }
 
   protected void addConvolutionLayer(final int radius, final int inputBands, final int outputBands, final ActivationLayer.Mode activationMode, final String hdf_group) {
     add(new ConvolutionLayer(radius, radius, inputBands, outputBands)
         .setPaddingXY(0, 0)
         .setAndFree(hdf5.readDataSet("param_0", hdf_group)
-            .permuteDimensionsAndFree(convolutionOrder))
+            .permuteDimensionsAndFree(convolutionOrder)),
+        convolutionDimensions(prototypeDimensions, radius, radius, outputBands, 0, 0, 1, 1)
     );
     add(new ImgBandBiasLayer(outputBands)
         .setAndFree((hdf5.readDataSet("param_1", hdf_group))));
@@ -207,6 +235,33 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
         .setMode(getFinalPoolingMode()));
   }
 
+  /**
+   * Selects the weight cache entry for this model, if the archive is a {@link WeightCache}. The cache holds datasets as
+   * read, before any permutation or precision conversion, so one entry serves every precision and layout flag.
+   *
+   * @return true if the weights will be served from a warm cache
+   */
+  protected boolean openWeightCache() {
+    if (!(hdf5 instanceof WeightCache)) return false;
+    return ((WeightCache) hdf5).open("vgg16");
+  }
+
+  /**
+   * Publishes the weights read since {@link #openWeightCache()}. Subclasses that stop construction early must call
+   * this themselves once every dataset has been read, since an aborted build is otherwise discarded.
+   */
+  protected void commitWeightCache() {
+    if (hdf5 instanceof WeightCache) ((WeightCache) hdf5).commit();
+  }
+
+  /**
+   * Drops any weights read since {@link #openWeightCache()} that were not committed, so that a partial construction
+   * never publishes an incomplete entry.
+   */
+  protected void abortWeightCache() {
+    if (hdf5 instanceof WeightCache) ((WeightCache) hdf5).abort();
+  }
+
   @Override
   public Hdf5Archive getHDF5() {
     return hdf5;
@@ -252,73 +307,74 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
     @Override
     public Layer buildNetwork() {
       if (null != this.prototype) this.prototype.freeRef();
-      prototype = new Tensor(224, 224, 3);
+      prototype = isValidatePrototypes() ? new Tensor(224, 224, 3) : null;
+      prototypeDimensions = new int[]{224, 224, 3};
       //  model.add(ZeroPadding2D((1,1),input_shape=(3,224,224)))
-      add(new AssertDimensionsLayer(224, 224, 3));
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new AssertDimensionsLayer(224, 224, 3), new int[]{224, 224, 3});
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(64, 3, 3, activation='relu'))
       add(new ConvolutionLayer(3, 3, 3, 64)
           .setPaddingXY(0, 0)
           .set(hdf5.readDataSet("param_0", "layer_1")
-              .permuteDimensions(convolutionOrder)));
+              .permuteDimensions(convolutionOrder)), convolutionDimensions(prototypeDimensions, 3, 3, 64, 0, 0, 1, 1));
       add(new ImgBandBiasLayer(64)
           .set((hdf5.readDataSet("param_1", "layer_1"))));
       add(new ActivationLayer(ActivationLayer.Mode.RELU));
 
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(64, 3, 3, activation='relu'))
       addConvolution(3, 64, 64, "layer_3");
       //  model.add(MaxPooling2D((2,2), strides=(2,2)))
       addPoolingLayer(2);
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(128, 3, 3, activation='relu'))
       addConvolution(3, 64, 128, "layer_6");
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(128, 3, 3, activation='relu'))
       addConvolution(3, 128, 128, "layer_8");
       //  model.add(MaxPooling2D((2,2), strides=(2,2)))
       addPoolingLayer(2);
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(256, 3, 3, activation='relu'))
       addConvolution(3, 128, 256, "layer_11");
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(256, 3, 3, activation='relu'))
       addConvolution(3, 256, 256, "layer_13");
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(256, 3, 3, activation='relu'))
       addConvolution(3, 256, 256, "layer_15");
       //  model.add(MaxPooling2D((2,2), strides=(2,2)))
       addPoolingLayer(2);
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(512, 3, 3, activation='relu'))
       addConvolution(3, 256, 512, "layer_18");
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(512, 3, 3, activation='relu'))
       addConvolution(3, 512, 512, "layer_20");
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(512, 3, 3, activation='relu'))
       addConvolution(3, 512, 512, "layer_22");
       //  model.add(MaxPooling2D((2,2), strides=(2,2)))
       addPoolingLayer(2);
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(512, 3, 3, activation='relu'))
       addConvolution(3, 512, 512, "layer_25");
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(512, 3, 3, activation='relu'))
       addConvolution(3, 512, 512, "layer_27");
       //  model.add(ZeroPadding2D((1,1)))
-      add(new ImgZeroPaddingLayer(1, 1));
+      add(new ImgZeroPaddingLayer(1, 1), paddingDimensions(prototypeDimensions, 1, 1));
       //  model.add(Convolution2D(512, 3, 3, activation='relu'))
       addConvolution(3, 512, 512, "layer_29");
       //  model.add(MaxPooling2D((2,2), strides=(2,2)))
@@ -359,7 +415,7 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
       add(new PoolingLayer()
           .setMode(PoolingLayer.PoolingMode.Max)
           .setWindowXY(size, size)
-          .setStrideXY(size, size));
+          .setStrideXY(size, size), poolingDimensions(prototypeDimensions, size, size, size, size));
     }
 
     public void addConvolution(final int radius, final int inputBands, final int outputBands, final String layer) {
@@ -411,7 +467,7 @@ public class VGG16_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
       stochasticNet.wrap(new ImgBandBiasLayer(1000)
           .setAndFree((hdf5.readDataSet("param_1", "layer_36")))).freeRef();
 
-      add(new StochasticSamplingSubnetLayer(stochasticNet, samples));
+      add(new StochasticSamplingSubnetLayer(stochasticNet, samples), bandDimensions(prototypeDimensions, 1000));
     }
 
     public int getSamples() {
@@ -40,7 +40,7 @@ public abstract class VGG19 extends VGG {
 
   public static ImageClassifier fromHDF5(final File hdf) {
     try {
-      return new VGG19_HDF5(new Hdf5Archive(hdf));
+      return new VGG19_HDF5(new WeightCache(hdf));
     } catch (@Nonnull final RuntimeException e) {
       throw e;
     } catch (Throwable e) {
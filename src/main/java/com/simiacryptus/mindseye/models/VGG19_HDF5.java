@@ -30,6 +30,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Arrays;
 
 public class VGG19_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
 
@@ -49,23 +51,41 @@ public class VGG19_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
   }
 
   protected void add(@Nonnull Layer layer) {
-    Tensor newValue = evaluatePrototype(add(layer, pipeline), this.prototype, cnt++);
-    if (null != this.prototype) this.prototype.freeRef();
-    this.prototype = newValue;
+    add(layer, inferDimensions(layer, prototypeDimensions));
+  }
+
+  protected void add(@Nonnull Layer layer, @Nullable int[] dimensions) {
+    if (null == this.prototype) {
+      logDimensions(add(layer, pipeline), prototypeDimensions, dimensions, cnt++);
+    } else {
+      Tensor newValue = evaluatePrototype(add(layer, pipeline), this.prototype, cnt++);
+      if (null != dimensions && !Arrays.equals(dimensions, newValue.getDimensions())) {
+        throw new IllegalStateException(String.format("Inferred dimensions %s but evaluated %s",
+            Arrays.toString(dimensions), Arrays.toString(newValue.getDimensions())));
+      }
+      this.prototype.freeRef();
+      this.prototype = newValue;
+      dimensions = newValue.getDimensions();
+    }
+    prototypeDimensions = dimensions;
   }
 
   public Layer buildNetwork() {
+    openWeightCache();
     try {
       if (null != this.prototype) this.prototype.freeRef();
-      prototype = new Tensor(226, 226, 3);
+      prototype = isValidatePrototypes() ? new Tensor(226, 226, 3) : null;
+      prototypeDimensions = new int[]{226, 226, 3};
       phase0();
       phase1();
       phase2();
       phase3();
+      commitWeightCache();
       return pipeline;
     } finally {
-      prototype.freeRef();
+      if (null != prototype) prototype.freeRef();
       prototype = null;
+      abortWeightCache();
     }
   }
 
@@ -78,7 +98,7 @@ public class VGG19_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
   }
 
   protected void phase0() {
-    add(new ImgMinSizeLayer(226, 226));
+    add(new ImgMinSizeLayer(226, 226), minSizeDimensions(prototypeDimensions, 226, 226));
     Tensor tensor = new Tensor(-103.939, -116.779, -123.68);
     add(new ImgBandBiasLayer(3).setAndFree(tensor));
   }
@@ -130,9 +150,9 @@ public class VGG19_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
 
   protected void phase2b() {
     if (large) {
-      add(new ImgModulusPaddingLayer(7, 7));
+      add(new ImgModulusPaddingLayer(7, 7), modulusDimensions(prototypeDimensions, 7, 7));
     } else {
-      add(new ImgModulusPaddingLayer(-7, -7));
+      add(new ImgModulusPaddingLayer(-7, -7), modulusDimensions(prototypeDimensions, -7, -7));
     }
 
     if (dense) {
@@ -141,15 +161,17 @@ public class VGG19_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
           .setPaddingXY(0, 0)
           .setAndFree(hdf5.readDataSet("param_0", "layer_38")
               .reshapeCastAndFree(7, 7, 512, 4096).permuteDimensionsAndFree(0, 1, 3, 2)
-          )
+          ),
+          convolutionDimensions(prototypeDimensions, 7, 7, 4096, 0, 0, 1, 1)
       );
     } else {
-      add(new ImgModulusPaddingLayer(7, 7));
-      add(new ImgReshapeLayer(7, 7, false));
+      add(new ImgModulusPaddingLayer(7, 7), modulusDimensions(prototypeDimensions, 7, 7));
+      add(new ImgReshapeLayer(7, 7, false), reshapeDimensions(prototypeDimensions, 7, 7));
       add(new ConvolutionLayer(1, 1, 25088, 4096)
           .setPaddingXY(0, 0)
           .setAndFree(hdf5.readDataSet("param_0", "layer_38")
-              .permuteDimensionsAndFree(fullyconnectedOrder))
+              .permuteDimensionsAndFree(fullyconnectedOrder)),
+          convolutionDimensions(prototypeDimensions, 1, 1, 4096, 0, 0, 1, 1)
       );
     }
 
@@ -167,7 +189,8 @@ public class VGG19_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
     add(new ConvolutionLayer(1, 1, 4096, 4096)
         .setPaddingXY(0, 0)
         .setAndFree(hdf5.readDataSet("param_0", "layer_40")
-            .permuteDimensionsAndFree(fullyconnectedOrder))
+            .permuteDimensionsAndFree(fullyconnectedOrder)),
+        convolutionDimensions(prototypeDimensions, 1, 1, 4096, 0, 0, 1, 1)
     );
     add(new ImgBandBiasLayer(4096)
         .setAndFree((hdf5.readDataSet("param_1", "layer_40"))));
@@ -176,7 +199,8 @@ public class VGG19_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
     add(new ConvolutionLayer(1, 1, 4096, 1000)
         .setPaddingXY(0, 0)
         .setAndFree(hdf5.readDataSet("param_0", "layer_42")
-            .permuteDimensionsAndFree(fullyconnectedOrder))
+            .permuteDimensionsAndFree(fullyconnectedOrder)),
+        convolutionDimensions(prototypeDimensions, 1, 1, 1000, 0, 0, 1, 1)
     );
     add(new ImgBandBiasLayer(1000)
         .setAndFree((hdf5.readDataSet("param_1", "layer_42"))));
@@ -184,21 +208,22 @@ public class VGG19_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
 
   protected void addPoolingLayer(final int size) {
     if (large) {
-      add(new ImgModulusPaddingLayer(size, size));
+      add(new ImgModulusPaddingLayer(size, size), modulusDimensions(prototypeDimensions, size, size));
     } else {
-      add(new ImgModulusPaddingLayer(-size, -size));
+      add(new ImgModulusPaddingLayer(-size, -size), modulusDimensions(prototypeDimensions, -size, -size));
     }
     add(new PoolingLayer()
         .setMode(PoolingLayer.PoolingMode.Max)
         .setWindowXY(size, size)
-        .setStrideXY(size, size));
+        .setStrideXY(size, size), poolingDimensions(prototypeDimensions, size, size, size, size));
   }
 
   protected void addConvolutionLayer(final int radius, final int inputBands, final int outputBands, final ActivationLayer.Mode activationMode, final String hdf_group) {
     add(new ConvolutionLayer(radius, radius, inputBands, outputBands)
         .setPaddingXY(0, 0)
         .setAndFree(hdf5.readDataSet("param_0", hdf_group)
-            .permuteDimensionsAndFree(convolutionOrder))
+            .permuteDimensionsAndFree(convolutionOrder)),
+        convolutionDimensions(prototypeDimensions, radius, radius, outputBands, 0, 0, 1, 1)
     );
     add(new ImgBandBiasLayer(outputBands)
         .setAndFree((hdf5.readDataSet("param_1", hdf_group))));
@@ -213,6 +238,33 @@ public class VGG19_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
         .setMode(getFinalPoolingMode()));
   }
 
+  /**
+   * Selects the weight cache entry for this model, if the archive is a {@link WeightCache}. The cache holds datasets as
+   * read, before any permutation or precision conversion, so one entry serves every precision and layout flag.
+   *
+   * @return true if the weights will be served from a warm cache
+   */
+  protected boolean openWeightCache() {
+    if (!(hdf5 instanceof WeightCache)) return false;
+    return ((WeightCache) hdf5).open("vgg19");
+  }
+
+  /**
+   * Publishes the weights read since {@link #openWeightCache()}. Subclasses that stop construction early must call
+   * this themselves once every dataset has been read, since an aborted build is otherwise discarded.
+   */
+  protected void commitWeightCache() {
+    if (hdf5 instanceof WeightCache) ((WeightCache) hdf5).commit();
+  }
+
+  /**
+   * Drops any weights read since {@link #openWeightCache()} that were not committed, so that a partial construction
+   * never publishes an incomplete entry.
+   */
+  protected void abortWeightCache() {
+    if (hdf5 instanceof WeightCache) ((WeightCache) hdf5).abort();
+  }
+
   @Override
   public Hdf5Archive getHDF5() {
     return hdf5;
@@ -289,7 +341,7 @@ public class VGG19_HDF5 extends VGG16 implements NetworkFactory, HasHDF5 {
       stochasticNet.wrap(new ImgBandBiasLayer(1000)
           .setAndFree((hdf5.readDataSet("param_1", "layer_42")))).freeRef();
 
-      add(new StochasticSamplingSubnetLayer(stochasticNet, samples));
+      add(new StochasticSamplingSubnetLayer(stochasticNet, samples), bandDimensions(prototypeDimensions, 1000));
     }
 
     public int getSamples() {
@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.models;
+
+import com.google.gson.Gson;
+import com.simiacryptus.mindseye.lang.Tensor;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * An Hdf5Archive backed by an on-disk cache of its datasets. Each cache entry is a block of raw little-endian floats in
+ * Tensor (column-major) order, plus a JSON manifest describing the datasets it contains. The cache stores datasets as
+ * read; any permutation or precision conversion done by the consumer still runs on a warm start. Entries are keyed by
+ * a fingerprint of the source archive and a caller-supplied variant string naming the set of datasets read; a warm
+ * cache is memory-mapped and never opens the underlying HDF5 file.
+ * <p>
+ * The fingerprint covers only the archive's name, size and modification time, so an archive replaced in place by one
+ * with the same size and modification time is not detected; delete the cache directory after such a replacement.
+ */
+public class WeightCache extends Hdf5Archive {
+  private static final Logger log = LoggerFactory.getLogger(WeightCache.class);
+  private static final int STAGING_FLOATS = 1 << 16;
+
+  @Nonnull
+  private final File cacheDir;
+  @Nullable
+  private Manifest pending = null;
+  @Nullable
+  private File pendingFile = null;
+  @Nullable
+  private FileChannel pendingChannel = null;
+  @Nullable
+  private String key = null;
+  @Nullable
+  private Manifest manifest = null;
+  @Nullable
+  private FloatBuffer mapped = null;
+
+  public WeightCache(@Nonnull File filename) {
+    this(filename, new File("weight_cache"));
+  }
+
+  public WeightCache(@Nonnull File filename, @Nonnull File cacheDir) {
+    super(filename);
+    this.cacheDir = cacheDir;
+  }
+
+  @Nonnull
+  private static String datasetKey(CharSequence datasetName, @Nonnull CharSequence... groups) {
+    return Arrays.stream(groups).map(CharSequence::toString).collect(Collectors.joining("/")) + "/" + datasetName;
+  }
+
+  @Nonnull
+  private static String hex(@Nonnull byte[] bytes) {
+    @Nonnull StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) sb.append(String.format("%02x", b));
+    return sb.toString();
+  }
+
+  /**
+   * Selects the cache entry for the given variant, memory-mapping it if it already exists. Must be called before any
+   * datasets are read.
+   *
+   * @param variant a description of the set of datasets the consumer reads, e.g. the model name
+   * @return true if a warm entry was found
+   */
+  public synchronized boolean open(@Nonnull CharSequence variant) {
+    discard();
+    key = getFingerprint() + "_" + hex(digest(variant.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+    manifest = null;
+    mapped = null;
+    File manifestFile = new File(cacheDir, key + ".json");
+    File dataFile = new File(cacheDir, key + ".bin");
+    if (!manifestFile.exists() || !dataFile.exists()) {
+      log.info(String.format("Weight cache miss for %s (%s)", getFilename(), variant));
+      return false;
+    }
+    try {
+      Manifest manifest = new Gson().fromJson(FileUtils.readFileToString(manifestFile, StandardCharsets.UTF_8), Manifest.class);
+      try (RandomAccessFile file = new RandomAccessFile(dataFile, "r")) {
+        if (file.length() != manifest.floats * Float.BYTES) {
+          log.warn(String.format("Ignoring truncated weight cache %s", dataFile));
+          return false;
+        }
+        mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length())
+            .order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+      }
+      this.manifest = manifest;
+      log.info(String.format("Weight cache hit for %s (%s): %s datasets", getFilename(), variant, manifest.entries.size()));
+      return true;
+    } catch (Throwable e) {
+      log.warn(String.format("Error reading weight cache %s", manifestFile), e);
+      manifest = null;
+      mapped = null;
+      return false;
+    }
+  }
+
+  public synchronized boolean isWarm() {
+    return null != manifest;
+  }
+
+  @Nullable
+  @Override
+  public synchronized Tensor readDataSet(CharSequence datasetName, @Nonnull CharSequence... groups) {
+    String datasetKey = datasetKey(datasetName, groups);
+    if (null != manifest) {
+      Entry entry = manifest.entries.get(datasetKey);
+      if (null != entry) {
+        @Nonnull double[] values = new double[Tensor.length(entry.dims)];
+        FloatBuffer buffer = mapped.duplicate();
+        buffer.position((int) entry.offset);
+        @Nonnull float[] staging = new float[Math.min(values.length, STAGING_FLOATS)];
+        for (int i = 0; i < values.length; i += staging.length) {
+          int count = Math.min(staging.length, values.length - i);
+          buffer.get(staging, 0, count);
+          for (int j = 0; j < count; j++) values[i + j] = staging[j];
+        }
+        return new Tensor(values, entry.dims);
+      }
+      log.warn(String.format("Dataset %s missing from weight cache; reading %s", datasetKey, getFilename()));
+    }
+    Tensor tensor = super.readDataSet(datasetName, groups);
+    if (null != key && null == manifest && null != tensor) append(datasetKey, tensor);
+    return tensor;
+  }
+
+  private void append(@Nonnull String datasetKey, @Nonnull Tensor tensor) {
+    try {
+      if (null == pending) {
+        cacheDir.mkdirs();
+        pendingFile = File.createTempFile(key, ".bin.tmp", cacheDir);
+        pendingChannel = new FileOutputStream(pendingFile).getChannel();
+        pending = new Manifest();
+        pending.source = getFilename().getName();
+      }
+      if (pending.entries.containsKey(datasetKey)) return;
+      double[] data = tensor.getData();
+      ByteBuffer buffer = ByteBuffer.allocate(data.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      FloatBuffer floats = buffer.asFloatBuffer();
+      for (double v : data) floats.put((float) v);
+      while (buffer.hasRemaining()) pendingChannel.write(buffer);
+      @Nonnull Entry entry = new Entry();
+      entry.dims = tensor.getDimensions();
+      entry.offset = pending.floats;
+      pending.entries.put(datasetKey, entry);
+      pending.floats += data.length;
+    } catch (IOException e) {
+      log.warn("Error writing weight cache", e);
+      discard();
+    }
+  }
+
+  /**
+   * Publishes all datasets read since {@link #open(CharSequence)}, if the entry was not already warm. Data is streamed
+   * to a temporary file as it is read; this atomically renames it and its manifest into place. Only call this once every
+   * dataset of the variant has been read; otherwise call {@link #abort()}.
+   */
+  public synchronized void commit() {
+    if (null == key || null != manifest || null == pending) return;
+    try {
+      pendingChannel.close();
+      File manifestTmp = File.createTempFile(key, ".json.tmp", cacheDir);
+      FileUtils.write(manifestTmp, new Gson().toJson(pending), StandardCharsets.UTF_8);
+      Files.move(pendingFile.toPath(), new File(cacheDir, key + ".bin").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      Files.move(manifestTmp.toPath(), new File(cacheDir, key + ".json").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      log.info(String.format("Wrote weight cache %s: %s datasets, %s floats", key, pending.entries.size(), pending.floats));
+      pendingFile = null;
+    } catch (IOException e) {
+      log.warn("Error writing weight cache", e);
+    } finally {
+      discard();
+    }
+  }
+
+  /**
+   * Drops all datasets read since {@link #open(CharSequence)} without publishing them. Call this when the consumer
+   * stops before reading every dataset, so that a later full read does not find a partial entry and mistake it for a
+   * warm one. Does nothing after {@link #commit()}.
+   */
+  public synchronized void abort() {
+    discard();
+  }
+
+  private void discard() {
+    if (null != pendingChannel) {
+      try {
+        pendingChannel.close();
+      } catch (IOException e) {
+        log.debug("Error closing weight cache", e);
+      }
+    }
+    if (null != pendingFile) pendingFile.delete();
+    pendingChannel = null;
+    pendingFile = null;
+    pending = null;
+  }
+
+  /**
+   * A cheap identity for the source archive, derived from its name, size and modification time rather than a full
+   * content hash of several hundred megabytes. It does not change if the file is replaced with the same size and
+   * modification time.
+   *
+   * @return the fingerprint
+   */
+  @Nonnull
+  public String getFingerprint() {
+    File file = getFilename();
+    return hex(digest(String.format("%s:%d:%d", file.getName(), file.length(), file.lastModified())
+        .getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+  }
+
+  @Nonnull
+  private byte[] digest(@Nonnull byte[] bytes) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(bytes);
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("WeightCache{%s, %s}", getFilename(), cacheDir);
+  }
+
+  private static class Manifest {
+    String source;
+    long floats;
+    Map<String, Entry> entries = new LinkedHashMap<>();
+  }
+
+  private static class Entry {
+    int[] dims;
+    long offset;
+  }
+}
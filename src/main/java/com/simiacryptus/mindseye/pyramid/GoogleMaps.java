@@ -22,14 +22,18 @@ package com.simiacryptus.mindseye.pyramid;
 import com.simiacryptus.mindseye.applications.ArtistryUtil;
 import com.simiacryptus.util.binary.Bits;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.annotation.Nonnull;
-import java.awt.image.BufferedImage;
+import javax.annotation.Nullable;
 import java.awt.image.WritableRaster;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.IntStream;
 
 public final class GoogleMaps {
+  private static final Logger logger = LoggerFactory.getLogger(GoogleMaps.class);
 
   public enum Mars {
     Elevation("https://mw1.google.com/mw-planetary/mars/elevation/t"),
@@ -47,8 +51,8 @@ public final class GoogleMaps {
     public ValueSampler getValueSampler(final int level) {
       double aspect = 1.0;
       double tileSize = 256;
-      Map<String, BufferedImage> cache = new HashMap<>();
       ValueSampler upperLevel = level > 1 ? getValueSampler(level - 1) : null;
+      Set<String> missing = ConcurrentHashMap.newKeySet();
       return (xf, yf, band) -> {
         while (xf < 0) xf += 1;
         while (yf < 0) yf += aspect;
@@ -77,14 +81,14 @@ public final class GoogleMaps {
         int x = (int) ((xf * mag - col) * tileSize);
         int y = (int) ((yf * mag - row) * tileSize);
         String tilename = prefix + code + ".jpg";
-        WritableRaster raster = cache.computeIfAbsent(tilename, s -> {
+        @Nullable WritableRaster raster = null;
+        if (!missing.contains(tilename)) {
           try {
-            return ArtistryUtil.load(s, -1);
+            raster = TileCache.SHARED.get(tilename, s -> ArtistryUtil.load(s, -1).getRaster());
           } catch (Throwable e) {
-            e.printStackTrace();
-            return null;
+            if (missing.add(tilename)) logger.warn("Error getting " + tilename, e);
           }
-        }).getRaster();
+        }
         if (raster == null) {
           if (null == upperLevel) return 0;
           else return upperLevel.getValue(xf, yf, band);
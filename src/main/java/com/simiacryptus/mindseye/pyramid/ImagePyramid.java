@@ -34,12 +34,22 @@ import javax.annotation.Nonnull;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -80,17 +90,14 @@ public final class ImagePyramid implements Serializable {
   @NotNull
   public static BufferedImage renderTile(int row, int col, ValueSampler sampler, int tileSize, int level) {
     BufferedImage image = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
-    WritableRaster raster = image.getRaster();
     double mag = Math.pow(2, level);
-    for (int y = 0; y < tileSize; y++) {
-      for (int x = 0; x < tileSize; x++) {
-        for (int b = 0; b < 3; b++) {
-          double xf = (((double) x / tileSize) + col) / mag;
-          double yf = (((double) y / tileSize) + row) / mag;
-          raster.setSample(x, y, b, sampler.getValue(xf, yf, b));
-        }
-      }
+    double[] xs = new double[tileSize];
+    double[] ys = new double[tileSize];
+    for (int i = 0; i < tileSize; i++) {
+      xs[i] = (((double) i / tileSize) + col) / mag;
+      ys[i] = (((double) i / tileSize) + row) / mag;
     }
+    sampler.fill(xs, ys, PyramidUtil.getData(image.getRaster()), 0, tileSize);
     return image;
   }
 
@@ -105,9 +112,53 @@ public final class ImagePyramid implements Serializable {
   }
 
   public void rebuild(final int minLevel) {
-    for (int level = getLevel() - 1; level >= minLevel; level--) {
-      new ImagePyramid(getTileSize(), level, getAspect(), getPrefix()).reduceImagePyramidLayer(PyramidUtil::reduce, true);
+    rebuild(minLevel, PyramidUtil::reduce);
+  }
+
+  /**
+   * Rebuilds every level from minLevel up to (but excluding) this one as a single quadtree traversal on the fork-join
+   * pool. Each reduced tile is handed to its parent in memory, so every tile of this level is decoded once and every
+   * output tile is encoded once, and work on different levels overlaps as a wavefront. Tiles whose children fall
+   * outside the pyramid, which only happens on the last row of pyramids with a non-power-of-two aspect, are reduced
+   * afterwards from storage in the usual way.
+   *
+   * @param minLevel      the lowest level to rebuild
+   * @param tileProcessor the reduction from a 2x2 block of tiles to one tile
+   */
+  public void rebuild(final int minLevel, final Function<BufferedImage, BufferedImage> tileProcessor) {
+    if (minLevel >= getLevel()) return;
+    long startTime = System.nanoTime();
+    ValueSampler source = newSampler();
+    Queue<int[]> deferred = new ConcurrentLinkedQueue<>();
+    List<ReduceTask> roots = new ArrayList<>();
+    for (int row = 0; row < getRows(minLevel); row++) {
+      for (int col = 0; col < (int) Math.pow(2, minLevel); col++) {
+        roots.add(new ReduceTask(minLevel, row, col, source, tileProcessor, deferred));
+      }
+    }
+    ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+      @Override
+      protected void compute() {
+        invokeAll(roots);
+      }
+    });
+    List<int[]> pending = deferred.stream().sorted(Comparator.comparingInt((int[] x) -> -x[0])).collect(Collectors.toList());
+    for (int i = 0; i < pending.size(); ) {
+      int level = pending.get(i)[0];
+      ValueSampler sampler = new ImagePyramid(getTileSize(), level + 1, getAspect(), getPrefix()).newSampler();
+      for (; i < pending.size() && pending.get(i)[0] == level; i++) {
+        reduceTile(sampler, tileProcessor, level, pending.get(i)[1], pending.get(i)[2]);
+      }
     }
+    TileManifest manifest = getManifest();
+    for (int level = minLevel; level < getLevel(); level++) manifest.setIndexed(level);
+    manifest.flush();
+    logger.info(String.format("Rebuilt levels %d-%d of %s in %.3fs (%d tiles deferred)",
+        minLevel, getLevel() - 1, getPrefix(), (System.nanoTime() - startTime) / 1e9, pending.size()));
+  }
+
+  private int getRows(final int level) {
+    return (int) Math.ceil(Math.pow(2, level) * getAspect());
   }
 
   @Nonnull
@@ -169,20 +220,24 @@ public final class ImagePyramid implements Serializable {
     int height = getTileSize() + buffer * 2;
     BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
     WritableRaster imageRaster = bufferedImage.getRaster();
-    int errThrottle = 10;
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        for (int b = 0; b < imageRaster.getNumBands(); b++) {
-          double xf = (((double) (x - buffer) / getTileSize()) + col) / Math.pow(2, getLevel());
-          double yf = (((double) (y - buffer) / getTileSize()) + row) / Math.pow(2, getLevel());
-          while (xf < 0) xf += 1;
-          while (xf >= 1) xf -= 1;
-          while (yf < 0) yf += getAspect();
-          while (yf >= getAspect()) yf -= getAspect();
-          try {
-            imageRaster.setSample(x, y, b, sample.getValue(xf, yf, b));
-          } catch (Throwable e) {
-            if (errThrottle-- > 0) logger.warn(String.format("Error with pixel %d,%d,%d aka %s,%s with size %s/%s", x, y, b, xf, yf, width, getAspect()), e);
+    double mag = Math.pow(2, getLevel());
+    double[] xs = new double[width];
+    for (int x = 0; x < width; x++) xs[x] = PyramidUtil.wrap((((double) (x - buffer) / getTileSize()) + col) / mag, 1);
+    double[] ys = new double[height];
+    for (int y = 0; y < height; y++) ys[y] = PyramidUtil.wrap((((double) (y - buffer) / getTileSize()) + row) / mag, getAspect());
+    try {
+      sample.fill(xs, ys, PyramidUtil.getData(imageRaster), 0, width);
+    } catch (Throwable e) {
+      logger.warn(String.format("Error sampling tile %d,%d; retrying per pixel", row, col), e);
+      int errThrottle = 10;
+      for (int x = 0; x < width; x++) {
+        for (int y = 0; y < height; y++) {
+          for (int b = 0; b < imageRaster.getNumBands(); b++) {
+            try {
+              imageRaster.setSample(x, y, b, sample.getValue(xs[x], ys[y], b));
+            } catch (Throwable e2) {
+              if (errThrottle-- > 0) logger.warn(String.format("Error with pixel %d,%d,%d aka %s,%s with size %s/%s", x, y, b, xs[x], ys[y], width, getAspect()), e2);
+            }
           }
         }
       }
@@ -197,7 +252,14 @@ public final class ImagePyramid implements Serializable {
       final int col
   ) {
     String name = String.format(getPrefix() + "%d_%d_%d.jpg", getLevel(), row, col);
-    log.jpgFile(this.renderTile(row, col, sampler), new File(log.getResourceDir(), name));
+    File file = new File(log.getResourceDir(), name);
+    log.jpgFile(this.renderTile(row, col, sampler), file);
+    TileCache.SHARED.invalidate("file:///" + file.getAbsolutePath());
+    try {
+      logRelative(log).getManifest().put(getLevel(), row, col, Files.readAllBytes(file.toPath()));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
   public void writeTiles(
@@ -211,6 +273,9 @@ public final class ImagePyramid implements Serializable {
         );
       });
     });
+    TileManifest manifest = logRelative(log).getManifest();
+    manifest.setIndexed(getLevel());
+    manifest.flush();
   }
 
   @Nonnull
@@ -244,47 +309,157 @@ public final class ImagePyramid implements Serializable {
 
   @Nonnull
   public ValueSampler newSampler() {
-    Map<String, WritableRaster> cache = new HashMap<>();
+    Set<String> missing = ConcurrentHashMap.newKeySet();
     ValueSampler upperLevel = getLevel() > 0 ? new ImagePyramid(
         getTileSize(),
         getLevel() - 1,
         getAspect(),
         getPrefix()
     ).newSampler() : null;
-    return (xf, yf, band) -> {
-      while (xf < 0) xf += 1;
-      while (yf < 0) yf += getAspect();
-      yf %= getAspect();
-      xf %= 1;
-      int col = (int) Math.floor((xf * Math.pow(2, getLevel())));
-      int row = (int) Math.floor((yf * Math.pow(2, getLevel())));
-      int x = (int) ((xf * Math.pow(2, getLevel()) - col) * getTileSize());
-      int y = (int) ((yf * Math.pow(2, getLevel()) - row) * getTileSize());
-      String tilename = getPrefix() + String.format("%d_%d_%d.jpg", getLevel(), row, col);
-      WritableRaster raster;
-      synchronized (cache) {
-        raster = cache.computeIfAbsent(tilename, s -> {
-          try {
-            return ArtistryUtil.load(s, -1).getRaster();
-          } catch (Throwable e) {
-            logger.warn("Error getting " + s, e);
-            return NULL_RASTER;
-          }
-        });
+    return new ValueSampler() {
+      @Override
+      public double getValue(double xf, double yf, final int band) {
+        while (xf < 0) xf += 1;
+        while (yf < 0) yf += getAspect();
+        yf %= getAspect();
+        xf %= 1;
+        int col = (int) Math.floor((xf * Math.pow(2, getLevel())));
+        int row = (int) Math.floor((yf * Math.pow(2, getLevel())));
+        int x = (int) ((xf * Math.pow(2, getLevel()) - col) * getTileSize());
+        int y = (int) ((yf * Math.pow(2, getLevel()) - row) * getTileSize());
+        WritableRaster raster = getTile(missing, row, col);
+        if (raster == null || raster.getWidth() == 1) {
+          if (null == upperLevel) return 0;
+          else return upperLevel.getValue(xf, yf, band);
+        } else {
+          while (x < 0) x += raster.getWidth();
+          x %= raster.getWidth();
+          while (y < 0) y += raster.getHeight();
+          y %= raster.getHeight();
+          return raster.getSampleDouble(x, y, band);
+        }
       }
-      if (raster == null || raster.getWidth() == 1) {
-        if (null == upperLevel) return 0;
-        else return upperLevel.getValue(xf, yf, band);
-      } else {
-        while (x < 0) x += raster.getWidth();
-        x %= raster.getWidth();
-        while (y < 0) y += raster.getHeight();
-        y %= raster.getHeight();
-        return raster.getSampleDouble(x, y, band);
+
+      @Override
+      public void fill(final double[] xs, final double[] ys, final int[] rgb, final int offset, final int scanline) {
+        double mag = Math.pow(2, getLevel());
+        double[] wrappedX = new double[xs.length];
+        int[] cols = new int[xs.length];
+        int[] texelX = new int[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+          double xf = xs[i];
+          while (xf < 0) xf += 1;
+          xf %= 1;
+          wrappedX[i] = xf;
+          cols[i] = (int) Math.floor(xf * mag);
+          texelX[i] = (int) ((xf * mag - cols[i]) * getTileSize());
+        }
+        // Runs of columns which share a source tile are the same for every row
+        int[] runEnds = new int[xs.length];
+        boolean[] contiguous = new boolean[xs.length];
+        int runs = 0;
+        for (int i = 0; i < xs.length; ) {
+          int end = i + 1;
+          boolean isContiguous = true;
+          while (end < xs.length && cols[end] == cols[i]) {
+            isContiguous &= texelX[end] == texelX[end - 1] + 1;
+            end++;
+          }
+          runEnds[runs] = end;
+          contiguous[runs++] = isContiguous;
+          i = end;
+        }
+        int lastRow = -1;
+        int lastCol = -1;
+        WritableRaster raster = null;
+        for (int j = 0; j < ys.length; j++) {
+          double yf = ys[j];
+          while (yf < 0) yf += getAspect();
+          yf %= getAspect();
+          int row = (int) Math.floor(yf * mag);
+          int y = (int) ((yf * mag - row) * getTileSize());
+          int base = offset + j * scanline;
+          for (int run = 0, start = 0; run < runs; start = runEnds[run++]) {
+            int end = runEnds[run];
+            if (row != lastRow || cols[start] != lastCol) {
+              raster = getTile(missing, row, cols[start]);
+              lastRow = row;
+              lastCol = cols[start];
+            }
+            if (raster == null || raster.getWidth() == 1) {
+              if (null == upperLevel) Arrays.fill(rgb, base + start, base + end, 0);
+              else upperLevel.fill(Arrays.copyOfRange(wrappedX, start, end), new double[]{yf}, rgb, base + start, scanline);
+              continue;
+            }
+            int[] data = PyramidUtil.getData(raster);
+            int width = raster.getWidth();
+            int source = (y % raster.getHeight()) * width;
+            if (contiguous[run] && texelX[end - 1] < width) {
+              System.arraycopy(data, source + texelX[start], rgb, base + start, end - start);
+            } else {
+              for (int i = start; i < end; i++) rgb[base + i] = data[source + texelX[i] % width];
+            }
+          }
+        }
       }
     };
   }
 
+  private WritableRaster getTile(@Nonnull final Set<String> missing, final int row, final int col) {
+    String tilename = getPrefix() + String.format("%d_%d_%d.jpg", getLevel(), row, col);
+    if (missing.contains(tilename)) return NULL_RASTER;
+    TileManifest manifest = getManifest();
+    if (!manifest.mayExist(getLevel(), row, col)) {
+      missing.add(tilename);
+      return NULL_RASTER;
+    }
+    try {
+      return TileCache.SHARED.get(tilename, s -> PyramidUtil.toIntRGB(loadTile(manifest, s, row, col)).getRaster());
+    } catch (Throwable e) {
+      if (missing.add(tilename)) logger.warn("Error getting " + tilename, e);
+      return NULL_RASTER;
+    }
+  }
+
+  @Nonnull
+  private BufferedImage loadTile(@Nonnull final TileManifest manifest, final String tilename, final int row, final int col) {
+    TileManifest.Entry entry = manifest.getEntry(getLevel(), row, col);
+    if (null == entry) return ArtistryUtil.load(tilename, -1);
+    byte[] data = HadoopUtil.getData(tilename);
+    if (!entry.matches(data)) {
+      logger.warn(String.format("%s does not match its manifest entry; dropping the entry", tilename));
+      manifest.remove(getLevel(), row, col);
+    }
+    try {
+      BufferedImage image = ImageIO.read(new ByteArrayInputStream(data));
+      if (null == image) throw new IllegalArgumentException("Error reading " + tilename);
+      return image;
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return the existence index of this pyramid's tiles, shared by all pyramids with the same prefix
+   */
+  @Nonnull
+  public TileManifest getManifest() {
+    return TileManifest.get(getPrefix());
+  }
+
+  /**
+   * Rebuilds the manifest from a listing of this pyramid's storage, so that a pyramid written without one can be
+   * sampled without probing for missing tiles.
+   *
+   * @return this
+   */
+  @Nonnull
+  public ImagePyramid index() {
+    TileManifest manifest = getManifest().scan(getLevel());
+    manifest.flush();
+    return this;
+  }
+
   public void buildNewImagePyramidLayer(
       final int scaleJump,
       final int padding,
@@ -293,6 +468,9 @@ public final class ImagePyramid implements Serializable {
       final boolean parallel
   ) {
     getImageTiles(padding, parallel).stream().forEach(tile -> collect(scaleJump, padding, baseDest, new ImageTile(tile.row, tile.col, tileProcessor.apply(tile.getImage()))));
+    TileManifest manifest = TileManifest.get(baseDest);
+    for (int level = getLevel() + 1; level <= getLevel() + scaleJump; level++) manifest.setIndexed(level);
+    manifest.flush();
   }
 
   public List<ImageTile> getImageTiles(int padding, boolean parallel) {
@@ -329,20 +507,26 @@ public final class ImagePyramid implements Serializable {
     IntStream.range(1, scaleJump + 1).forEach(jumpIndex -> {
       IntStream.range(0, (int) Math.pow(2, jumpIndex)).parallel().forEach(row -> {
         IntStream.range(0, (int) Math.pow(2, jumpIndex)).forEach(col -> {
+          int tileLevel = jumpIndex + getLevel();
+          int tileRow = (int) (row + Math.pow(2, jumpIndex) * imageTile.getRow());
+          int tileCol = (int) (col + Math.pow(2, jumpIndex) * imageTile.getCol());
           String tilename = String.format(
               "%d_%d_%d.jpg",
-              jumpIndex + getLevel(),
-              (int) (row + Math.pow(2, jumpIndex) * imageTile.getRow()),
-              (int) (col + Math.pow(2, jumpIndex) * imageTile.getCol())
+              tileLevel,
+              tileRow,
+              tileCol
           );
           logger.info("Writing " + baseDest + tilename);
+          byte[] data = TileManifest.encode(renderTile(row, col, tileSampler, getTileSize(), jumpIndex));
           FSDataOutputStream write = HadoopUtil.write(baseDest + tilename);
           try {
-            ImageIO.write(renderTile(row, col, tileSampler, getTileSize(), jumpIndex), "jpg", write);
+            write.write(data);
             write.close();
           } catch (IOException e) {
             throw new RuntimeException(e);
           }
+          TileCache.SHARED.invalidate(baseDest + tilename);
+          TileManifest.get(baseDest).put(tileLevel, tileRow, tileCol, data);
         });
       });
     });
@@ -370,30 +554,49 @@ public final class ImagePyramid implements Serializable {
         getAspect(),
         getPrefix()
     ).newSampler();
-    IntStream range = IntStream.range(0, (int) Math.ceil(Math.pow(2, getLevel()) * getAspect()));
+    IntStream range = IntStream.range(0, getRows(getLevel()));
     if (parallel) range = range.parallel();
     range.forEach(row0 -> {
       IntStream.range(0, (int) Math.pow(2, getLevel())).forEach(col0 -> {
-        BufferedImage readTile = new ImagePyramid(getTileSize() * 2, getLevel(), getAspect(), getPrefix()).tileImage(
-            row0, col0, imagePyramidReader, 0
-        );
-        BufferedImage resize = tileProcessor.apply(readTile);
-        String tilename = String.format(
-            "%d_%d_%d.jpg",
-            getLevel(),
-            row0,
-            col0
-        );
-        logger.info("Wrote " + getPrefix() + tilename);
-        FSDataOutputStream write = HadoopUtil.write(getPrefix() + tilename);
-        try {
-          ImageIO.write(resize, "jpg", write);
-          write.close();
-        } catch (IOException e) {
-          throw new RuntimeException(e);
-        }
+        reduceTile(imagePyramidReader, tileProcessor, getLevel(), row0, col0);
       });
     });
+    TileManifest manifest = getManifest();
+    manifest.setIndexed(getLevel());
+    manifest.flush();
+  }
+
+  private void reduceTile(
+      final ValueSampler upperLevel,
+      final Function<BufferedImage, BufferedImage> tileProcessor,
+      final int level,
+      final int row,
+      final int col
+  ) {
+    BufferedImage readTile = new ImagePyramid(getTileSize() * 2, level, getAspect(), getPrefix()).tileImage(
+        row, col, upperLevel, 0
+    );
+    writeTile(level, row, col, tileProcessor.apply(readTile));
+  }
+
+  private void writeTile(final int level, final int row, final int col, final BufferedImage image) {
+    String tilename = String.format(
+        "%d_%d_%d.jpg",
+        level,
+        row,
+        col
+    );
+    byte[] data = TileManifest.encode(image);
+    FSDataOutputStream write = HadoopUtil.write(getPrefix() + tilename);
+    try {
+      write.write(data);
+      write.close();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    TileCache.SHARED.invalidate(getPrefix() + tilename);
+    getManifest().put(level, row, col, data);
+    logger.info("Wrote " + getPrefix() + tilename);
   }
 
   public BufferedImage assemble(
@@ -408,10 +611,13 @@ public final class ImagePyramid implements Serializable {
   ) {
     int gridSize = (int) Math.pow(2, getLevel());
     int expectedMaxRow = (int) Math.ceil(gridSize * getAspect());
+    TileManifest source = getManifest();
+    TileManifest destination = TileManifest.get(dest);
     IntStream range = IntStream.range(0, expectedMaxRow);
     if (parallel) range = range.parallel();
     range.forEach(row0 -> {
       IntStream.range(0, gridSize).forEach(col0 -> {
+        if (!source.mayExist(getLevel(), row0, col0)) return;
         String tilename = String.format(
             "%d_%d_%d.jpg",
             getLevel(),
@@ -421,15 +627,20 @@ public final class ImagePyramid implements Serializable {
         String destName = dest + tilename;
         String srcName = getPrefix() + tilename;
         try {
+          byte[] data = HadoopUtil.getData(srcName);
           FSDataOutputStream write = HadoopUtil.write(destName);
-          IOUtils.write(HadoopUtil.getData(srcName), write);
+          IOUtils.write(data, write);
           write.close();
+          TileCache.SHARED.invalidate(destName);
+          destination.put(getLevel(), row0, col0, data);
+          logger.info(String.format("Wrote %s to %s", srcName, destName));
         } catch (Throwable e) {
-          e.printStackTrace();
+          logger.warn(String.format("Error copying %s to %s", srcName, destName), e);
         }
-        System.out.printf("Wrote %s to %s%n", srcName, destName);
       });
     });
+    destination.setIndexed(getLevel());
+    destination.flush();
   }
 
   public ImagePyramid writeViewer(
@@ -469,6 +680,70 @@ public final class ImagePyramid implements Serializable {
     return prefix;
   }
 
+  private class ReduceTask extends RecursiveTask<BufferedImage> {
+    private final int level;
+    private final int row;
+    private final int col;
+    private final ValueSampler source;
+    private final Function<BufferedImage, BufferedImage> tileProcessor;
+    private final Queue<int[]> deferred;
+
+    private ReduceTask(
+        final int level,
+        final int row,
+        final int col,
+        final ValueSampler source,
+        final Function<BufferedImage, BufferedImage> tileProcessor,
+        final Queue<int[]> deferred
+    ) {
+      this.level = level;
+      this.row = row;
+      this.col = col;
+      this.source = source;
+      this.tileProcessor = tileProcessor;
+      this.deferred = deferred;
+    }
+
+    @Override
+    protected BufferedImage compute() {
+      int tileSize = getTileSize();
+      if (level == getLevel()) {
+        return new ImagePyramid(tileSize, level, getAspect(), getPrefix()).tileImage(row, col, source, 0);
+      }
+      List<ReduceTask> children = new ArrayList<>();
+      for (int dr = 0; dr < 2; dr++) {
+        if (2 * row + dr >= getRows(level + 1)) continue;
+        for (int dc = 0; dc < 2; dc++) {
+          children.add(new ReduceTask(level + 1, 2 * row + dr, 2 * col + dc, source, tileProcessor, deferred));
+        }
+      }
+      invokeAll(children);
+      boolean complete = 4 == children.size();
+      BufferedImage assembled = new BufferedImage(tileSize * 2, tileSize * 2, BufferedImage.TYPE_INT_RGB);
+      int[] data = PyramidUtil.getData(assembled.getRaster());
+      for (int i = 0; i < children.size() && complete; i++) {
+        BufferedImage child = children.get(i).join();
+        if (null == child || child.getWidth() != tileSize || child.getHeight() != tileSize) {
+          complete = false;
+          break;
+        }
+        int[] childData = PyramidUtil.getData(PyramidUtil.toIntRGB(child).getRaster());
+        int offsetY = (i / 2) * tileSize;
+        int offsetX = (i % 2) * tileSize;
+        for (int y = 0; y < tileSize; y++) {
+          System.arraycopy(childData, y * tileSize, data, (offsetY + y) * tileSize * 2 + offsetX, tileSize);
+        }
+      }
+      if (!complete) {
+        deferred.add(new int[]{level, row, col});
+        return null;
+      }
+      BufferedImage reduced = tileProcessor.apply(assembled);
+      writeTile(level, row, col, reduced);
+      return reduced;
+    }
+  }
+
   public static class ImageTile implements Serializable {
     private final int row;
     private final int col;
@@ -34,7 +34,9 @@ import com.simiacryptus.util.Util;
 import org.apache.commons.io.IOUtils;
 
 import javax.annotation.Nonnull;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.WritableRaster;
 import java.io.*;
 import java.util.*;
@@ -48,8 +50,51 @@ public class PyramidUtil {
 
   private static int viewerId = 0;
 
+  /**
+   * Halves an image by averaging each 2x2 block with {@link ReductionKernels#box}. Images with an alpha channel keep
+   * their type and are reduced sample-wise; all others are reduced as TYPE_INT_RGB.
+   *
+   * @param image the image
+   * @return the reduced image
+   */
   @Nonnull
   public static BufferedImage reduce(final BufferedImage image) {
+    if (image.getColorModel().hasAlpha()) return reduceSamples(image);
+    return reduce(image, ReductionKernels::box);
+  }
+
+  /**
+   * Halves an image by averaging each 2x2 block in linear light, see {@link ReductionKernels#gamma}.
+   *
+   * @param image the image
+   * @return the reduced TYPE_INT_RGB image
+   */
+  @Nonnull
+  public static BufferedImage reduceGamma(final BufferedImage image) {
+    return reduce(image, ReductionKernels::gamma);
+  }
+
+  /**
+   * Halves an image with a Lanczos-3 filter, see {@link ReductionKernels#lanczos}.
+   *
+   * @param image the image
+   * @return the reduced TYPE_INT_RGB image
+   */
+  @Nonnull
+  public static BufferedImage reduceLanczos(final BufferedImage image) {
+    return reduce(image, ReductionKernels::lanczos);
+  }
+
+  @Nonnull
+  private static BufferedImage reduce(final BufferedImage image, @Nonnull final ReductionKernel kernel) {
+    BufferedImage source = toIntRGB(image);
+    BufferedImage result = new BufferedImage(image.getWidth() / 2, image.getHeight() / 2, BufferedImage.TYPE_INT_RGB);
+    kernel.reduce(getData(source.getRaster()), source.getWidth(), source.getHeight(), getData(result.getRaster()));
+    return result;
+  }
+
+  @Nonnull
+  private static BufferedImage reduceSamples(final BufferedImage image) {
     BufferedImage result = new BufferedImage(image.getWidth() / 2, image.getHeight() / 2, image.getType());
     WritableRaster imageRaster = image.getRaster();
     WritableRaster resultRaster = result.getRaster();
@@ -159,23 +204,46 @@ public class PyramidUtil {
   @Nonnull
   public static BufferedImage toImage(final ValueSampler sample, final int width, final int height) {
     BufferedImage bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-    WritableRaster imageRaster = bufferedImage.getRaster();
-    for (int x = 0; x < width; x++) {
-      for (int y = 0; y < height; y++) {
-        for (int b = 0; b < imageRaster.getNumBands(); b++) {
-          double xf = getAspect(x, width);
-          double yf = getAspect(y, width);
-          while (xf < 0) xf += 1;
-          while (xf >= 1) xf -= 1;
-          while (yf < 0) yf += 1;
-          while (yf >= 1) yf -= 1;
-          imageRaster.setSample(x, y, b, sample.getValue(xf, yf, b));
-        }
-      }
-    }
+    double[] xs = new double[width];
+    for (int x = 0; x < width; x++) xs[x] = wrap(getAspect(x, width), 1);
+    double[] ys = new double[height];
+    for (int y = 0; y < height; y++) ys[y] = wrap(getAspect(y, width), 1);
+    sample.fill(xs, ys, getData(bufferedImage.getRaster()), 0, width);
     return bufferedImage;
   }
 
+  public static double wrap(double value, final double period) {
+    while (value < 0) value += period;
+    while (value >= period) value -= period;
+    return value;
+  }
+
+  /**
+   * Returns the image unchanged if it is an unshared TYPE_INT_RGB image, otherwise a TYPE_INT_RGB copy, so that its
+   * pixels can be addressed through {@link #getData(WritableRaster)}.
+   *
+   * @param image the image
+   * @return a TYPE_INT_RGB image
+   */
+  @Nonnull
+  public static BufferedImage toIntRGB(@Nonnull final BufferedImage image) {
+    if (image.getType() == BufferedImage.TYPE_INT_RGB && null == image.getRaster().getParent()) return image;
+    BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = copy.createGraphics();
+    graphics.drawImage(image, 0, 0, null);
+    graphics.dispose();
+    return copy;
+  }
+
+  /**
+   * @param raster the raster of a TYPE_INT_RGB image from {@link #toIntRGB(BufferedImage)}
+   * @return its packed pixels, row-major with a scanline equal to the raster width
+   */
+  @Nonnull
+  public static int[] getData(@Nonnull final WritableRaster raster) {
+    return ((DataBufferInt) raster.getDataBuffer()).getData();
+  }
+
   public static void writeZip(
       final File root,
       final String file,
@@ -311,7 +379,6 @@ public class PyramidUtil {
         );
         sublog.p(sublog.jpg(image, "Input"));
         transformer.setLog(sublog).setImageArtOpParams(imageArtOpParams1);
-        final HashMap<SegmentedStyleTransfer.MaskJob, Set<Tensor>> originalCache = new HashMap<>(styleTransfer.getMaskCache());
         final Tensor result;
         if (tileLayout.getCols() > 1 || tileLayout.getRows() > 1) {
           result = ImageArtUtil.tiledTransfer(
@@ -335,8 +402,6 @@ public class PyramidUtil {
               Tensor.fromRGB(canvas)
           );
         }
-        styleTransfer.getMaskCache().clear();
-        styleTransfer.getMaskCache().putAll(originalCache);
         BufferedImage resultImage = result.toImage();
         sublog.p(sublog.jpg(resultImage, "Result Image"));
         return resultImage;
@@ -394,15 +459,46 @@ public class PyramidUtil {
 
   @Nonnull
   public static ValueSampler getValueSampler(final BufferedImage image) {
-    return (xf, yf, band) -> {
-      int x = (int) (xf * image.getWidth());
-      int y = (int) (yf * image.getWidth());
-      while (x < 0) x += image.getWidth();
-      x %= image.getWidth();
-      while (y < 0) y += image.getHeight();
-      y %= image.getHeight();
-      return image.getRaster().getSampleDouble(x, y, band);
+    return new ValueSampler() {
+      private transient int[] data = null;
+
+      @Override
+      public double getValue(final double xf, final double yf, final int band) {
+        int x = (int) (xf * image.getWidth());
+        int y = (int) (yf * image.getWidth());
+        while (x < 0) x += image.getWidth();
+        x %= image.getWidth();
+        while (y < 0) y += image.getHeight();
+        y %= image.getHeight();
+        return image.getRaster().getSampleDouble(x, y, band);
+      }
+
+      @Override
+      public void fill(final double[] xs, final double[] ys, final int[] rgb, final int offset, final int scanline) {
+        if (null == data) data = getData(toIntRGB(image).getRaster());
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] columns = new int[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+          int x = (int) (xs[i] * width);
+          while (x < 0) x += width;
+          columns[i] = x % width;
+        }
+        for (int j = 0; j < ys.length; j++) {
+          int y = (int) (ys[j] * width);
+          while (y < 0) y += height;
+          int source = (y % height) * width;
+          int base = offset + j * scanline;
+          for (int i = 0; i < columns.length; i++) rgb[base + i] = data[source + columns[i]];
+        }
+      }
     };
   }
 
+  /**
+   * A 2:1 reduction of packed TYPE_INT_RGB pixels, such as those in {@link ReductionKernels}.
+   */
+  public interface ReductionKernel {
+    void reduce(int[] src, int width, int height, int[] dst);
+  }
 }
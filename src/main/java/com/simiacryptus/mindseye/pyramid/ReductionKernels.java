@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.pyramid;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+
+/**
+ * 2:1 downsampling kernels over the packed pixels of TYPE_INT_RGB rasters, as returned by
+ * {@link PyramidUtil#getData(java.awt.image.WritableRaster)}. Each kernel unpacks rows into per-channel primitive
+ * arrays and does its vertical filtering as unit-stride loops over those rows, which is the shape C2's superword pass
+ * vectorizes; only the cheap horizontal pair step is scalar. Output dimensions are {@code width / 2} by
+ * {@code height / 2}, discarding an odd last row or column as {@link PyramidUtil#reduce(java.awt.image.BufferedImage)}
+ * always has.
+ */
+public final class ReductionKernels {
+
+  private static final int[] TO_LINEAR = new int[256];
+  private static final byte[] FROM_LINEAR = new byte[65536];
+  private static final float[] LANCZOS = lanczosWeights(3);
+
+  static {
+    for (int i = 0; i < 256; i++) {
+      TO_LINEAR[i] = (int) Math.round(toLinear(i / 255.0) * 65535);
+    }
+    for (int i = 0; i < FROM_LINEAR.length; i++) {
+      FROM_LINEAR[i] = (byte) Math.round(fromLinear(i / 65535.0) * 255);
+    }
+  }
+
+  private ReductionKernels() {
+  }
+
+  private static double toLinear(final double v) {
+    return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+  }
+
+  private static double fromLinear(final double v) {
+    return v <= 0.0031308 ? v * 12.92 : 1.055 * Math.pow(v, 1 / 2.4) - 0.055;
+  }
+
+  /**
+   * Normalized weights of a Lanczos filter stretched by 2 for decimation, sampled at the source pixel centers nearest
+   * an output pixel center, i.e. at distances 0.5, 1.5, ... source pixels. Only the half on one side is stored.
+   */
+  @Nonnull
+  private static float[] lanczosWeights(final int a) {
+    double[] weights = new double[2 * a];
+    double sum = 0;
+    for (int i = 0; i < weights.length; i++) {
+      double x = (i + 0.5) / 2;
+      weights[i] = sinc(x) * sinc(x / a);
+      sum += 2 * weights[i];
+    }
+    float[] normalized = new float[weights.length];
+    for (int i = 0; i < weights.length; i++) normalized[i] = (float) (weights[i] / sum);
+    return normalized;
+  }
+
+  private static double sinc(final double x) {
+    return 0 == x ? 1 : Math.sin(Math.PI * x) / (Math.PI * x);
+  }
+
+  /**
+   * Averages each 2x2 block, truncating exactly as the sample-wise {@link PyramidUtil#reduce} did.
+   *
+   * @param src    the source pixels, row-major with a scanline of {@code width}
+   * @param width  the source width
+   * @param height the source height
+   * @param dst    the destination pixels, at least {@code (width / 2) * (height / 2)} long
+   */
+  public static void box(@Nonnull final int[] src, final int width, final int height, @Nonnull final int[] dst) {
+    int outWidth = width / 2;
+    int outHeight = height / 2;
+    int[] r = new int[width];
+    int[] g = new int[width];
+    int[] b = new int[width];
+    for (int y = 0; y < outHeight; y++) {
+      int row0 = 2 * y * width;
+      int row1 = row0 + width;
+      for (int x = 0; x < width; x++) {
+        int p0 = src[row0 + x];
+        int p1 = src[row1 + x];
+        r[x] = ((p0 >> 16) & 0xFF) + ((p1 >> 16) & 0xFF);
+        g[x] = ((p0 >> 8) & 0xFF) + ((p1 >> 8) & 0xFF);
+        b[x] = (p0 & 0xFF) + (p1 & 0xFF);
+      }
+      int out = y * outWidth;
+      for (int x = 0; x < outWidth; x++) {
+        int i = 2 * x;
+        dst[out + x] = ((r[i] + r[i + 1]) >> 2) << 16 | ((g[i] + g[i + 1]) >> 2) << 8 | (b[i] + b[i + 1]) >> 2;
+      }
+    }
+  }
+
+  /**
+   * Averages each 2x2 block in linear light: samples are decoded from sRGB through a 16-bit table, summed, and
+   * re-encoded through a 64k-entry inverse table. Unlike {@link #box}, this keeps fine high-contrast detail from
+   * darkening as the pyramid is zoomed out.
+   *
+   * @param src    the source pixels, row-major with a scanline of {@code width}
+   * @param width  the source width
+   * @param height the source height
+   * @param dst    the destination pixels, at least {@code (width / 2) * (height / 2)} long
+   */
+  public static void gamma(@Nonnull final int[] src, final int width, final int height, @Nonnull final int[] dst) {
+    int outWidth = width / 2;
+    int outHeight = height / 2;
+    int[] toLinear = TO_LINEAR;
+    byte[] fromLinear = FROM_LINEAR;
+    int[] r = new int[width];
+    int[] g = new int[width];
+    int[] b = new int[width];
+    for (int y = 0; y < outHeight; y++) {
+      int row0 = 2 * y * width;
+      int row1 = row0 + width;
+      for (int x = 0; x < width; x++) {
+        int p0 = src[row0 + x];
+        int p1 = src[row1 + x];
+        r[x] = toLinear[(p0 >> 16) & 0xFF] + toLinear[(p1 >> 16) & 0xFF];
+        g[x] = toLinear[(p0 >> 8) & 0xFF] + toLinear[(p1 >> 8) & 0xFF];
+        b[x] = toLinear[p0 & 0xFF] + toLinear[p1 & 0xFF];
+      }
+      int out = y * outWidth;
+      for (int x = 0; x < outWidth; x++) {
+        int i = 2 * x;
+        int rr = fromLinear[(r[i] + r[i + 1] + 2) >> 2] & 0xFF;
+        int gg = fromLinear[(g[i] + g[i + 1] + 2) >> 2] & 0xFF;
+        int bb = fromLinear[(b[i] + b[i + 1] + 2) >> 2] & 0xFF;
+        dst[out + x] = rr << 16 | gg << 8 | bb;
+      }
+    }
+  }
+
+  /**
+   * Separable Lanczos-3 decimation with edge clamping. Each source row is filtered horizontally once into a ring of
+   * float rows, and every output row is a weighted sum of twelve of them, accumulated with unit-stride loops.
+   *
+   * @param src    the source pixels, row-major with a scanline of {@code width}
+   * @param width  the source width
+   * @param height the source height
+   * @param dst    the destination pixels, at least {@code (width / 2) * (height / 2)} long
+   */
+  public static void lanczos(@Nonnull final int[] src, final int width, final int height, @Nonnull final int[] dst) {
+    int outWidth = width / 2;
+    int outHeight = height / 2;
+    float[] weights = LANCZOS;
+    int taps = weights.length;
+    int window = 2 * taps;
+    float[][][] ring = new float[window][3][outWidth];
+    int[] ringRow = new int[window];
+    Arrays.fill(ringRow, Integer.MIN_VALUE);
+    float[] r = new float[width];
+    float[] g = new float[width];
+    float[] b = new float[width];
+    float[] accR = new float[outWidth];
+    float[] accG = new float[outWidth];
+    float[] accB = new float[outWidth];
+    for (int y = 0; y < outHeight; y++) {
+      Arrays.fill(accR, 0);
+      Arrays.fill(accG, 0);
+      Arrays.fill(accB, 0);
+      for (int k = 0; k < window; k++) {
+        int sourceRow = 2 * y - taps + 1 + k;
+        int clamped = Math.max(0, Math.min(height - 1, sourceRow));
+        int slot = Math.floorMod(sourceRow, window);
+        float[][] filtered = ring[slot];
+        if (ringRow[slot] != sourceRow) {
+          horizontal(src, clamped * width, width, weights, r, g, b, filtered);
+          ringRow[slot] = sourceRow;
+        }
+        float w = weights[k < taps ? taps - 1 - k : k - taps];
+        float[] fr = filtered[0];
+        float[] fg = filtered[1];
+        float[] fb = filtered[2];
+        for (int x = 0; x < outWidth; x++) {
+          accR[x] += w * fr[x];
+          accG[x] += w * fg[x];
+          accB[x] += w * fb[x];
+        }
+      }
+      int out = y * outWidth;
+      for (int x = 0; x < outWidth; x++) {
+        dst[out + x] = clamp(accR[x]) << 16 | clamp(accG[x]) << 8 | clamp(accB[x]);
+      }
+    }
+  }
+
+  private static void horizontal(
+      @Nonnull final int[] src,
+      final int offset,
+      final int width,
+      @Nonnull final float[] weights,
+      @Nonnull final float[] r,
+      @Nonnull final float[] g,
+      @Nonnull final float[] b,
+      @Nonnull final float[][] filtered
+  ) {
+    for (int x = 0; x < width; x++) {
+      int p = src[offset + x];
+      r[x] = (p >> 16) & 0xFF;
+      g[x] = (p >> 8) & 0xFF;
+      b[x] = p & 0xFF;
+    }
+    int taps = weights.length;
+    float[] fr = filtered[0];
+    float[] fg = filtered[1];
+    float[] fb = filtered[2];
+    for (int x = 0; x < fr.length; x++) {
+      float sr = 0, sg = 0, sb = 0;
+      for (int k = 0; k < taps; k++) {
+        float w = weights[k];
+        int left = Math.max(0, 2 * x - k);
+        int right = Math.min(width - 1, 2 * x + 1 + k);
+        sr += w * (r[left] + r[right]);
+        sg += w * (g[left] + g[right]);
+        sb += w * (b[left] + b[right]);
+      }
+      fr[x] = sr;
+      fg[x] = sg;
+      fb[x] = sb;
+    }
+  }
+
+  private static int clamp(final float v) {
+    return Math.max(0, Math.min(255, Math.round(v)));
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.pyramid;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A size-bounded cache of decoded tiles shared by all pyramid samplers. Keys are spread over independently locked
+ * stripes, each holding an access-ordered map evicted least-recently-used first once the stripe exceeds its share of
+ * the byte budget. Loads run outside the stripe lock and are single-flight: concurrent misses on one key wait for the
+ * same load. Failed loads, whether the loader throws or returns null, are not retained. Callers that joined another
+ * caller's in-flight load are counted as waits rather than hits.
+ *
+ * @param <V> the tile type
+ */
+public class TileCache<V> {
+  private static final Logger logger = LoggerFactory.getLogger(TileCache.class);
+  public static final TileCache<WritableRaster> SHARED = new TileCache<>(Runtime.getRuntime().maxMemory() / 4, 16, TileCache::weigh);
+
+  @Nonnull
+  private final Stripe[] stripes;
+  private final long maxBytes;
+  @Nonnull
+  private final ToLongFunction<V> weigher;
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder waits = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder loadFailures = new LongAdder();
+  private final LongAdder loadNanos = new LongAdder();
+
+  public TileCache(final long maxBytes, final int stripes, @Nonnull final ToLongFunction<V> weigher) {
+    this.maxBytes = maxBytes;
+    this.weigher = weigher;
+    this.stripes = new TileCache.Stripe[Math.max(1, stripes)];
+    for (int i = 0; i < this.stripes.length; i++) this.stripes[i] = new Stripe(maxBytes / this.stripes.length);
+  }
+
+  /**
+   * Estimates the heap footprint of a raster from its backing buffer.
+   *
+   * @param raster the raster
+   * @return the size in bytes
+   */
+  public static long weigh(@Nullable final WritableRaster raster) {
+    if (null == raster) return 64;
+    DataBuffer buffer = raster.getDataBuffer();
+    return 64 + (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+  }
+
+  @Nonnull
+  private Stripe stripe(@Nonnull final String key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+    return stripes[(hash & 0x7FFFFFFF) % stripes.length];
+  }
+
+  /**
+   * Returns the cached tile for a key, loading it if absent. Exceptions thrown by the loader propagate to every caller
+   * waiting on that load, and nothing is cached. A null result is returned to every waiting caller but is not cached,
+   * so the next call loads again.
+   *
+   * @param key    the key, typically the tile location
+   * @param loader the loader
+   * @return the tile
+   */
+  public V get(@Nonnull final String key, @Nonnull final Function<String, V> loader) {
+    Stripe stripe = stripe(key);
+    CompletableFuture<V> future;
+    boolean owner = false;
+    synchronized (stripe) {
+      future = stripe.entries.get(key);
+      if (null == future) {
+        future = new CompletableFuture<>();
+        stripe.entries.put(key, future);
+        owner = true;
+      }
+    }
+    if (!owner) {
+      if (future.isDone()) hits.increment();
+      else waits.increment();
+      return join(future);
+    }
+    misses.increment();
+    long startTime = System.nanoTime();
+    V value;
+    try {
+      value = loader.apply(key);
+    } catch (Throwable e) {
+      loadFailures.increment();
+      synchronized (stripe) {
+        stripe.entries.remove(key, future);
+      }
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      loadNanos.add(System.nanoTime() - startTime);
+    }
+    if (null == value) {
+      loadFailures.increment();
+      synchronized (stripe) {
+        stripe.entries.remove(key, future);
+      }
+      future.complete(null);
+      return null;
+    }
+    future.complete(value);
+    long weight = weigher.applyAsLong(value);
+    synchronized (stripe) {
+      if (stripe.entries.get(key) == future) {
+        stripe.weights.put(key, weight);
+        stripe.bytes += weight;
+        stripe.evict();
+      }
+    }
+    return value;
+  }
+
+  private V join(@Nonnull final CompletableFuture<V> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new RuntimeException(cause);
+    }
+  }
+
+  /**
+   * Drops a key, e.g. after the tile it names has been rewritten. An in-flight load is not interrupted, but its result
+   * will not be retained.
+   *
+   * @param key the key
+   */
+  public void invalidate(@Nonnull final String key) {
+    Stripe stripe = stripe(key);
+    synchronized (stripe) {
+      stripe.entries.remove(key);
+      Long weight = stripe.weights.remove(key);
+      if (null != weight) stripe.bytes -= weight;
+    }
+  }
+
+  public void clear() {
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        stripe.entries.clear();
+        stripe.weights.clear();
+        stripe.bytes = 0;
+      }
+    }
+  }
+
+  public long getBytes() {
+    long bytes = 0;
+    for (Stripe stripe : stripes) {
+      synchronized (stripe) {
+        bytes += stripe.bytes;
+      }
+    }
+    return bytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  @Nonnull
+  public Map<CharSequence, Object> getMetrics() {
+    long hits = this.hits.sum();
+    long misses = this.misses.sum();
+    long waits = this.waits.sum();
+    Map<CharSequence, Object> metrics = new LinkedHashMap<>();
+    metrics.put("hits", hits);
+    metrics.put("misses", misses);
+    metrics.put("waits", waits);
+    metrics.put("hitRate", 0 == hits + misses + waits ? 0.0 : (double) hits / (hits + misses + waits));
+    metrics.put("evictions", evictions.sum());
+    metrics.put("loadFailures", loadFailures.sum());
+    metrics.put("loadSeconds", loadNanos.sum() / 1e9);
+    metrics.put("bytes", getBytes());
+    metrics.put("maxBytes", maxBytes);
+    return metrics;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("TileCache%s", getMetrics());
+  }
+
+  private final class Stripe {
+    private final LinkedHashMap<String, CompletableFuture<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> weights = new HashMap<>();
+    private final long maxBytes;
+    private long bytes = 0;
+
+    private Stripe(final long maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    private void evict() {
+      Iterator<Map.Entry<String, CompletableFuture<V>>> iterator = entries.entrySet().iterator();
+      while (bytes > maxBytes && iterator.hasNext()) {
+        Map.Entry<String, CompletableFuture<V>> entry = iterator.next();
+        Long weight = weights.remove(entry.getKey());
+        if (null == weight) continue;
+        iterator.remove();
+        bytes -= weight;
+        evictions.increment();
+        if (logger.isDebugEnabled()) logger.debug(String.format("Evicted %s (%d bytes)", entry.getKey(), weight));
+      }
+    }
+  }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.pyramid;
+
+import com.simiacryptus.mindseye.applications.HadoopUtil;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileContext;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Options;
+import org.apache.hadoop.fs.Path;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * An index of which tiles exist under a pyramid prefix, with the size and CRC32 of each. A level is "indexed" once a
+ * writer has enumerated every tile of it or its storage has been scanned; for indexed levels a tile absent from the
+ * manifest is known not to exist, so samplers skip the load entirely. Tiles are recorded only after they are fully
+ * written. The manifest is stored beside the tiles as {@code <prefix>manifest.txt}, one line per tile, and is replaced
+ * as a whole by {@link #flush()}. Writers in different processes do not merge: the last flush wins, and other
+ * processes pick it up the next time {@link #get(String)} finds the stored copy has changed.
+ */
+public final class TileManifest {
+  private static final Logger logger = LoggerFactory.getLogger(TileManifest.class);
+  private static final Map<String, TileManifest> manifests = new ConcurrentHashMap<>();
+  private static final String HEADER = "TileManifest 1";
+  private static final Pattern TILE_NAME = Pattern.compile("(\\d+)_(\\d+)_(\\d+)\\.jpg");
+  private static final long REFRESH_MILLIS = 10 * 1000;
+
+  @Nonnull
+  private final String prefix;
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Set<Integer> indexedLevels = ConcurrentHashMap.newKeySet();
+  private volatile boolean dirty = false;
+  private volatile long storedModificationTime = -1;
+  private volatile long lastChecked = 0;
+
+  private TileManifest(@Nonnull final String prefix) {
+    this.prefix = prefix;
+  }
+
+  /**
+   * Returns the manifest shared by every pyramid in this JVM with the given prefix, reading it from storage on first
+   * use. At most every ten seconds the stored copy's modification time is checked, and a manifest with no unflushed
+   * changes is reloaded if another process has replaced it.
+   *
+   * @param prefix the pyramid prefix
+   * @return the manifest
+   */
+  @Nonnull
+  public static TileManifest get(@Nonnull final String prefix) {
+    return manifests.computeIfAbsent(prefix, p -> new TileManifest(p).reload()).refresh();
+  }
+
+  @Nonnull
+  private static String key(final int level, final int row, final int col) {
+    return String.format("%d_%d_%d", level, row, col);
+  }
+
+  /**
+   * @param data the encoded tile
+   * @return its CRC32
+   */
+  public static long checksum(@Nonnull final byte[] data) {
+    CRC32 crc = new CRC32();
+    crc.update(data, 0, data.length);
+    return crc.getValue();
+  }
+
+  @Nonnull
+  private String getLocation() {
+    return prefix + "manifest.txt";
+  }
+
+  private static long getModificationTime(@Nonnull final FileSystem fileSystem, @Nonnull final Path path) throws IOException {
+    if (!fileSystem.exists(path)) return -1;
+    FileStatus status = fileSystem.getFileStatus(path);
+    return status.getModificationTime();
+  }
+
+  @Nonnull
+  private TileManifest refresh() {
+    long now = System.currentTimeMillis();
+    if (dirty || now - lastChecked < REFRESH_MILLIS) return this;
+    synchronized (this) {
+      if (dirty || now - lastChecked < REFRESH_MILLIS) return this;
+      lastChecked = now;
+      try {
+        long modificationTime = getModificationTime(HadoopUtil.getFileSystem(getLocation()), new Path(getLocation()));
+        if (modificationTime != storedModificationTime) {
+          logger.info(String.format("Manifest %s changed in storage; reloading", getLocation()));
+          reload();
+        }
+      } catch (Throwable e) {
+        logger.debug(String.format("Error checking manifest %s", getLocation()), e);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Discards the in-memory state and reads the stored manifest, if any. A missing or unreadable manifest leaves every
+   * level unindexed, so callers fall back to probing storage.
+   *
+   * @return this
+   */
+  @Nonnull
+  public synchronized TileManifest reload() {
+    entries.clear();
+    indexedLevels.clear();
+    dirty = false;
+    lastChecked = System.currentTimeMillis();
+    byte[] data;
+    try {
+      FileSystem fileSystem = HadoopUtil.getFileSystem(getLocation());
+      storedModificationTime = getModificationTime(fileSystem, new Path(getLocation()));
+      if (-1 == storedModificationTime) return this;
+      data = HadoopUtil.getData(getLocation());
+    } catch (Throwable e) {
+      logger.debug(String.format("No manifest at %s", getLocation()), e);
+      return this;
+    }
+    String[] lines = new String(data, StandardCharsets.UTF_8).split("\n");
+    if (0 == lines.length || !HEADER.equals(lines[0].trim())) {
+      logger.warn(String.format("Ignoring malformed manifest %s", getLocation()));
+      return this;
+    }
+    try {
+      for (int i = 1; i < lines.length; i++) {
+        String[] fields = lines[i].trim().split(" ");
+        if (fields[0].isEmpty()) continue;
+        if ("indexed".equals(fields[0])) {
+          for (int f = 1; f < fields.length; f++) indexedLevels.add(Integer.parseInt(fields[f]));
+        } else {
+          entries.put(key(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]), Integer.parseInt(fields[2])),
+              new Entry(Long.parseLong(fields[3]), Long.parseLong(fields[4], 16)));
+        }
+      }
+    } catch (RuntimeException e) {
+      logger.warn(String.format("Ignoring malformed manifest %s", getLocation()), e);
+      entries.clear();
+      indexedLevels.clear();
+    }
+    logger.info(String.format("Read manifest %s: %d tiles, indexed levels %s", getLocation(), entries.size(), indexedLevels));
+    return this;
+  }
+
+  /**
+   * @param level the level
+   * @return true if absence from this manifest proves a tile at this level does not exist
+   */
+  public boolean isIndexed(final int level) {
+    return indexedLevels.contains(level);
+  }
+
+  /**
+   * @return true unless the tile is known not to exist
+   */
+  public boolean mayExist(final int level, final int row, final int col) {
+    return !isIndexed(level) || entries.containsKey(key(level, row, col));
+  }
+
+  /**
+   * @return the recorded entry for a tile, or null if none is recorded
+   */
+  @Nullable
+  public Entry getEntry(final int level, final int row, final int col) {
+    return entries.get(key(level, row, col));
+  }
+
+  /**
+   * Records a tile which has been completely written.
+   *
+   * @param data the encoded bytes as written
+   */
+  public void put(final int level, final int row, final int col, @Nonnull final byte[] data) {
+    entries.put(key(level, row, col), new Entry(data.length, checksum(data)));
+    dirty = true;
+  }
+
+  /**
+   * Forgets a tile, e.g. one whose stored bytes no longer match its entry.
+   */
+  public void remove(final int level, final int row, final int col) {
+    if (null != entries.remove(key(level, row, col))) dirty = true;
+  }
+
+  /**
+   * Marks a level as completely enumerated. Call only after every tile of the level that should exist has been
+   * recorded.
+   *
+   * @param level the level
+   */
+  public void setIndexed(final int level) {
+    if (indexedLevels.add(level)) dirty = true;
+  }
+
+  /**
+   * Rebuilds the manifest by listing the pyramid's storage and marks levels 0 through maxLevel as indexed. Each tile is
+   * read once to compute its checksum.
+   *
+   * @param maxLevel the highest level to mark as indexed
+   * @return this
+   */
+  @Nonnull
+  public synchronized TileManifest scan(final int maxLevel) {
+    int split = prefix.lastIndexOf('/') + 1;
+    String directory = prefix.substring(0, split);
+    String namePrefix = prefix.substring(split);
+    entries.clear();
+    for (CharSequence file : HadoopUtil.getFiles(directory)) {
+      String name = file.toString().substring(file.toString().lastIndexOf('/') + 1);
+      if (!name.startsWith(namePrefix)) continue;
+      Matcher matcher = TILE_NAME.matcher(name.substring(namePrefix.length()));
+      if (!matcher.matches()) continue;
+      put(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)), Integer.parseInt(matcher.group(3)),
+          HadoopUtil.getData(file));
+    }
+    for (int level = 0; level <= maxLevel; level++) indexedLevels.add(level);
+    dirty = true;
+    logger.info(String.format("Scanned %s: %d tiles", prefix, entries.size()));
+    return this;
+  }
+
+  /**
+   * Writes the manifest if it has changed. The new manifest is written to a uniquely named temporary file and renamed
+   * over the old one in a single overwriting rename, so on local disks and HDFS readers see either the old or the new
+   * version. Object stores such as S3 have no atomic rename; there a reader may briefly find no manifest and fall back
+   * to probing.
+   */
+  public synchronized void flush() {
+    if (!dirty) return;
+    dirty = false;
+    StringBuilder sb = new StringBuilder(HEADER).append("\n");
+    sb.append("indexed ").append(indexedLevels.stream().sorted().map(Object::toString).collect(Collectors.joining(" "))).append("\n");
+    new TreeMap<>(entries).forEach((key, entry) -> sb.append(key.replace('_', ' ')).append(' ')
+        .append(entry.getSize()).append(' ').append(Long.toHexString(entry.getChecksum())).append("\n"));
+    byte[] data = sb.toString().getBytes(StandardCharsets.UTF_8);
+    Path path = new Path(getLocation());
+    Path tmp = new Path(getLocation() + "." + UUID.randomUUID() + ".tmp");
+    try {
+      FileSystem fileSystem = HadoopUtil.getFileSystem(getLocation());
+      if (fileSystem instanceof LocalFileSystem) {
+        LocalFileSystem localFileSystem = (LocalFileSystem) fileSystem;
+        File file = localFileSystem.pathToFile(path);
+        File tmpFile = localFileSystem.pathToFile(tmp);
+        try {
+          Files.write(tmpFile.toPath(), data);
+          Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+          Files.deleteIfExists(tmpFile.toPath());
+        }
+        localFileSystem.delete(localFileSystem.getChecksumFile(path), false);
+      } else {
+        try {
+          try (FSDataOutputStream out = fileSystem.create(tmp)) {
+            out.write(data);
+          }
+          FileContext.getFileContext(path.toUri(), HadoopUtil.getHadoopConfig()).rename(tmp, path, Options.Rename.OVERWRITE);
+        } finally {
+          if (fileSystem.exists(tmp)) fileSystem.delete(tmp, false);
+        }
+      }
+      storedModificationTime = getModificationTime(fileSystem, path);
+    } catch (Throwable e) {
+      dirty = true;
+      logger.warn(String.format("Error writing manifest %s", getLocation()), e);
+    }
+  }
+
+  /**
+   * Encodes a tile, returning the bytes so they can be both written and recorded.
+   *
+   * @param image the tile
+   * @return the JPEG bytes
+   */
+  @Nonnull
+  public static byte[] encode(@Nonnull final BufferedImage image) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      ImageIO.write(image, "jpg", out);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return out.toByteArray();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("TileManifest{%s, %d tiles, indexed %s}", prefix, entries.size(),
+        Arrays.toString(indexedLevels.stream().sorted().toArray()));
+  }
+
+  /**
+   * The size and checksum of one stored tile.
+   */
+  public static final class Entry {
+    private final long size;
+    private final long checksum;
+
+    public Entry(final long size, final long checksum) {
+      this.size = size;
+      this.checksum = checksum;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public long getChecksum() {
+      return checksum;
+    }
+
+    /**
+     * @param data the bytes read from storage
+     * @return true if they match this entry
+     */
+    public boolean matches(@Nonnull final byte[] data) {
+      return data.length == size && checksum(data) == checksum;
+    }
+  }
+}
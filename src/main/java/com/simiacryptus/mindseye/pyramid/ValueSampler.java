@@ -20,17 +20,69 @@
 package com.simiacryptus.mindseye.pyramid;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 public interface ValueSampler extends Serializable {
+  /**
+   * Packs three band values into a TYPE_INT_RGB pixel, truncating each as WritableRaster.setSample would.
+   *
+   * @param r the red value
+   * @param g the green value
+   * @param b the blue value
+   * @return the packed pixel
+   */
+  static int pack(final double r, final double g, final double b) {
+    return ((int) r & 0xFF) << 16 | ((int) g & 0xFF) << 8 | ((int) b & 0xFF);
+  }
+
   double getValue(final double xf, final double yf, final int band);
 
+  /**
+   * Samples a separable grid of points into a packed TYPE_INT_RGB buffer: pixel (i, j) is written to
+   * rgb[offset + j * scanline + i] from coordinate (xs[i], ys[j]). The default implementation calls
+   * {@link #getValue(double, double, int)} per pixel per band; tile-backed samplers override it to resolve each source
+   * tile once per run of pixels and copy from its backing array.
+   *
+   * @param xs       the x coordinate of each column
+   * @param ys       the y coordinate of each row
+   * @param rgb      the destination buffer
+   * @param offset   the index of the first destination pixel
+   * @param scanline the distance between destination rows
+   */
+  default void fill(final double[] xs, final double[] ys, final int[] rgb, final int offset, final int scanline) {
+    for (int j = 0; j < ys.length; j++) {
+      int base = offset + j * scanline;
+      for (int i = 0; i < xs.length; i++) {
+        rgb[base + i] = pack(getValue(xs[i], ys[j], 0), getValue(xs[i], ys[j], 1), getValue(xs[i], ys[j], 2));
+      }
+    }
+  }
+
   default ValueSampler wrapped() {
-    return (xf, yf, band) -> {
-      while (xf < 0) xf += 1;
-      xf %= 1;
-      while (yf < 0) yf += 1;
-      yf %= 1;
-      return ValueSampler.this.getValue(xf, yf, band);
+    return new ValueSampler() {
+      @Override
+      public double getValue(double xf, double yf, final int band) {
+        while (xf < 0) xf += 1;
+        xf %= 1;
+        while (yf < 0) yf += 1;
+        yf %= 1;
+        return ValueSampler.this.getValue(xf, yf, band);
+      }
+
+      @Override
+      public void fill(final double[] xs, final double[] ys, final int[] rgb, final int offset, final int scanline) {
+        ValueSampler.this.fill(
+            Arrays.stream(xs).map(xf -> {
+              while (xf < 0) xf += 1;
+              return xf % 1;
+            }).toArray(),
+            Arrays.stream(ys).map(yf -> {
+              while (yf < 0) yf += 1;
+              return yf % 1;
+            }).toArray(),
+            rgb, offset, scanline
+        );
+      }
     };
   }
 
@@ -39,11 +91,31 @@ public interface ValueSampler extends Serializable {
   }
 
   default ValueSampler zoom(double width, double height) {
-    return (xf, yf, band) -> ValueSampler.this.getValue(xf * width, yf * height, band);
+    return new ValueSampler() {
+      @Override
+      public double getValue(final double xf, final double yf, final int band) {
+        return ValueSampler.this.getValue(xf * width, yf * height, band);
+      }
+
+      @Override
+      public void fill(final double[] xs, final double[] ys, final int[] rgb, final int offset, final int scanline) {
+        ValueSampler.this.fill(Arrays.stream(xs).map(xf -> xf * width).toArray(), Arrays.stream(ys).map(yf -> yf * height).toArray(), rgb, offset, scanline);
+      }
+    };
   }
 
   default ValueSampler offset(double x, double y) {
-    return (xf, yf, band) -> ValueSampler.this.getValue(x + xf, y + yf, band);
+    return new ValueSampler() {
+      @Override
+      public double getValue(final double xf, final double yf, final int band) {
+        return ValueSampler.this.getValue(x + xf, y + yf, band);
+      }
+
+      @Override
+      public void fill(final double[] xs, final double[] ys, final int[] rgb, final int offset, final int scanline) {
+        ValueSampler.this.fill(Arrays.stream(xs).map(xf -> x + xf).toArray(), Arrays.stream(ys).map(yf -> y + yf).toArray(), rgb, offset, scanline);
+      }
+    };
   }
 
   default ValueSampler rotate(double angle) {
@@ -34,9 +34,7 @@ import com.simiacryptus.util.JsonUtil;
 
 import javax.annotation.Nonnull;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -218,7 +216,6 @@ public class FullyFeaturedArtJob extends ImageScript {
                 styleSetup
             );
 
-            final HashMap<SegmentedStyleTransfer.MaskJob, Set<Tensor>> originalCache = new HashMap<>(styleTransfer.getMaskCache());
             final Tensor result;
             final Tensor content = ArtistryUtil.loadTensor(contentSource, tileLayout.getCanvasDimensions()[0], tileLayout.getCanvasDimensions()[1]);
             if (tileLayout.getCols() > 1 || tileLayout.getRows() > 1) {
@@ -239,8 +236,6 @@ public class FullyFeaturedArtJob extends ImageScript {
                   canvasImage1
               );
             }
-            styleTransfer.getMaskCache().clear();
-            styleTransfer.getMaskCache().putAll(originalCache);
             return result;
           }, log.getName() + "_" + "Phase_0"));
           log.eval(() -> {
@@ -309,7 +304,6 @@ public class FullyFeaturedArtJob extends ImageScript {
                 styleSetup
             );
 
-            final HashMap<SegmentedStyleTransfer.MaskJob, Set<Tensor>> originalCache = new HashMap<>(styleTransfer.getMaskCache());
             final Tensor result;
             final Tensor content = ArtistryUtil.loadTensor(contentSource, tileLayout.getCanvasDimensions()[0], tileLayout.getCanvasDimensions()[1]);
             if (tileLayout.getCols() > 1 || tileLayout.getRows() > 1) {
@@ -330,8 +324,6 @@ public class FullyFeaturedArtJob extends ImageScript {
                   canvasImage1
               );
             }
-            styleTransfer.getMaskCache().clear();
-            styleTransfer.getMaskCache().putAll(originalCache);
             return result;
           }, log.getName() + "_" + "Phase_1"));
           log.eval(() -> {
@@ -417,7 +409,6 @@ public class FullyFeaturedArtJob extends ImageScript {
                 styleSetup
             );
 
-            final HashMap<SegmentedStyleTransfer.MaskJob, Set<Tensor>> originalCache = new HashMap<>(styleTransfer.getMaskCache());
             final Tensor result;
             final Tensor content = ArtistryUtil.loadTensor(contentSource, tileLayout.getCanvasDimensions()[0], tileLayout.getCanvasDimensions()[1]);
             if (tileLayout.getCols() > 1 || tileLayout.getRows() > 1) {
@@ -438,8 +429,6 @@ public class FullyFeaturedArtJob extends ImageScript {
                   canvasImage1
               );
             }
-            styleTransfer.getMaskCache().clear();
-            styleTransfer.getMaskCache().putAll(originalCache);
             return result;
           }, log.getName() + "_" + "Phase_" + resolution.get()));
           log.eval(() -> {
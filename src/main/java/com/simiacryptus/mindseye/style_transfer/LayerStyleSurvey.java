@@ -215,7 +215,6 @@ public class LayerStyleSurvey extends ImageScript {
                   styleSetup
               );
 
-              final HashMap<SegmentedStyleTransfer.MaskJob, Set<Tensor>> originalCache = new HashMap<>(styleTransfer.getMaskCache());
               final Tensor result1;
               final Tensor content = ArtistryUtil.loadTensor(contentSource, tileLayout.getCanvasDimensions()[0], tileLayout.getCanvasDimensions()[1]);
               if (tileLayout.getCols() > 1 || tileLayout.getRows() > 1) {
@@ -236,8 +235,6 @@ public class LayerStyleSurvey extends ImageScript {
                     canvasImage1
                 );
               }
-              styleTransfer.getMaskCache().clear();
-              styleTransfer.getMaskCache().putAll(originalCache);
               return result1;
             }, log.getName() + "_" + String.format("%s_%s", styleLayer.name(), contentLayer.name()));
             log.eval(() -> {
@@ -34,12 +34,14 @@ import com.simiacryptus.notebook.TableOutput;
 
 import javax.annotation.Nonnull;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class ParameterSweep extends ImageScript {
@@ -78,9 +80,28 @@ public class ParameterSweep extends ImageScript {
         for (final CharSequence styleSource : sources) {
           log.p(log.png(ArtistryUtil.load(styleSource, resolution), "Style Image"));
         }
-        //.set(CVPipe_Inception.Strata.Layer_1d, coeff_style_mean, coeff_style_cov, dreamCoeff)
-        BufferedImage[] imgs = dreamCoeffStream().mapToObj(x -> x).flatMap(dreamCoeff -> {
-          return contentCoeffStream().mapToObj(contentMixingCoeff -> {
+        Tensor canvasTemplate = ArtistryUtil.loadTensor(
+            contentSource,
+            resolution
+        );
+        canvasTemplate = Tensor.fromRGB(ImageUtil.resize(
+            canvasTemplate.toImage(),
+            resolution,
+            true
+        ));
+        Tensor contentImage = ArtistryUtil.loadTensor(
+            contentSource,
+            canvasTemplate.getDimensions()[0],
+            canvasTemplate.getDimensions()[1]
+        );
+        Map<CharSequence, BufferedImage> styleImages = TestUtil.buildMap(y -> y.putAll(sources.stream()
+            .collect(Collectors.toMap(x -> x, file -> ArtistryUtil.load(file, resolution)))));
+        List<StyleTransfer.StyleSetup<CVPipe_Inception.Strata>> setups = new ArrayList<>();
+        List<Tensor> canvases = new ArrayList<>();
+        List<String> descriptions = new ArrayList<>();
+        final Tensor finalCanvasTemplate = canvasTemplate;
+        dreamCoeffStream().forEach(dreamCoeff -> {
+          contentCoeffStream().forEach(contentMixingCoeff -> {
             final Map<List<CharSequence>, StyleTransfer.StyleCoefficients<CVPipe_Inception.Strata>> styles = TestUtil.buildMap(
                 x ->
                     x.put(
@@ -113,57 +134,48 @@ public class ParameterSweep extends ImageScript {
                             )
                         //.set(CVPipe_Inception.Strata.Layer_1d, coeff_style_mean, coeff_style_cov, dreamCoeff)
                     ));
-            Tensor canvasImage = ArtistryUtil.loadTensor(
-                contentSource,
-                resolution
-            );
-            canvasImage = Tensor.fromRGB(ImageUtil.resize(
-                canvasImage.toImage(),
-                resolution,
-                true
-            ));
-            canvasImage = ArtistryUtil.expandPlasma(Tensor.fromRGB(
-                ImageUtil.resize(canvasImage.toImage(), 16, true)),
-                1000.0, 1.1, resolution
-            ).scale(0.9);
-            StyleTransfer.StyleSetup<CVPipe_Inception.Strata> styleSetup = new StyleTransfer.StyleSetup<>(
+            setups.add(new StyleTransfer.StyleSetup<>(
                 precision,
-                ArtistryUtil.loadTensor(
-                    contentSource,
-                    canvasImage.getDimensions()[0],
-                    canvasImage.getDimensions()[1]
-                ),
+                contentImage,
                 new StyleTransfer.ContentCoefficients<CVPipe_Inception.Strata>()
                     .set(CVPipe_Inception.Strata.Layer_2, contentMixingCoeff * 1e-1)
                     .set(CVPipe_Inception.Strata.Layer_1c, contentMixingCoeff)
                     .set(CVPipe_Inception.Strata.Layer_1d, contentMixingCoeff),
-                TestUtil.buildMap(y -> y.putAll(styles.keySet().stream().flatMap(x -> x.stream())
-                    .collect(Collectors.toMap(x -> x, file -> ArtistryUtil.load(file, resolution))))),
+                styleImages,
                 styles
-            );
-            Tensor image = styleTransfer.transfer(
-                log,
-                canvasImage,
-                styleSetup,
-                getTrainingMinutes(),
-                styleTransfer.measureStyle(
-                    styleSetup),
-                getMaxIterations(),
-                isVerbose()
-            );
-            HashMap<CharSequence, Object> row = new HashMap<>();
-            row.put(
-                "Description",
-                String.format(
-                    "contentMixingCoeff=%s\ndreamCoeff=%s",
-                    contentMixingCoeff,
-                    dreamCoeff
-                )
-            );
-            row.put("Image", log.png(image.toImage(), "image"));
-            experimentTable.putRow(row);
-            return image.toImage();
+            ));
+            canvases.add(ArtistryUtil.expandPlasma(Tensor.fromRGB(
+                ImageUtil.resize(finalCanvasTemplate.toImage(), 16, true)),
+                1000.0, 1.1, resolution
+            ).scale(0.9));
+            descriptions.add(String.format(
+                "contentMixingCoeff=%s\ndreamCoeff=%s",
+                contentMixingCoeff,
+                dreamCoeff
+            ));
           });
+        });
+        // Style and content are measured once; every cell of the grid is then optimized in one batch.
+        // The cells are not independent runs: they share one trainer, so one line search sets a common step size and
+        // the iteration count and termination are shared. Each cell's loss is normalized and the timeout is scaled by
+        // the number of cells, but results can still differ from optimizing each cell on its own.
+        // The style is measured from the first cell, so every cell must use the same nonzero terms.
+        styleTransfer.checkSweep(setups);
+        List<Tensor> images = styleTransfer.transfer(
+            log,
+            setups,
+            styleTransfer.measureStyle(setups.get(0)),
+            canvases,
+            getTrainingMinutes(),
+            getMaxIterations(),
+            isVerbose()
+        );
+        BufferedImage[] imgs = IntStream.range(0, images.size()).mapToObj(i -> {
+          HashMap<CharSequence, Object> row = new HashMap<>();
+          row.put("Description", descriptions.get(i));
+          row.put("Image", log.png(images.get(i).toImage(), "image"));
+          experimentTable.putRow(row);
+          return images.get(i).toImage();
         }).toArray(i -> new BufferedImage[i]);
         log.p("Summary Table:");
         log.p(experimentTable.toMarkdownTable());
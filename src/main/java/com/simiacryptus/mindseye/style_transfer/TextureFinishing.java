@@ -39,7 +39,6 @@ import java.awt.image.BufferedImage;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -150,7 +149,6 @@ public class TextureFinishing extends ImageScript {
                 styleSetup
             );
 
-            final HashMap<SegmentedStyleTransfer.MaskJob, Set<Tensor>> originalCache = new HashMap<>(styleTransfer.getMaskCache());
             final Tensor result;
             final Tensor content = ArtistryUtil.loadTensor(contentSource, tileLayout.getCanvasDimensions()[0], tileLayout.getCanvasDimensions()[1]);
             if (tileLayout.getCols() > 1 || tileLayout.getRows() > 1) {
@@ -171,8 +169,6 @@ public class TextureFinishing extends ImageScript {
                   canvasImage1
               );
             }
-            styleTransfer.getMaskCache().clear();
-            styleTransfer.getMaskCache().putAll(originalCache);
             return result;
           }, log.getName() + "_" + String.format("Phase_%s", index.incrementAndGet())));
           BufferedImage image = log.eval(() -> {
@@ -39,6 +39,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 public class ParameterSweep extends ImageScript {
@@ -75,8 +76,16 @@ public class ParameterSweep extends ImageScript {
       for (final CharSequence styleSource : sources) {
         log.p(log.png(ArtistryUtil.load(styleSource, startImageSize), "Style Image"));
       }
-      //.set(CVPipe_Inception.Strata.Layer_1d, coeff_style_mean, coeff_style_cov, dreamCoeff)
-      BufferedImage[] imgs = dreamCoeffStream().mapToObj(x -> x).map(dreamCoeff -> {
+      Map<CharSequence, BufferedImage> styleImages = TestUtil.buildMap(y -> y.putAll(sources.stream().collect(
+          Collectors.toMap(
+              x -> x,
+              file -> ArtistryUtil.load(
+                  file,
+                  resolution
+              )
+          ))));
+      List<Double> dreamCoeffs = dreamCoeffStream().boxed().collect(Collectors.toList());
+      List<TextureGeneration.StyleSetup<CVPipe_Inception.Strata>> setups = dreamCoeffs.stream().map(dreamCoeff -> {
         final Map<List<CharSequence>, TextureGeneration.StyleCoefficients<CVPipe_Inception.Strata>> styles = TestUtil.buildMap(x -> {
           x.put(
               sources,
@@ -109,34 +118,34 @@ public class ParameterSweep extends ImageScript {
               //.set(CVPipe_Inception.Strata.Layer_1d, coeff_style_mean, coeff_style_cov, dreamCoeff)
           );
         });
-        Tensor canvasImage = Tensor.fromRGB(init(resolution));
-        TextureGeneration.StyleSetup<CVPipe_Inception.Strata> styleSetup = new TextureGeneration.StyleSetup<>(
-            precision,
-            TestUtil.buildMap(y -> y.putAll(styles.keySet().stream().flatMap(x -> x.stream()).collect(
-                Collectors.toMap(
-                    x -> x,
-                    file -> ArtistryUtil.load(
-                        file,
-                        resolution
-                    )
-                )))),
-            styles
-        );
-        log.p("Input Parameters:");
-        log.eval(() -> {
-          return ArtistryUtil.toJson(styleSetup);
-        });
-        canvasImage = textureGeneration.optimize(
-            log,
-            textureGeneration.measureStyle(styleSetup), canvasImage,
-            getTrainingMinutes(),
-            getMaxIterations(), isVerbose(), styleSetup.precision
-        );
+        return new TextureGeneration.StyleSetup<>(precision, styleImages, styles);
+      }).collect(Collectors.toList());
+      log.p("Input Parameters:");
+      log.eval(() -> {
+        return ArtistryUtil.toJson(setups);
+      });
+      List<Tensor> canvases = dreamCoeffs.stream().map(x -> Tensor.fromRGB(init(resolution))).collect(Collectors.toList());
+      // Style is measured once; every dreamCoeff is then optimized in one batch.
+      // The cells are not independent runs: they share one trainer, so one line search sets a common step size and
+      // the iteration count and termination are shared. Each cell's loss is normalized and the timeout is scaled by
+      // the number of cells, but results can still differ from optimizing each cell on its own.
+      // The style is measured from the first cell, so every cell must use the same nonzero terms.
+      textureGeneration.checkSweep(setups);
+      List<Tensor> images = textureGeneration.optimize(
+          log,
+          textureGeneration.measureStyle(setups.get(0)),
+          setups,
+          canvases,
+          getTrainingMinutes(),
+          getMaxIterations(),
+          precision
+      );
+      BufferedImage[] imgs = IntStream.range(0, images.size()).mapToObj(i -> {
         HashMap<CharSequence, Object> row = new HashMap<>();
-        row.put("Description", String.format("dreamCoeff=%s", dreamCoeff));
-        row.put("Image", log.png(canvasImage.toImage(), "image"));
+        row.put("Description", String.format("dreamCoeff=%s", dreamCoeffs.get(i)));
+        row.put("Image", log.png(images.get(i).toImage(), "image"));
         experimentTable.putRow(row);
-        return canvasImage.toImage();
+        return images.get(i).toImage();
       }).toArray(i -> new BufferedImage[i]);
       log.p("Summary Table:");
       log.p(experimentTable.toMarkdownTable());
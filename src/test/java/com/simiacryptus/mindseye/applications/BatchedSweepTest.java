@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Checks that {@link BatchedSweep#checkTerms} rejects sweeps whose cells differ in their nonzero loss terms.
+ */
+public class BatchedSweepTest {
+
+  @Test
+  public void sameTermsPass() {
+    List<Set<String>> cells = Arrays.asList(terms("a:mean", "a:cov"), terms("a:cov", "a:mean"));
+    BatchedSweep.checkTerms(cells, x -> x);
+  }
+
+  @Test
+  public void differingTermsFail() {
+    List<Set<String>> cells = Arrays.asList(terms("a:mean", "a:cov"), terms("a:mean", "a:cov"), terms("a:mean", "b:cov"));
+    try {
+      BatchedSweep.checkTerms(cells, x -> x);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("cell 2 adds [b:cov] and lacks [a:cov]"));
+    }
+  }
+
+  @Test
+  public void emptySweepFails() {
+    try {
+      BatchedSweep.checkTerms(Arrays.<Set<String>>asList(), x -> x);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      Assert.assertEquals("No sweep cells", e.getMessage());
+    }
+  }
+
+  private static Set<String> terms(final String... terms) {
+    return new HashSet<>(Arrays.asList(terms));
+  }
+}
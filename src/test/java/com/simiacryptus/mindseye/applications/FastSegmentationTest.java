@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * Checks {@link FastSegmentation} clustering on well separated synthetic clusters.
+ */
+public class FastSegmentationTest {
+
+  private static final float[][] CENTERS = {{0, 0}, {10, 0}, {0, 10}};
+  private static final int POINTS = 300;
+
+  @Test
+  public void kMeansFindsSeparableClusters() {
+    float[] pixels = clusters(new Random(7));
+    float[][] centers = FastSegmentation.kMeans(pixels, 2, CENTERS.length, 50, 64, new Random(1));
+    Assert.assertEquals(CENTERS.length, centers.length);
+    boolean[] matched = new boolean[centers.length];
+    for (float[] expected : CENTERS) {
+      int nearest = -1;
+      double best = Double.POSITIVE_INFINITY;
+      for (int c = 0; c < centers.length; c++) {
+        double dx = centers[c][0] - expected[0];
+        double dy = centers[c][1] - expected[1];
+        double distance = Math.sqrt(dx * dx + dy * dy);
+        if (distance < best) {
+          best = distance;
+          nearest = c;
+        }
+      }
+      Assert.assertTrue(String.format("No center near (%s, %s): %s", expected[0], expected[1], best), best < 0.5);
+      Assert.assertFalse("Two clusters share a center", matched[nearest]);
+      matched[nearest] = true;
+    }
+  }
+
+  @Test
+  public void responsibilitiesAreConfidentAndNormalized() {
+    float[] pixels = clusters(new Random(7));
+    float[][] maps = FastSegmentation.responsibilities(pixels, 2, CENTERS);
+    for (int i = 0; i < pixels.length / 2; i++) {
+      double sum = 0;
+      for (float[] map : maps) sum += map[i];
+      Assert.assertEquals(1.0, sum, 1e-5);
+      Assert.assertTrue(maps[i / POINTS][i] > 0.99);
+    }
+  }
+
+  private static float[] clusters(final Random random) {
+    float[] pixels = new float[CENTERS.length * POINTS * 2];
+    for (int c = 0; c < CENTERS.length; c++) {
+      for (int i = 0; i < POINTS; i++) {
+        int offset = (c * POINTS + i) * 2;
+        pixels[offset] = CENTERS[c][0] + (float) random.nextGaussian() * 0.5f;
+        pixels[offset + 1] = CENTERS[c][1] + (float) random.nextGaussian() * 0.5f;
+      }
+    }
+    return pixels;
+  }
+}
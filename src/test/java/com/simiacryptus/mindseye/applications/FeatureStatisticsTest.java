@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+
+/**
+ * Checks the blocked, merged statistics of {@link FeatureStatistics} against a naive two-pass computation.
+ */
+public class FeatureStatisticsTest {
+
+  private static final int BANDS = 4;
+
+  @Test
+  public void matchesNaiveStatistics() {
+    Random random = new Random(3);
+    Tensor[] maps = {featureMap(random, 9, 7), featureMap(random, 5, 3), featureMap(random, 13, 11)};
+    FeatureStatistics statistics = new FeatureStatistics(true, 10);
+    for (Tensor map : maps) statistics.add(map);
+
+    long count = 0;
+    double[] mean = new double[BANDS];
+    for (Tensor map : maps) {
+      int pixels = pixels(map);
+      for (int band = 0; band < BANDS; band++) {
+        for (int p = 0; p < pixels; p++) mean[band] += map.getData()[band * pixels + p];
+      }
+      count += pixels;
+    }
+    for (int band = 0; band < BANDS; band++) mean[band] /= count;
+    double[] gram = new double[BANDS * BANDS];
+    double[] centered = new double[BANDS * BANDS];
+    for (Tensor map : maps) {
+      int pixels = pixels(map);
+      double[] data = map.getData();
+      for (int p = 0; p < pixels; p++) {
+        for (int i = 0; i < BANDS; i++) {
+          for (int j = 0; j < BANDS; j++) {
+            double a = data[i * pixels + p];
+            double b = data[j * pixels + p];
+            gram[i * BANDS + j] += a * b / count;
+            centered[i * BANDS + j] += (a - mean[i]) * (b - mean[j]) / count;
+          }
+        }
+      }
+    }
+
+    Assert.assertEquals(count, statistics.getCount());
+    Assert.assertArrayEquals(mean, statistics.getMean().getData(), 1e-9);
+    Assert.assertArrayEquals(gram, statistics.getGram().getData(), 1e-9);
+    Assert.assertArrayEquals(centered, statistics.getCenteredGram().getData(), 1e-9);
+  }
+
+  @Test
+  public void blockSizeDoesNotChangeResults() {
+    Tensor map = featureMap(new Random(5), 17, 19);
+    FeatureStatistics single = new FeatureStatistics(true, Integer.MAX_VALUE).add(map);
+    FeatureStatistics blocked = new FeatureStatistics(true, 1).add(map);
+    Assert.assertArrayEquals(single.getMean().getData(), blocked.getMean().getData(), 1e-9);
+    Assert.assertArrayEquals(single.getCenteredGram().getData(), blocked.getCenteredGram().getData(), 1e-9);
+  }
+
+  private static int pixels(@Nonnull final Tensor map) {
+    return map.getDimensions()[0] * map.getDimensions()[1];
+  }
+
+  @Nonnull
+  private static Tensor featureMap(@Nonnull final Random random, final int width, final int height) {
+    double[] data = new double[width * height * BANDS];
+    for (int band = 0; band < BANDS; band++) {
+      for (int p = 0; p < width * height; p++) data[band * width * height + p] = 100 + band + random.nextGaussian() * (band + 1);
+    }
+    return new Tensor(data, width, height, BANDS);
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Random;
+
+/**
+ * Checks the content-to-style assignments of {@link MaskMatcher} against brute force.
+ */
+public class MaskMatcherTest {
+
+  @Test
+  public void uniqueAssignmentIsOptimal() {
+    double[][] greedyTrap = {
+        {0.9, 0.8, 0.1, 0.0},
+        {0.85, 0.1, 0.0, 0.2},
+        {0.3, 0.7, 0.6, 0.1}
+    };
+    int[] assignment = MaskMatcher.assign(greedyTrap, true);
+    Assert.assertArrayEquals(new int[]{1, 0, 2}, assignment);
+    Random random = new Random(42);
+    for (int trial = 0; trial < 100; trial++) {
+      double[][] similarity = new double[3][4];
+      for (double[] row : similarity) for (int c = 0; c < row.length; c++) row[c] = random.nextDouble() * 2 - 1;
+      int[] hungarian = MaskMatcher.assign(similarity, true);
+      assertInjective(hungarian, 4);
+      Assert.assertEquals(bruteForce(similarity), score(similarity, hungarian), 1e-12);
+    }
+  }
+
+  @Test
+  public void nonUniqueAssignmentTakesBestColumn() {
+    double[][] similarity = {
+        {0.1, 0.9, 0.2, 0.3},
+        {0.2, 0.8, 0.1, 0.0},
+        {0.5, 0.4, 0.3, 0.6}
+    };
+    Assert.assertArrayEquals(new int[]{1, 1, 3}, MaskMatcher.assign(similarity, false));
+  }
+
+  private static double score(@Nonnull final double[][] similarity, @Nonnull final int[] assignment) {
+    double total = 0;
+    for (int r = 0; r < assignment.length; r++) total += similarity[r][assignment[r]];
+    return total;
+  }
+
+  private static double bruteForce(@Nonnull final double[][] similarity) {
+    double best = Double.NEGATIVE_INFINITY;
+    int cols = similarity[0].length;
+    for (int a = 0; a < cols; a++) {
+      for (int b = 0; b < cols; b++) {
+        for (int c = 0; c < cols; c++) {
+          if (a == b || b == c || a == c) continue;
+          best = Math.max(best, similarity[0][a] + similarity[1][b] + similarity[2][c]);
+        }
+      }
+    }
+    return best;
+  }
+
+  private static void assertInjective(@Nonnull final int[] assignment, final int cols) {
+    boolean[] used = new boolean[cols];
+    for (int column : assignment) {
+      Assert.assertTrue(0 <= column && column < cols);
+      Assert.assertFalse(used[column]);
+      used[column] = true;
+    }
+  }
+}
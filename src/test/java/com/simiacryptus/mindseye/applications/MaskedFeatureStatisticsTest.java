@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.applications;
+
+import com.simiacryptus.mindseye.lang.Tensor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks {@link MaskedFeatureStatistics} against the normalization the shared-trunk loss applies to the canvas.
+ */
+public class MaskedFeatureStatisticsTest {
+
+  private static final int BANDS = 3;
+
+  @Test
+  public void unitWeightsMatchFeatureStatistics() {
+    Tensor map = featureMap(new Random(11), 9, 7);
+    double[] ones = new double[9 * 7];
+    Arrays.fill(ones, 1.0);
+    MaskedFeatureStatistics masked = new MaskedFeatureStatistics(true).add(map, ones);
+    FeatureStatistics plain = new FeatureStatistics(true).add(map);
+    Assert.assertArrayEquals(plain.getMean().getData(), masked.getMean().getData(), 1e-9);
+    Assert.assertArrayEquals(plain.getGram().getData(), masked.getGram().getData(), 1e-9);
+    Assert.assertArrayEquals(plain.getCenteredGram().getData(), masked.getCenteredGram().getData(), 1e-9);
+  }
+
+  @Test
+  public void matchesCanvasNormalization() {
+    Random random = new Random(13);
+    int width = 8;
+    int height = 6;
+    int pixels = width * height;
+    Tensor map = featureMap(random, width, height);
+    double[] weights = new double[pixels];
+    for (int p = 0; p < pixels; p++) weights[p] = random.nextDouble();
+    double sum = Arrays.stream(weights).sum();
+    double sumSq = Arrays.stream(weights).map(w -> w * w).sum();
+    double scale = 1.0 / Math.sqrt(sumSq / pixels);
+    double meanGain = (sum / pixels) * scale;
+    double[] data = map.getData();
+
+    double[] mean = new double[BANDS];
+    for (int band = 0; band < BANDS; band++) {
+      for (int p = 0; p < pixels; p++) mean[band] += data[band * pixels + p] * weights[p] * scale / pixels;
+      mean[band] /= meanGain;
+    }
+    double[] gram = new double[BANDS * BANDS];
+    double[] centered = new double[BANDS * BANDS];
+    for (int p = 0; p < pixels; p++) {
+      double m = weights[p] * scale;
+      for (int i = 0; i < BANDS; i++) {
+        for (int j = 0; j < BANDS; j++) {
+          double a = data[i * pixels + p];
+          double b = data[j * pixels + p];
+          gram[i * BANDS + j] += a * m * b * m / pixels;
+          centered[i * BANDS + j] += (a - mean[i]) * m * (b - mean[j]) * m / pixels;
+        }
+      }
+    }
+
+    MaskedFeatureStatistics statistics = new MaskedFeatureStatistics(true).add(map, weights);
+    Assert.assertArrayEquals(mean, statistics.getMean().getData(), 1e-9);
+    Assert.assertArrayEquals(gram, statistics.getGram().getData(), 1e-9);
+    Assert.assertArrayEquals(centered, statistics.getCenteredGram().getData(), 1e-9);
+  }
+
+  @Test
+  public void tilesAccumulateLikeOneMap() {
+    Random random = new Random(17);
+    Tensor left = featureMap(random, 5, 4);
+    Tensor right = featureMap(random, 5, 4);
+    double[] leftWeights = new double[20];
+    double[] rightWeights = new double[20];
+    for (int p = 0; p < 20; p++) {
+      leftWeights[p] = random.nextDouble();
+      rightWeights[p] = random.nextDouble();
+    }
+    double[] joinedData = new double[40 * BANDS];
+    for (int band = 0; band < BANDS; band++) {
+      System.arraycopy(left.getData(), band * 20, joinedData, band * 40, 20);
+      System.arraycopy(right.getData(), band * 20, joinedData, band * 40 + 20, 20);
+    }
+    double[] joinedWeights = new double[40];
+    System.arraycopy(leftWeights, 0, joinedWeights, 0, 20);
+    System.arraycopy(rightWeights, 0, joinedWeights, 20, 20);
+    MaskedFeatureStatistics tiled = new MaskedFeatureStatistics(true).add(left, leftWeights).add(right, rightWeights);
+    MaskedFeatureStatistics whole = new MaskedFeatureStatistics(true).add(new Tensor(joinedData, 5, 8, BANDS), joinedWeights);
+    Assert.assertArrayEquals(whole.getMean().getData(), tiled.getMean().getData(), 1e-9);
+    Assert.assertArrayEquals(whole.getCenteredGram().getData(), tiled.getCenteredGram().getData(), 1e-9);
+  }
+
+  @Nonnull
+  private static Tensor featureMap(@Nonnull final Random random, final int width, final int height) {
+    double[] data = new double[width * height * BANDS];
+    for (int i = 0; i < data.length; i++) data[i] = random.nextDouble() * (1 + i % BANDS);
+    return new Tensor(data, width, height, BANDS);
+  }
+}
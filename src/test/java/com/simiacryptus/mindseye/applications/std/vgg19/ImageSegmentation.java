@@ -19,6 +19,7 @@
 
 package com.simiacryptus.mindseye.applications.std.vgg19;
 
+import com.simiacryptus.lang.ref.ReferenceCountingBase;
 import com.simiacryptus.mindseye.applications.ArtistryAppBase_VGG19;
 import com.simiacryptus.mindseye.applications.ArtistryUtil;
 import com.simiacryptus.mindseye.applications.ImageSegmenter;
@@ -79,6 +80,10 @@ public class ImageSegmentation extends ArtistryAppBase_VGG19 {
           segmenter.spatialClusters(log, img, PCAObjectLocation.blur(featureMasks, blur));
         }
       }
+      log.h2("Fast Segmentation");
+      long startTime = System.nanoTime();
+      ImageSegmenter.fastMasks(log, img, 3, 9, 9).forEach(ReferenceCountingBase::freeRef);
+      log.p(String.format("Completed in %.1f seconds", (System.nanoTime() - startTime) / 1e9));
     }
   }
 
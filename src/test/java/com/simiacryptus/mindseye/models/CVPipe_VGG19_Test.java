@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.models;
+
+import com.simiacryptus.mindseye.test.TestUtil;
+import com.simiacryptus.util.Util;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Checks that building {@link CVPipe_VGG19}, which stops construction after its last stratum, still warms the
+ * {@link WeightCache}.
+ */
+public class CVPipe_VGG19_Test {
+
+  @Test
+  public void secondBuildIsWarm() throws Exception {
+    File weights = Util.cacheFile(TestUtil.S3_ROOT.resolve("vgg19_weights.h5"));
+    File cacheDir = Files.createTempDirectory("weight_cache").toFile();
+    try {
+      WeightCache cold = new WeightCache(weights, cacheDir);
+      CVPipe_VGG19.build(cold);
+      Assert.assertFalse(cold.isWarm());
+      WeightCache warm = new WeightCache(weights, cacheDir);
+      CVPipe_VGG19.build(warm);
+      Assert.assertTrue(warm.isWarm());
+    } finally {
+      FileUtils.deleteDirectory(cacheDir);
+    }
+  }
+}
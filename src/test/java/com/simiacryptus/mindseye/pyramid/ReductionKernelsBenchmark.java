@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.pyramid;
+
+import com.simiacryptus.mindseye.test.NotebookReportBase;
+import com.simiacryptus.notebook.NotebookOutput;
+import com.simiacryptus.notebook.TableOutput;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.LinkedHashMap;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Measures the throughput of {@link ReductionKernels} against the original sample-wise reduction, in source megapixels
+ * per second, after a warmup long enough for the kernels to be compiled by C2.
+ */
+public class ReductionKernelsBenchmark extends NotebookReportBase {
+
+  private static final int SIZE = 1024;
+  private static final int WARMUP = 20;
+  private static final int ITERATIONS = 50;
+
+  @Test(timeout = 30 * 60 * 1000)
+  public void run() {
+    run(this::run);
+  }
+
+  public void run(@Nonnull NotebookOutput log) {
+    BufferedImage image = randomImage(SIZE, SIZE, new Random(42));
+
+    log.h1("Correctness");
+    log.p("The box kernel must reproduce the original sample-wise average exactly:");
+    log.eval(() -> {
+      int[] expected = PyramidUtil.getData(legacyReduce(image).getRaster());
+      int[] actual = PyramidUtil.getData(PyramidUtil.reduce(image).getRaster());
+      Assert.assertArrayEquals(expected, actual);
+      return expected.length;
+    });
+
+    log.h1("Throughput");
+    log.out(() -> {
+      @Nonnull TableOutput table = new TableOutput();
+      table.putRow(row("getSample/setSample", image, ReductionKernelsBenchmark::legacyReduce));
+      table.putRow(row("box", image, PyramidUtil::reduce));
+      table.putRow(row("gamma", image, PyramidUtil::reduceGamma));
+      table.putRow(row("lanczos", image, PyramidUtil::reduceLanczos));
+      return table;
+    });
+  }
+
+  @Nonnull
+  private static LinkedHashMap<CharSequence, Object> row(
+      @Nonnull final String name,
+      @Nonnull final BufferedImage image,
+      @Nonnull final Function<BufferedImage, BufferedImage> reduce
+  ) {
+    for (int i = 0; i < WARMUP; i++) reduce.apply(image);
+    long startTime = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) reduce.apply(image);
+    double seconds = (System.nanoTime() - startTime) / 1e9;
+    @Nonnull LinkedHashMap<CharSequence, Object> row = new LinkedHashMap<>();
+    row.put("Kernel", name);
+    row.put("ms/tile", String.format("%.3f", 1e3 * seconds / ITERATIONS));
+    row.put("MP/s", String.format("%.1f", (double) image.getWidth() * image.getHeight() * ITERATIONS / seconds / 1e6));
+    return row;
+  }
+
+  @Nonnull
+  private static BufferedImage randomImage(final int width, final int height, @Nonnull final Random random) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    int[] data = PyramidUtil.getData(image.getRaster());
+    for (int i = 0; i < data.length; i++) data[i] = random.nextInt() & 0xFFFFFF;
+    return image;
+  }
+
+  @Nonnull
+  private static BufferedImage legacyReduce(final BufferedImage image) {
+    BufferedImage result = new BufferedImage(image.getWidth() / 2, image.getHeight() / 2, image.getType());
+    WritableRaster imageRaster = image.getRaster();
+    WritableRaster resultRaster = result.getRaster();
+    for (int x = 0; x < result.getWidth(); x++) {
+      for (int y = 0; y < result.getHeight(); y++) {
+        for (int b = 0; b < image.getRaster().getNumBands(); b++) {
+          double v = 0;
+          for (int xx = 0; xx < 2; xx++) {
+            for (int yy = 0; yy < 2; yy++) {
+              v += imageRaster.getSample(x * 2 + xx, y * 2 + yy, b);
+            }
+          }
+          resultRaster.setSample(x, y, b, v / 4);
+        }
+      }
+    }
+    return result;
+  }
+
+  @Nonnull
+  protected Class<?> getTargetClass() {
+    return ReductionKernels.class;
+  }
+
+  @Nonnull
+  @Override
+  public ReportType getReportType() {
+    return ReportType.Applications;
+  }
+}
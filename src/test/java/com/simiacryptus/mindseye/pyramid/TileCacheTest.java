@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019 by Andrew Charneski.
+ *
+ * The author licenses this file to you under the
+ * Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance
+ * with the License.  You may obtain a copy
+ * of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.simiacryptus.mindseye.pyramid;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Checks the eviction order, single-flight loading and failure handling of {@link TileCache}.
+ */
+public class TileCacheTest {
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    TileCache<String> cache = new TileCache<>(3, 1, x -> 1);
+    AtomicInteger loads = new AtomicInteger();
+    Function<String, String> loader = key -> {
+      loads.incrementAndGet();
+      return key;
+    };
+    cache.get("a", loader);
+    cache.get("b", loader);
+    cache.get("c", loader);
+    cache.get("a", loader);
+    cache.get("d", loader);
+    Assert.assertEquals(4, loads.get());
+    Assert.assertEquals(3, cache.getBytes());
+    cache.get("a", loader);
+    cache.get("c", loader);
+    cache.get("d", loader);
+    Assert.assertEquals(4, loads.get());
+    cache.get("b", loader);
+    Assert.assertEquals(5, loads.get());
+    Assert.assertEquals(2L, cache.getMetrics().get("evictions"));
+  }
+
+  @Test(timeout = 10000)
+  public void sharesConcurrentLoads() throws Exception {
+    TileCache<String> cache = new TileCache<>(1 << 20, 4, x -> 1);
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      Future<String> first = pool.submit(() -> cache.get("tile", key -> {
+        loads.incrementAndGet();
+        started.countDown();
+        await(release);
+        return key + "!";
+      }));
+      started.await();
+      Future<String> second = pool.submit(() -> cache.get("tile", key -> {
+        loads.incrementAndGet();
+        return "other";
+      }));
+      while (0 == (long) cache.getMetrics().get("waits")) Thread.sleep(1);
+      release.countDown();
+      Assert.assertEquals("tile!", first.get());
+      Assert.assertEquals("tile!", second.get());
+      Assert.assertEquals(1, loads.get());
+      Assert.assertEquals(1L, cache.getMetrics().get("misses"));
+      Assert.assertEquals(0L, cache.getMetrics().get("hits"));
+      Assert.assertEquals("tile!", cache.get("tile", key -> "other"));
+      Assert.assertEquals(1L, cache.getMetrics().get("hits"));
+    } finally {
+      pool.shutdownNow();
+      pool.awaitTermination(1, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void doesNotRetainFailedLoads() {
+    TileCache<String> cache = new TileCache<>(1 << 20, 1, x -> 1);
+    AtomicInteger loads = new AtomicInteger();
+    Function<String, String> missing = key -> {
+      loads.incrementAndGet();
+      return null;
+    };
+    Assert.assertNull(cache.get("tile", missing));
+    Assert.assertNull(cache.get("tile", missing));
+    Assert.assertEquals(2, loads.get());
+    try {
+      cache.get("tile", key -> {
+        throw new IllegalStateException(key);
+      });
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("tile", e.getMessage());
+    }
+    Assert.assertEquals("tile", cache.get("tile", key -> key));
+    Assert.assertEquals(3L, cache.getMetrics().get("loadFailures"));
+    Assert.assertEquals(1, cache.getBytes());
+  }
+
+  private static void await(@Nonnull final CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}